@@ -0,0 +1,226 @@
+// ScrollBenchmarkActivity.java
+// Measures scrolling the list of searches. The list is filled with
+// SEARCH_COUNT synthetic searches and flung by each velocity of
+// FLING_SCRIPT in turn, the next fling starting once the list comes to
+// rest. The time between frames and the allocations made on the main
+// thread meanwhile are then shown, written to logcat and kept in the
+// "scroll frame" histogram with the other metrics
+package com.zoris.twittersearches;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.TextView;
+
+import com.zoris.twittersearches.core.LatencyHistogram;
+import com.zoris.twittersearches.core.Metrics;
+import com.zoris.twittersearches.core.Query;
+import com.zoris.twittersearches.core.SearchList;
+import com.zoris.twittersearches.core.SearchTable;
+import com.zoris.twittersearches.core.TagIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ScrollBenchmarkActivity extends AppCompatActivity {
+   private static final String TAG = "ScrollBenchmark";
+
+   // searches the list is filled with
+   private static final int SEARCH_COUNT = 100_000;
+
+   // fling velocities in pixels per second; positive ones scroll down
+   private static final int[] FLING_SCRIPT = {
+      8000, 8000, 16000, -4000, 24000, -24000, 12000, 12000, -8000, 30000
+   };
+
+   // frames taking longer than one and a half 60 Hz frames are janky
+   private static final long JANK_NANOS = 25_000_000L;
+
+   private static final LatencyHistogram FRAME_LATENCY =
+      Metrics.histogram("scroll frame");
+
+   private static final String[] WORDS = {
+      "android", "java", "kotlin", "gradle", "twitter", "news", "sports",
+      "music", "weather", "traffic", "python", "rust", "election",
+      "football", "coffee", "travel", "space", "science", "movies", "art"
+   };
+
+   private RecyclerView recyclerView;
+   private TextView resultsTextView;
+
+   // builds the synthetic searches and diffs, off the main thread
+   private final ExecutorService backgroundExecutor =
+      Executors.newSingleThreadExecutor();
+
+   private boolean running; // the fling script is under way
+   private int step; // index in FLING_SCRIPT of the next fling
+   private long startTime; // nanoTime when the script started
+   private long lastFrame; // time of the previous frame, or 0
+   private int jankyFrames;
+
+   @Override
+   protected void onCreate(Bundle savedInstanceState) {
+      super.onCreate(savedInstanceState);
+      setContentView(R.layout.activity_scroll_benchmark);
+      resultsTextView = (TextView) findViewById(R.id.textViewResults);
+      recyclerView = (RecyclerView) findViewById(R.id.recyclerView);
+      recyclerView.setLayoutManager(new LinearLayoutManager(this));
+      recyclerView.addItemDecoration(new ItemDivider(this));
+      recyclerView.addOnScrollListener(flingEnded);
+      resultsTextView.setText(
+         getString(R.string.scroll_preparing, SEARCH_COUNT));
+
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            final SearchList searches = syntheticSearches(SEARCH_COUNT);
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  if (isDestroyed())
+                     return;
+
+                  recyclerView.setAdapter(new SearchesAdapter(searches,
+                     backgroundExecutor, null, null));
+                  recyclerView.post(startScript); // after the first layout
+               }
+            });
+         }
+      });
+   }
+
+   @Override
+   protected void onDestroy() {
+      super.onDestroy();
+      if (running)
+         stopCounting();
+      running = false;
+      Choreographer.getInstance().removeFrameCallback(frameCallback);
+      backgroundExecutor.shutdown();
+   }
+
+   // count searches in tag order with two- to four-word queries and
+   // times spread over a year, the same on every run
+   private static SearchList syntheticSearches(int count) {
+      Random random = new Random(count);
+      long now = System.currentTimeMillis();
+      List<Query> searches = new ArrayList<>(count);
+
+      for (int i = 0; i < count; ++i) {
+         StringBuilder query = new StringBuilder();
+         int words = 2 + random.nextInt(3);
+         for (int w = 0; w < words; ++w) {
+            if (w > 0)
+               query.append(' ');
+            query.append(WORDS[random.nextInt(WORDS.length)]);
+         }
+
+         String tag = String.format(Locale.US, "%s %06d",
+            WORDS[random.nextInt(WORDS.length)], i);
+         long time = now - (long) random.nextInt(365 * 24 * 60) * 60_000L;
+         searches.add(new Query(tag, query.toString(), time, time));
+      }
+
+      TagIndex index = new TagIndex(new SearchTable());
+      index.putAll(searches);
+      return index.snapshot();
+   }
+
+   // resets the counters and starts the first fling
+   private final Runnable startScript = new Runnable() {
+      @Override
+      @SuppressWarnings("deprecation") // the only per-thread counters
+      public void run() {
+         if (isDestroyed())
+            return;
+
+         resultsTextView.setText(R.string.scroll_running);
+         FRAME_LATENCY.reset();
+         jankyFrames = 0;
+         lastFrame = 0;
+         step = 0;
+         running = true;
+         Debug.resetThreadAllocCount();
+         Debug.startAllocCounting();
+         startTime = System.nanoTime();
+         Choreographer.getInstance().postFrameCallback(frameCallback);
+         nextFling();
+      }
+   };
+
+   // starts the next fling of the script, or reports once all are done;
+   // a fling that cannot move the list, as up from the top, is skipped
+   private void nextFling() {
+      while (step < FLING_SCRIPT.length) {
+         if (recyclerView.fling(0, FLING_SCRIPT[step++]))
+            return;
+      }
+      report();
+   }
+
+   // starts the next fling once the list has come to rest
+   private final RecyclerView.OnScrollListener flingEnded =
+      new RecyclerView.OnScrollListener() {
+         @Override
+         public void onScrollStateChanged(RecyclerView view, int state) {
+            if (running && state == RecyclerView.SCROLL_STATE_IDLE)
+               nextFling();
+         }
+      };
+
+   // records the time since the previous frame, every frame
+   private final Choreographer.FrameCallback frameCallback =
+      new Choreographer.FrameCallback() {
+         @Override
+         public void doFrame(long frameTimeNanos) {
+            if (!running)
+               return;
+
+            if (lastFrame != 0) {
+               long interval = frameTimeNanos - lastFrame;
+               FRAME_LATENCY.record(interval);
+               if (interval > JANK_NANOS)
+                  ++jankyFrames;
+            }
+            lastFrame = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+         }
+      };
+
+   @SuppressWarnings("deprecation")
+   private void stopCounting() {
+      Debug.stopAllocCounting();
+   }
+
+   // shows and logs the frame times and allocations of the script
+   @SuppressWarnings("deprecation")
+   private void report() {
+      stopCounting();
+      running = false;
+      long allocations = Debug.getThreadAllocCount();
+      long allocatedBytes = Debug.getThreadAllocSize();
+      long frames = Math.max(1, FRAME_LATENCY.getCount());
+
+      String results = getString(R.string.scroll_results,
+         FRAME_LATENCY.getCount(),
+         (System.nanoTime() - startTime) / 1e9,
+         FRAME_LATENCY.getPercentile(0.5) / 1e6,
+         FRAME_LATENCY.getPercentile(0.9) / 1e6,
+         FRAME_LATENCY.getPercentile(0.99) / 1e6,
+         FRAME_LATENCY.getMax() / 1e6,
+         jankyFrames,
+         allocations, allocatedBytes,
+         (double) allocations / frames);
+      resultsTextView.setText(results);
+      for (String line : results.split("\n"))
+         Log.i(TAG, line);
+   }
+}
@@ -0,0 +1,307 @@
+// CursorSearchList.java
+// SearchList over the rows of a database query. Rows are read through a
+// Cursor whose window holds only the page around the last position read,
+// so memory use stays flat however many searches are saved. The main
+// thread never reads the cursor, since filling its window is disk access:
+// it reads a few pages of rows copied out on the background executor, and
+// a row whose page has not arrived yet has a null tag until it does.
+// Pages are only copied while the database is unchanged since the query,
+// so rows never shift under a write; a requeried list replaces them
+package com.zoris.twittersearches;
+
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.zoris.twittersearches.core.Query;
+import com.zoris.twittersearches.core.SearchList;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+
+class CursorSearchList implements SearchList, Closeable {
+   // told on the main thread when copied rows arrive
+   interface Listener {
+      void onRowsLoaded(CursorSearchList list, int start, int count);
+   }
+
+   // rows copied at a time for the main thread, and the most pages kept
+   private static final int PAGE_SIZE = 64;
+   private static final int MAX_PAGES = 8;
+
+   // rows copied out of the cursor
+   private static final class Page {
+      final int start; // position of the first row
+      final String[] tags;
+      final String[] queries;
+      final long[] times;
+      final long[] used;
+
+      Page(int start, int count) {
+         this.start = start;
+         tags = new String[count];
+         queries = new String[count];
+         times = new long[count];
+         used = new long[count];
+      }
+   }
+
+   private final Cursor cursor;
+   private final SqliteSearchStore store; // tells whether rows moved
+   private final int version; // store's modification count when queried
+   private final boolean byRecency; // order of the query
+   private final String filter; // text the rows were filtered by
+   private final int count;
+   private final int tagColumn;
+   private final int queryColumn;
+   private final int timeColumn;
+   private final int usedColumn;
+
+   // pages copied for the main thread by number, null until one arrives;
+   // read and written only on the main thread once the list is shown
+   private final Page[] pages;
+   private final boolean[] requested; // being copied, or stale
+   private final int[] pageUses; // when each page was last read
+   private final int[] loadedPages = new int[MAX_PAGES];
+   private int loadedCount;
+   private int uses;
+
+   private final Handler mainHandler = new Handler(Looper.getMainLooper());
+   private Executor executor; // copies pages; set by pageOn
+   private Listener listener;
+   private volatile boolean closed;
+
+   // counting runs the query, so lists are created in the background;
+   // the first page is copied straight away
+   CursorSearchList(Cursor cursor, SqliteSearchStore store, boolean byRecency,
+      String filter) {
+      this.cursor = cursor;
+      this.store = store;
+      this.version = store.getModificationCount();
+      this.byRecency = byRecency;
+      this.filter = filter;
+      this.count = cursor.getCount();
+      tagColumn = cursor.getColumnIndexOrThrow(SqliteSearchStore.TAG);
+      queryColumn = cursor.getColumnIndexOrThrow(SqliteSearchStore.QUERY);
+      timeColumn = cursor.getColumnIndexOrThrow(SqliteSearchStore.TIME);
+      usedColumn = cursor.getColumnIndexOrThrow(SqliteSearchStore.USED);
+
+      int pageCount = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+      pages = new Page[pageCount];
+      requested = new boolean[pageCount];
+      pageUses = new int[pageCount];
+      if (pageCount > 0) {
+         pages[0] = copyPage(0);
+         loadedPages[loadedCount++] = 0;
+      }
+   }
+
+   // lets the main thread read the rows, copying the pages it needs on
+   // executor and telling listener as each arrives; called on the main
+   // thread before the list is shown
+   void pageOn(Executor executor, Listener listener) {
+      this.executor = executor;
+      this.listener = listener;
+   }
+
+   public boolean isByRecency() {
+      return byRecency;
+   }
+
+   public String getFilter() {
+      return filter;
+   }
+
+   // true if the rows are those of a query with the same order and filter
+   public boolean isQueryOf(boolean byRecency, String filter) {
+      return this.byRecency == byRecency && this.filter.equals(filter);
+   }
+
+   @Override
+   public int size() {
+      return count;
+   }
+
+   // on the main thread, returns null for a row not copied yet
+   @Override
+   public Query get(int position) {
+      if (!onMainThread())
+         return read(position);
+
+      Page page = page(position);
+      if (page == null)
+         return null;
+
+      int i = position - page.start;
+      return new Query(page.tags[i], page.queries[i], page.times[i],
+         page.used[i]);
+   }
+
+   // on the main thread, returns null for a row not copied yet
+   @Override
+   public String getTag(int position) {
+      if (!onMainThread())
+         return read(position).getTag();
+
+      Page page = page(position);
+      return page != null ? page.tags[position - page.start] : null;
+   }
+
+   // on the main thread, returns null for a row not copied yet
+   @Override
+   public String getQuery(int position) {
+      if (!onMainThread())
+         return read(position).getQuery();
+
+      Page page = page(position);
+      return page != null ? page.queries[position - page.start] : null;
+   }
+
+   // on the main thread, returns 0 for a row not copied yet
+   @Override
+   public long getTime(int position) {
+      if (!onMainThread())
+         return read(position).getTime();
+
+      Page page = page(position);
+      return page != null ? page.times[position - page.start] : 0;
+   }
+
+   // rows are read on demand; the list is replaced rather than changed
+   @Override
+   public SearchList snapshot() {
+      return this;
+   }
+
+   @Override
+   public int getModificationCount() {
+      return 0;
+   }
+
+   // closes the cursor, on the executor if pages may be being copied
+   @Override
+   public void close() {
+      closed = true;
+      if (executor == null) {
+         closeCursor();
+         return;
+      }
+
+      executor.execute(new Runnable() {
+         @Override
+         public void run() {
+            closeCursor();
+         }
+      });
+   }
+
+   private synchronized void closeCursor() {
+      cursor.close();
+   }
+
+   private static boolean onMainThread() {
+      return Looper.myLooper() == Looper.getMainLooper();
+   }
+
+   // returns the copied page holding position, or null after asking for
+   // it; the pages on either side are asked for too, so that scrolling
+   // finds them copied
+   private Page page(int position) {
+      if (position < 0 || position >= count)
+         throw new IndexOutOfBoundsException("Position " + position +
+            " of " + count);
+
+      int number = position / PAGE_SIZE;
+      Page page = pages[number];
+      if (page != null)
+         pageUses[number] = ++uses;
+      else
+         request(number);
+      request(number - 1);
+      request(number + 1);
+      return page;
+   }
+
+   // copies page number on the executor unless it is copied or asked
+   // for already
+   private void request(final int number) {
+      if (number < 0 || number >= pages.length || pages[number] != null ||
+         requested[number] || executor == null)
+         return;
+
+      requested[number] = true;
+      executor.execute(new Runnable() {
+         @Override
+         public void run() {
+            final Page page = copyPage(number);
+            if (page == null)
+               return; // stays requested; the list is being replaced
+
+            mainHandler.post(new Runnable() {
+               @Override
+               public void run() {
+                  addPage(number, page);
+               }
+            });
+         }
+      });
+   }
+
+   // keeps a copied page, dropping the one read longest ago if there are
+   // too many, and tells the listener its rows can be bound
+   private void addPage(int number, Page page) {
+      requested[number] = false;
+      if (closed)
+         return;
+
+      if (loadedCount == MAX_PAGES) {
+         int oldest = 0;
+         for (int i = 1; i < loadedCount; ++i) {
+            if (pageUses[loadedPages[i]] < pageUses[loadedPages[oldest]])
+               oldest = i;
+         }
+         pages[loadedPages[oldest]] = null;
+         loadedPages[oldest] = loadedPages[--loadedCount];
+      }
+
+      pages[number] = page;
+      pageUses[number] = ++uses;
+      loadedPages[loadedCount++] = number;
+      listener.onRowsLoaded(this, page.start, page.tags.length);
+   }
+
+   // copies the rows of page number out of the cursor, or returns null
+   // if the list is closed or the database changed since the query
+   private synchronized Page copyPage(int number) {
+      if (closed || store.getModificationCount() != version)
+         return null;
+
+      int start = number * PAGE_SIZE;
+      Page page = new Page(start, Math.min(PAGE_SIZE, count - start));
+      for (int i = 0; i < page.tags.length; ++i) {
+         moveTo(start + i);
+         page.tags[i] = cursor.getString(tagColumn);
+         page.queries[i] = cursor.getString(queryColumn);
+         page.times[i] = cursor.getLong(timeColumn);
+         page.used[i] = cursor.getLong(usedColumn);
+      }
+      return page;
+   }
+
+   // reads the row at position straight from the cursor, off the main
+   // thread
+   private synchronized Query read(int position) {
+      moveTo(position);
+      return new Query(cursor.getString(tagColumn),
+         cursor.getString(queryColumn), cursor.getLong(timeColumn),
+         cursor.getLong(usedColumn));
+   }
+
+   // moves to the row at position, filling the cursor window with the
+   // page around it if necessary
+   private void moveTo(int position) {
+      if (!cursor.moveToPosition(position))
+         throw new IndexOutOfBoundsException("Position " + position +
+            " of " + count);
+   }
+}
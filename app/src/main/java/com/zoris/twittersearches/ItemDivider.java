@@ -1,10 +1,18 @@
 // ItemDivider.java
 // Class that defines dividers displayed between the RecyclerView items;
-// based on Google's sample implementation at bit.ly/DividerItemDecoration
+// based on Google's sample implementation at bit.ly/DividerItemDecoration.
+// Rows all have the same height, so the dividers repeat at a fixed pitch:
+// they are drawn once into a pattern one row tall, and each frame fills
+// the rows with that pattern in a single draw, however many are visible
 package com.zoris.twittersearches;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
 import android.graphics.drawable.Drawable;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
@@ -12,6 +20,15 @@ import android.view.View;
 class ItemDivider extends RecyclerView.ItemDecoration {
    private final Drawable divider;
 
+   // the dividers of one row pitch, repeated down the list by paint's
+   // shader; rebuilt only when the geometry it was drawn for changes
+   private final Paint paint = new Paint();
+   private final Matrix shift = new Matrix();
+   private Bitmap pattern;
+   private int patternWidth;
+   private int patternPitch;
+   private int patternOffset; // divider top below its row's top
+
    // constructor loads built-in Android list item divider
    public ItemDivider(Context context) {
       int[] attrs = {android.R.attr.listDivider};
@@ -24,26 +41,76 @@ class ItemDivider extends RecyclerView.ItemDecoration {
       RecyclerView.State state) {
       super.onDrawOver(c, parent, state);
 
+      int count = parent.getChildCount();
+      if (count < 2)
+         return; // the last item has no divider
+
       // calculate left/right x-coordinates for all dividers
       int left = parent.getPaddingLeft();
       int right = parent.getWidth() - parent.getPaddingRight();
 
-      // for every item but the last, draw a line below it
-      for (int i = 0; i < parent.getChildCount() - 1; ++i) {
-         View item = parent.getChildAt(i); // get ith list item
+      // rows moving on their own, as while items are animated, or of
+      // differing heights are each given their own divider
+      View first = parent.getChildAt(0);
+      View last = parent.getChildAt(count - 1);
+      int pitch = parent.getChildAt(1).getTop() - first.getTop();
+      if (parent.isAnimating() || pitch <= 0 ||
+         last.getTop() - first.getTop() != pitch * (count - 1) ||
+         right <= left) {
+         drawEach(c, parent, left, right);
+         return;
+      }
 
-         // calculate top/bottom y-coordinates for current divider
-         int top = item.getBottom() + ((RecyclerView.LayoutParams)
-            item.getLayoutParams()).bottomMargin;
-         int bottom = top + divider.getIntrinsicHeight();
+      int offset = bottomOf(first) - first.getTop();
+      if (pattern == null || patternWidth != right - left ||
+         patternPitch != pitch || patternOffset != offset)
+         buildPattern(right - left, pitch, offset);
 
-         // draw the divider with the calculated bounds
-         divider.setBounds(left, top, right, bottom);
+      // the part of a divider that spills into the next row is drawn at
+      // the top of the pattern, so the first row's top is skipped
+      int spill = Math.max(0, offset + divider.getIntrinsicHeight() - pitch);
+      shift.setTranslate(left, first.getTop());
+      paint.getShader().setLocalMatrix(shift);
+      c.drawRect(left, first.getTop() + spill, right, last.getTop() + spill,
+         paint);
+   }
+
+   // draws one divider below every item but the last
+   private void drawEach(Canvas c, RecyclerView parent, int left,
+      int right) {
+      for (int i = 0; i < parent.getChildCount() - 1; ++i) {
+         int top = bottomOf(parent.getChildAt(i));
+         divider.setBounds(left, top, right,
+            top + divider.getIntrinsicHeight());
          divider.draw(c);
       }
    }
-}
 
+   // y-coordinate of the top of the divider below item
+   private static int bottomOf(View item) {
+      return item.getBottom() +
+         ((RecyclerView.LayoutParams) item.getLayoutParams()).bottomMargin;
+   }
+
+   // draws the dividers of one row pitch into pattern
+   private void buildPattern(int width, int pitch, int offset) {
+      if (pattern != null)
+         pattern.recycle();
+      pattern = Bitmap.createBitmap(width, pitch, Bitmap.Config.ARGB_8888);
+      patternWidth = width;
+      patternPitch = pitch;
+      patternOffset = offset;
+
+      Canvas canvas = new Canvas(pattern);
+      int height = divider.getIntrinsicHeight();
+      for (int top = offset % pitch - pitch; top < pitch; top += pitch) {
+         divider.setBounds(0, top, width, top + height);
+         divider.draw(canvas);
+      }
+      paint.setShader(new BitmapShader(pattern, Shader.TileMode.CLAMP,
+         Shader.TileMode.REPEAT));
+   }
+}
 
 /**************************************************************************
  * (C) Copyright 1992-2016 by deitel & Associates, Inc. and               *
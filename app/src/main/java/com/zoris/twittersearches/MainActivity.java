@@ -11,13 +11,19 @@ import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.TextInputLayout;
+import android.support.v4.content.FileProvider;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.view.ActionMode;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
 import android.text.Editable;
+import android.text.InputType;
 import android.text.TextWatcher;
 import android.util.Log;
 import android.view.Menu;
@@ -26,36 +32,214 @@ import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.View.OnLongClickListener;
 import android.view.inputmethod.InputMethodManager;
+import android.webkit.WebView;
 import android.widget.EditText;
 import android.widget.TextView;
+import android.widget.Toast;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.zoris.twittersearches.core.Counter;
+import com.zoris.twittersearches.core.DiskLruCache;
+import com.zoris.twittersearches.core.FilterIndex;
+import com.zoris.twittersearches.core.LatencyHistogram;
+import com.zoris.twittersearches.core.Metrics;
+import com.zoris.twittersearches.core.PreviewFetcher;
+import com.zoris.twittersearches.core.Query;
+import com.zoris.twittersearches.core.QueryHistory;
+import com.zoris.twittersearches.core.RecencyIndex;
+import com.zoris.twittersearches.core.RefreshEngine;
+import com.zoris.twittersearches.core.SearchBundle;
+import com.zoris.twittersearches.core.SearchList;
+import com.zoris.twittersearches.core.SearchSnapshot;
+import com.zoris.twittersearches.core.SearchStore;
+import com.zoris.twittersearches.core.SearchTable;
+import com.zoris.twittersearches.core.SearchUrlCache;
+import com.zoris.twittersearches.core.SyncClient;
+import com.zoris.twittersearches.core.SyncedSearchStore;
+import com.zoris.twittersearches.core.TagIndex;
+import com.zoris.twittersearches.core.TweetMatcher;
+import com.zoris.twittersearches.core.UrlConnectionClient;
 
-import java.text.SimpleDateFormat;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class MainActivity extends AppCompatActivity {
-   // name of SharedPreferences XML file that stores the saved searches
+   // name of the legacy SharedPreferences XML file of saved searches
    private static final String SEARCHES = "searches";
 
+   // tag for the startup timing messages written to logcat
+   private static final String TAG = "MainActivity";
+
+   // number of searches bound before the rest are decoded, and the size
+   // of each later batch appended to the list
+   private static final int FIRST_PAGE_SIZE = 20;
+   private static final int LOAD_BATCH_SIZE = 250;
+
+   // delay after the last keystroke in the filter before it is applied
+   private static final long FILTER_DELAY_MS = 150;
+
+   // number of encoded search URLs kept for launching and sharing
+   private static final int URL_CACHE_SIZE = 256;
+
+   // request codes for the documents chosen for import, export and
+   // matching against the searches
+   private static final int IMPORT_REQUEST = 1;
+   private static final int EXPORT_REQUEST = 2;
+   private static final int MATCH_REQUEST = 3;
+
+   // threads that match tweets of a feed against the searches
+   private static final int MATCH_THREADS =
+      Runtime.getRuntime().availableProcessors();
+
+   // number of imported searches written to the store at a time
+   private static final int IMPORT_BATCH_SIZE = 500;
+
+   // type and suggested name of exported JSON-lines files
+   private static final String EXPORT_TYPE = "application/x-ndjson";
+   private static final String EXPORT_NAME = "searches.jsonl";
+
+   // directory in the app's cache that a bundle of every search is
+   // written to for sharing, and the provider that serves it
+   private static final String SHARED_DIR = "shared";
+   private static final String BUNDLE_NAME =
+      "searches" + SearchBundle.EXTENSION;
+   private static final String FILE_PROVIDER =
+      BuildConfig.APPLICATION_ID + ".files";
+
+   // preference that remembers whether the list is sorted by recency
+   private static final String SORT_BY_RECENT = "sort_by_recent";
+
+   // preference that keeps searches in a database instead of in memory
+   private static final String USE_DATABASE = "use_database";
+
+   // preference that remembers whether latencies are being recorded
+   private static final String RECORD_METRICS = "record_metrics";
+
+   // preference that shows search results in the app instead of a browser
+   private static final String PREVIEW_IN_APP = "preview_in_app";
+
+   // directory in the app's cache where previews are kept, up to a size;
+   // pages the server sends without caching headers are reused for a
+   // minute, then shown while being revalidated for a day
+   private static final String PREVIEW_CACHE = "previews";
+   private static final long PREVIEW_CACHE_BYTES = 10 * 1024 * 1024;
+   private static final long PREVIEW_FRESH_MS = 60 * 1000;
+   private static final long PREVIEW_STALE_MS = 24 * 60 * 60 * 1000;
+   private static final int PREVIEW_TIMEOUT_MS = 15000;
+
+   // requests a refresh of all searches may have under way at once, and
+   // the least time between two of them to the same host
+   private static final int REFRESH_CONCURRENCY = 4;
+   private static final long REFRESH_HOST_INTERVAL_MS = 250;
+
+   // preference holding the sync server's URL, and the most changes
+   // sent or received in one request
+   private static final String SYNC_URL = "sync_url";
+   private static final int SYNC_TIMEOUT_MS = 15000;
+   private static final int SYNC_BATCH_SIZE = 500;
+
+   // saved state holding a received bundle not imported yet
+   private static final String RECEIVED_BUNDLE = "received_bundle";
+
+   // file in the app's external files directory that metrics are dumped
+   // to, so they can be pulled from a device and compared across builds
+   private static final String METRICS_FILE = "metrics.txt";
+
+   // latencies of the main paths through the activity
+   private static final LatencyHistogram LOAD_LATENCY =
+      Metrics.histogram("store load");
+   private static final LatencyHistogram ADD_LATENCY =
+      Metrics.histogram("add search");
+   private static final LatencyHistogram DELETE_LATENCY =
+      Metrics.histogram("delete search");
+   private static final LatencyHistogram BATCH_DELETE_LATENCY =
+      Metrics.histogram("delete selected");
+   private static final LatencyHistogram LOOKUP_LATENCY =
+      Metrics.histogram("tag lookup");
+   private static final LatencyHistogram CLICK_LATENCY =
+      Metrics.histogram("click to intent");
+   private static final LatencyHistogram PREVIEW_LATENCY =
+      Metrics.histogram("click to preview");
+
+   // saves that changed nothing, so were not written
+   private static final Counter SKIPPED_WRITES =
+      Metrics.counter("skipped writes");
+
    private EditText queryEditText; // where user enters a query
    private EditText tagEditText; // where user enters a query's tag
    private FloatingActionButton saveFloatingActionButton; // save search
-   private SharedPreferences savedSearches; // user's favorite searches
-   private List<String> tags; // list of tags for saved searches
-   private HashMap<String, String> timeMap;
+   private TwitterSearchesApplication application; // owns the store
+   private SearchStore savedSearches; // user's favorite searches
+   private SqliteSearchStore database; // savedSearches in database mode
+   private SyncedSearchStore synced; // savedSearches, versioned for sync
+   private boolean syncing; // a sync is queued, under way or being shown
+   private Set<String> syncEdits; // tags edited while a sync is shown
+   private CursorSearchList rows; // rows paged from the database
+   private final SearchTable table = new SearchTable(); // every search
+   private TagIndex searches; // saved searches sorted by tag
+   private RecencyIndex recency; // most recently used first, once loaded
+   private boolean sortByRecent; // list shows recency instead of tags
+   private final FilterIndex filterIndex = new FilterIndex(table);
    private SearchesAdapter adapter; // for binding data to RecyclerView
+   private SearchUrlCache searchUrls; // encoded URLs of recent searches
+   private boolean previewInApp; // clicks show a preview, not a browser
+   private PreviewFetcher previews; // cached search result pages
+   private RefreshEngine refreshEngine; // refreshes pages of all searches
+   private TweetMatcher matcher; // every search, once a feed is matched
+   private Map<String, String> matcherChanges; // made while it is built
+   private QueryHistory history; // earlier queries, to revert to
+   private boolean matching; // a feed is being matched
+   private ActionMode selectionMode; // shown while searches are selected
+   private Uri receivedBundle; // bundle given to the app, to import
+
+   // runs disk access and decoding off the main thread, in order; the
+   // application's, so that it outlives the activity
+   private ScheduledExecutorService backgroundExecutor;
 
-   private static String QUERY_KEY = "query";
-   private static String TIME_KEY = "time";
+   // fetches previews, so that network waits never hold up the store
+   private final ExecutorService previewExecutor =
+      Executors.newSingleThreadExecutor();
+
+   // computes the changes between lists the adapter shows, apart from
+   // the storage thread
+   private final ExecutorService diffExecutor =
+      Executors.newSingleThreadExecutor();
+
+   // reads a tweet feed and matches it, with one thread to spare for
+   // the reader; created when the first feed is matched
+   private ExecutorService matchExecutor;
+
+   // delivers fetched previews on the main thread
+   private final Executor uiExecutor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+         runOnUiThread(command);
+      }
+   };
+   private long startTime; // elapsedRealtime when onCreate began
+   private boolean loaded; // true once every saved search is bound
+   private final Handler handler = new Handler(); // debounces filtering
+   private String filterText = ""; // current filter; "" shows everything
 
    public boolean onCreateOptionsMenu(Menu menu) {
       // get the device's current orientation
@@ -65,6 +249,19 @@ public class MainActivity extends AppCompatActivity {
       if (orientation == Configuration.ORIENTATION_PORTRAIT) {
          // inflate the menu
          getMenuInflater().inflate(R.menu.fragment_exit_menu, menu);
+
+         // filter the list as the user types in the filter box
+         SearchView filterView = (SearchView)
+            menu.findItem(R.id.action_filter).getActionView();
+         filterView.setQueryHint(getString(R.string.filter_hint));
+         filterView.setOnQueryTextListener(filterListener);
+
+         menu.findItem(R.id.action_sort_recent).setChecked(sortByRecent);
+         menu.findItem(R.id.action_use_database)
+            .setChecked(database != null);
+         menu.findItem(R.id.action_record_metrics)
+            .setChecked(Metrics.isEnabled());
+         menu.findItem(R.id.action_preview).setChecked(previewInApp);
          return true;
       }
       else
@@ -73,8 +270,107 @@ public class MainActivity extends AppCompatActivity {
 
    public boolean onOptionsItemSelected(MenuItem item) {
       switch (item.getItemId()) {
+         case R.id.action_sort_recent:
+            // switch between tag and recency order and remember it
+            sortByRecent = !item.isChecked();
+            item.setChecked(sortByRecent);
+            getPreferences(MODE_PRIVATE).edit()
+               .putBoolean(SORT_BY_RECENT, sortByRecent).apply();
+            applyFilter.run(); // shows all searches or matches in order
+            return true;
+
+         case R.id.action_use_database:
+            // move the searches to the other kind of storage
+            if (loaded)
+               switchStorage(!item.isChecked());
+            return true;
+
+         case R.id.action_record_metrics:
+            // start or stop recording latencies, including at startup
+            Metrics.setEnabled(!item.isChecked());
+            item.setChecked(Metrics.isEnabled());
+            getPreferences(MODE_PRIVATE).edit()
+               .putBoolean(RECORD_METRICS, Metrics.isEnabled()).apply();
+            return true;
+
+         case R.id.action_preview:
+            // switch between in-app previews and the browser
+            previewInApp = !item.isChecked();
+            item.setChecked(previewInApp);
+            getPreferences(MODE_PRIVATE).edit()
+               .putBoolean(PREVIEW_IN_APP, previewInApp).apply();
+            return true;
+
+         case R.id.action_refresh_all:
+            if (loaded)
+               refreshAll();
+            return true;
+
+         case R.id.action_match_feed:
+            // choose a JSON-lines file of tweets to match the searches to;
+            // one at a time, since a feed's reader waits on its matchers
+            if (loaded && !matching) {
+               Intent feedIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+               feedIntent.addCategory(Intent.CATEGORY_OPENABLE);
+               feedIntent.setType("*/*");
+               startActivityForResult(feedIntent, MATCH_REQUEST);
+            }
+            return true;
+
+         case R.id.action_dump_metrics:
+            dumpMetrics();
+            return true;
+
+         case R.id.action_sync:
+            // asks for the server the first time
+            if (loaded && !syncing) {
+               String url =
+                  getPreferences(MODE_PRIVATE).getString(SYNC_URL, "");
+               if (url.isEmpty())
+                  editSyncServer(true);
+               else
+                  syncSearches(url);
+            }
+            return true;
+
+         case R.id.action_sync_server:
+            editSyncServer(false);
+            return true;
+
+         case R.id.action_share_all:
+            if (loaded)
+               shareAllSearches();
+            return true;
+
+         case R.id.action_import:
+            // choose a JSON-lines file or a shared bundle to import
+            if (loaded) {
+               Intent openIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+               openIntent.addCategory(Intent.CATEGORY_OPENABLE);
+               openIntent.setType("*/*");
+               startActivityForResult(openIntent, IMPORT_REQUEST);
+            }
+            return true;
+
+         case R.id.action_export:
+            // choose where to write the searches as JSON lines
+            if (loaded) {
+               Intent createIntent =
+                  new Intent(Intent.ACTION_CREATE_DOCUMENT);
+               createIntent.addCategory(Intent.CATEGORY_OPENABLE);
+               createIntent.setType(EXPORT_TYPE);
+               createIntent.putExtra(Intent.EXTRA_TITLE, EXPORT_NAME);
+               startActivityForResult(createIntent, EXPORT_REQUEST);
+            }
+            return true;
 
          case R.id.action_exit:
+            // write pending edits first; killing the process skips onStop
+            try {
+               savedSearches.flush();
+            } catch (IOException e) {
+               e.printStackTrace(); // the journal still holds the edits
+            }
             android.os.Process.killProcess(android.os.Process.myPid());
             System.exit(1);
             return true;
@@ -82,15 +378,54 @@ public class MainActivity extends AppCompatActivity {
 
       return super.onOptionsItemSelected(item);
    }
+   // starts the import, export or matching of the document the user
+   // chose
+   @Override
+   protected void onActivityResult(int requestCode, int resultCode,
+      Intent data) {
+      super.onActivityResult(requestCode, resultCode, data);
+      if (resultCode != RESULT_OK || data == null || data.getData() == null)
+         return;
+
+      if (requestCode == IMPORT_REQUEST)
+         importSearches(data.getData());
+      else if (requestCode == EXPORT_REQUEST)
+         exportSearches(data.getData());
+      else if (requestCode == MATCH_REQUEST)
+         matchFeed(data.getData());
+   }
+
    // configures the GUI and registers event listeners
    @Override
    protected void onCreate(Bundle savedInstanceState) {
       super.onCreate(savedInstanceState);
+      startTime = SystemClock.elapsedRealtime();
       setContentView(R.layout.activity_main);
       Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
       setSupportActionBar(toolbar);
+      application = (TwitterSearchesApplication) getApplication();
+      backgroundExecutor = application.getBackgroundExecutor();
+      history = application.getHistory();
+      receivedBundle = savedInstanceState == null ? bundleOf(getIntent()) :
+         (Uri) savedInstanceState.getParcelable(RECEIVED_BUNDLE);
 
-      timeMap = new HashMap<>();
+      searches = new TagIndex(table);
+      searchUrls =
+         new SearchUrlCache(getString(R.string.search_URL), URL_CACHE_SIZE);
+      recency = new RecencyIndex(table);
+      sortByRecent =
+         getPreferences(MODE_PRIVATE).getBoolean(SORT_BY_RECENT, false);
+      Metrics.setEnabled(
+         getPreferences(MODE_PRIVATE).getBoolean(RECORD_METRICS, false));
+      previewInApp =
+         getPreferences(MODE_PRIVATE).getBoolean(PREVIEW_IN_APP, false);
+      previews = new PreviewFetcher(
+         new UrlConnectionClient(PREVIEW_TIMEOUT_MS),
+         new DiskLruCache(new File(getCacheDir(), PREVIEW_CACHE),
+            PREVIEW_CACHE_BYTES),
+         previewExecutor, uiExecutor, PREVIEW_FRESH_MS, PREVIEW_STALE_MS);
+      refreshEngine = new RefreshEngine(previews, REFRESH_CONCURRENCY,
+         REFRESH_HOST_INTERVAL_MS, uiExecutor, refreshListener);
 
       // get references to the EditTexts and add TextWatchers to them
       queryEditText = ((TextInputLayout) findViewById(
@@ -100,17 +435,16 @@ public class MainActivity extends AppCompatActivity {
          R.id.tagTextInputLayout)).getEditText();
       tagEditText.addTextChangedListener(textWatcher);
 
-      // get the SharedPreferences containing the user's saved searches
-      savedSearches = getSharedPreferences(SEARCHES, MODE_PRIVATE);
-
-      // store the saved tags in an ArrayList then sort them
-      tags = new ArrayList<>(savedSearches.getAll().keySet());
-      Collections.sort(tags, String.CASE_INSENSITIVE_ORDER);
-
-      //pulling query/times out of prefs
-      for (String tag : tags) {
-         timeMap.put(tag, getTagPref(tag, TIME_KEY));
-      }
+      // open the store, or take the one an earlier instance of the
+      // activity opened, and load the user's saved searches in
+      // background; large collections are paged from a database instead
+      // of memory
+      synced = application.openStore(
+         getPreferences(MODE_PRIVATE).getBoolean(USE_DATABASE, false));
+      savedSearches = synced;
+      database = application.getDatabase();
+      backgroundExecutor.execute(database != null ?
+         loadDatabase : loadSearches);
 
       // get reference to the RecyclerView to configure it
       RecyclerView recyclerView =
@@ -119,9 +453,11 @@ public class MainActivity extends AppCompatActivity {
       // use a LinearLayoutManager to display items in a vertical list
       recyclerView.setLayoutManager(new LinearLayoutManager(this));
 
-      // create RecyclerView.Adapter to bind tags to the RecyclerView
+      // create RecyclerView.Adapter to bind tags to the RecyclerView;
+      // it starts empty and fills in as loadSearches decodes the tags
       adapter = new SearchesAdapter(
-              tags, timeMap, itemClickListener, itemLongClickListener);
+         currentIndex(), diffExecutor, itemClickListener,
+         itemLongClickListener);
       recyclerView.setAdapter(adapter);
 
       // specify a custom ItemDecorator to draw lines between list items
@@ -134,6 +470,508 @@ public class MainActivity extends AppCompatActivity {
       updateSaveFAB(); // hides button because EditTexts initially empty
    }
 
+   // restarts the filter delay each time the filter text changes
+   private final SearchView.OnQueryTextListener filterListener =
+      new SearchView.OnQueryTextListener() {
+         @Override
+         public boolean onQueryTextSubmit(String text) {
+            return onQueryTextChange(text);
+         }
+
+         @Override
+         public boolean onQueryTextChange(String text) {
+            filterText = text.trim();
+            handler.removeCallbacks(applyFilter);
+            handler.postDelayed(applyFilter, FILTER_DELAY_MS);
+            return true;
+         }
+      };
+
+   // returns the ordering of all searches chosen by the user; in
+   // database mode, the rows queried last
+   private SearchList currentIndex() {
+      if (rows != null)
+         return rows;
+      return sortByRecent ? recency : searches;
+   }
+
+   // queries filterIndex in the background and shows the matches, or
+   // the whole list once the filter is cleared, in the current order
+   private final Runnable applyFilter = new Runnable() {
+      @Override
+      public void run() {
+         final String filter = filterText;
+         if (database != null) {
+            queryDatabase(false);
+            return;
+         }
+
+         if (filter.isEmpty()) {
+            if (!adapter.isShowing(currentIndex()))
+               adapter.showIndex(currentIndex());
+            return;
+         }
+
+         final boolean byRecency = sortByRecent;
+         backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+               final SearchList matches =
+                  filterIndex.find(filter, byRecency);
+               runOnUiThread(new Runnable() {
+                  @Override
+                  public void run() {
+                     // ignore results for a filter that has been changed
+                     if (!isDestroyed() && filter.equals(filterText))
+                        adapter.submitList(matches);
+                  }
+               });
+            }
+         });
+      }
+   };
+
+   // writes pending edits to the log in the background once the app is
+   // no longer visible, without delaying the transition
+   @Override
+   protected void onStop() {
+      super.onStop();
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               savedSearches.flush();
+            } catch (IOException e) {
+               e.printStackTrace();
+            }
+            application.saveHistory();
+         }
+      });
+   }
+
+   // stops the activity's own work; the search store and its executor
+   // belong to the application and stay open for the next activity
+   @Override
+   protected void onDestroy() {
+      super.onDestroy();
+      handler.removeCallbacks(applyFilter);
+      if (rows != null)
+         rows.close();
+      previewExecutor.shutdown();
+      diffExecutor.shutdownNow(); // drops diffs no longer shown
+      refreshEngine.cancel();
+      if (matchExecutor != null)
+         matchExecutor.shutdownNow(); // abandons a feed being matched
+   }
+
+   // reads the store, sorts the tags and decodes the records on the
+   // background executor, handing them to the UI a batch at a time so
+   // the first screen of searches shows before the rest are decoded
+   private final Runnable loadSearches = new Runnable() {
+      @Override
+      public void run() {
+         if (!application.isStoreLoaded()) {
+            try {
+               long start = Metrics.start();
+               savedSearches.load();
+               LOAD_LATENCY.stop(start);
+               migrateSharedPreferences();
+               migrateDatabase();
+            } catch (IOException e) {
+               e.printStackTrace();
+            }
+            reportDamagedLog();
+            application.setStoreLoaded();
+         }
+
+         Map<String, String> records = savedSearches.getAll();
+         List<String> sortedTags = new ArrayList<>(records.keySet());
+         Collections.sort(sortedTags, TagIndex.ORDER);
+
+         // records with formatted time strings are rewritten once
+         Map<String, String> upgraded = new HashMap<>();
+
+         // each record is decoded straight into the table, which the
+         // filter index follows; the UI is handed only row numbers
+         int start = 0;
+         int batchSize = FIRST_PAGE_SIZE;
+         while (start < sortedTags.size()) {
+            int end = Math.min(start + batchSize, sortedTags.size());
+            int[] batch = new int[end - start];
+            for (int i = start; i < end; ++i) {
+               String tag = sortedTags.get(i);
+               Query search = Query.fromJson(tag, records.get(tag));
+               batch[i - start] = table.put(search);
+               if (search.isLegacy())
+                  upgraded.put(tag, search.toJson());
+            }
+
+            bindSearchesLater(batch);
+            start = end;
+            batchSize = LOAD_BATCH_SIZE;
+         }
+         filterIndex.trimToSize();
+
+         try {
+            if (!upgraded.isEmpty())
+               savedSearches.putAll(upgraded);
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+
+         runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+               if (!isDestroyed())
+                  buildRecencyIndex();
+            }
+         });
+      }
+   };
+
+   // opens the database in the background, first moving into it any
+   // searches kept by the in-memory mode, then shows the first rows
+   private final Runnable loadDatabase = new Runnable() {
+      @Override
+      public void run() {
+         if (!application.isStoreLoaded()) {
+            try {
+               long start = Metrics.start();
+               savedSearches.load(); // the database and its versions
+               LOAD_LATENCY.stop(start);
+               migrateSharedPreferences();
+               migrateLog();
+            } catch (IOException e) {
+               e.printStackTrace();
+            }
+            reportDamagedLog();
+            application.setStoreLoaded();
+         }
+
+         final CursorSearchList first = database.query(sortByRecent, "");
+         runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+               if (isDestroyed()) {
+                  first.close();
+                  return;
+               }
+
+               showRows(first);
+               adapter.notifyDataSetChanged();
+               finishLoading();
+            }
+         });
+      }
+   };
+
+   // shows the database rows in the current order that match the filter,
+   // querying them in the background unless they are shown already or
+   // requery is true
+   private void queryDatabase(boolean requery) {
+      final boolean byRecency = sortByRecent;
+      final String filter = filterText;
+      if (!requery && rows != null && rows.isQueryOf(byRecency, filter))
+         return;
+
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            final CursorSearchList result =
+               database.query(byRecency, filter);
+
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  // ignore rows for an order or filter that has changed
+                  if (isDestroyed() || byRecency != sortByRecent ||
+                     !filter.equals(filterText)) {
+                     result.close();
+                     return;
+                  }
+
+                  showRows(result);
+                  adapter.notifyDataSetChanged();
+               }
+            });
+         }
+      });
+   }
+
+   // makes the adapter follow result, closing the rows it replaces; its
+   // rows are paged in on the background executor as they are bound
+   private void showRows(CursorSearchList result) {
+      CursorSearchList old = rows;
+      rows = result;
+      result.pageOn(backgroundExecutor, rowsLoaded);
+      adapter.swapIndex(result);
+      if (old != null)
+         old.close();
+   }
+
+   // binds rows paged in from the database once they arrive
+   private final CursorSearchList.Listener rowsLoaded =
+      new CursorSearchList.Listener() {
+         @Override
+         public void onRowsLoaded(CursorSearchList list, int start,
+            int count) {
+            if (adapter.isShowing(list))
+               adapter.notifyItemRangeChanged(start, count);
+         }
+      };
+
+   // saves search, or deletes tag when search is null, in the database
+   // in the background; the rows are then queried again and only the
+   // row that changed is moved, inserted or removed. A search the user
+   // saved is written only if it differs from the stored one, which is
+   // then kept in the history
+   private void changeDatabase(final String tag, final Query search,
+      final boolean saved) {
+      final boolean byRecency = rows.isByRecency();
+      final String filter = rows.getFilter();
+      searchUrls.invalidate(tag);
+      if (search == null)
+         adapter.clearStatus(tag);
+
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            if (saved) {
+               Query old = database.getSearch(tag);
+               if (search.hasSameContent(old)) {
+                  SKIPPED_WRITES.increment();
+                  return;
+               }
+               if (old != null)
+                  history.record(tag, old.getQuery(), search.getQuery());
+            }
+
+            final int oldPosition = database.indexOf(tag, byRecency, filter);
+            if (search != null)
+               database.put(search);
+            else
+               database.remove(tag);
+            final int newPosition = search != null ?
+               database.indexOf(tag, byRecency, filter) : -1;
+            final CursorSearchList result =
+               database.query(byRecency, filter);
+
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  if (isDestroyed()) {
+                     result.close();
+                     return;
+                  }
+
+                  // positions only apply to rows of the same query
+                  if (!rows.isQueryOf(byRecency, filter)) {
+                     result.close();
+                     queryDatabase(true);
+                     return;
+                  }
+
+                  showRows(result);
+                  notifyMoved(result, oldPosition, newPosition);
+               }
+            });
+         }
+      });
+   }
+
+   // sorts a snapshot of the loaded searches by recency in the
+   // background, then swaps it in and finishes loading; if searches
+   // changed meanwhile the snapshot is stale and the sort is redone
+   private void buildRecencyIndex() {
+      final SearchSnapshot snapshot = searches.snapshot();
+      final int version = searches.getModificationCount();
+
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            final RecencyIndex built = RecencyIndex.build(table, snapshot);
+
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  if (isDestroyed())
+                     return;
+                  if (version != searches.getModificationCount()) {
+                     buildRecencyIndex();
+                     return;
+                  }
+
+                  recency = built;
+                  if (!loaded)
+                     finishLoading();
+                  else
+                     applyFilter.run(); // show the rebuilt order
+               }
+            });
+         }
+      });
+   }
+
+   // enables saving and shows the searches loaded in the current order
+   private void finishLoading() {
+      loaded = true;
+      updateSaveFAB();
+      applyFilter.run(); // switch to recency order or refresh matches
+      Log.i(TAG, "Loaded " + currentIndex().size() + " searches in " +
+         (SystemClock.elapsedRealtime() - startTime) + " ms");
+      reportFullyDrawn(); // marks startup complete for the system
+
+      if (receivedBundle != null) {
+         importSearches(receivedBundle);
+         receivedBundle = null;
+      }
+   }
+
+   // imports a bundle viewed with or sent to the app while it runs; the
+   // activity is single-task, so the bundle joins the searches shown
+   @Override
+   protected void onNewIntent(Intent intent) {
+      super.onNewIntent(intent);
+      setIntent(intent);
+      Uri bundle = bundleOf(intent);
+      if (bundle == null)
+         return;
+
+      if (loaded)
+         importSearches(bundle);
+      else
+         receivedBundle = bundle; // imported once the searches load
+   }
+
+   // keeps a received bundle that is not imported yet across a rotation
+   @Override
+   protected void onSaveInstanceState(Bundle outState) {
+      super.onSaveInstanceState(outState);
+      outState.putParcelable(RECEIVED_BUNDLE, receivedBundle);
+   }
+
+   // returns the document of a bundle viewed with or sent to the app, or
+   // null if intent brings none
+   private static Uri bundleOf(Intent intent) {
+      if (Intent.ACTION_VIEW.equals(intent.getAction()))
+         return intent.getData();
+      if (Intent.ACTION_SEND.equals(intent.getAction()))
+         return (Uri) intent.getParcelableExtra(Intent.EXTRA_STREAM);
+      return null;
+   }
+
+   // appends the table rows of a sorted batch of decoded searches to the
+   // list on the UI thread; called from loadSearches
+   private void bindSearchesLater(final int[] batch) {
+      runOnUiThread(new Runnable() {
+         @Override
+         public void run() {
+            if (isDestroyed())
+               return;
+
+            int start = searches.size();
+            searches.appendSorted(batch);
+            if (adapter.isShowing(searches))
+               adapter.notifyItemRangeInserted(start, batch.length);
+
+            if (start == 0)
+               Log.i(TAG, "First page bound in " +
+                  (SystemClock.elapsedRealtime() - startTime) + " ms");
+         }
+      });
+   }
+
+   // closes the store and restarts the activity with the other storage,
+   // which moves the searches across as it loads
+   private void switchStorage(final boolean useDatabase) {
+      loaded = false; // no more changes until the restart
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            application.closeStore();
+
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  getPreferences(MODE_PRIVATE).edit()
+                     .putBoolean(USE_DATABASE, useDatabase).commit();
+                  recreate();
+               }
+            });
+         }
+      });
+   }
+
+   // if loading found the log damaged, keeps the searches it lost from
+   // being synced as deletions and tells the user where the damaged
+   // copy is; runs on the background executor
+   private void reportDamagedLog() {
+      final File copy = application.takeCorruptLog();
+      if (copy == null)
+         return;
+
+      synced.forgetVersions();
+      runOnUiThread(new Runnable() {
+         @Override
+         public void run() {
+            if (isDestroyed())
+               return;
+
+            new AlertDialog.Builder(MainActivity.this)
+               .setMessage(getString(R.string.log_damaged, copy.getName()))
+               .setPositiveButton(android.R.string.ok, null)
+               .show();
+         }
+      });
+   }
+
+   // moves searches kept in the log by the in-memory mode into the
+   // database, deleting the log once they are copied
+   private void migrateLog() throws IOException {
+      if (!application.hasLog())
+         return;
+
+      SearchStore logStore = application.openLog();
+      logStore.load(); // replays edits left in the journal
+      database.putAll(logStore.getAll());
+      logStore.close();
+      application.deleteLog();
+   }
+
+   // moves searches kept in the database by the database mode into the
+   // log, deleting the database once they are copied
+   private void migrateDatabase() throws IOException {
+      if (!getDatabasePath(SqliteSearchStore.DATABASE_NAME).exists())
+         return;
+
+      SqliteSearchStore store = new SqliteSearchStore(this);
+      store.load();
+      savedSearches.putAll(store.getAll());
+      savedSearches.flush();
+      store.close();
+      deleteDatabase(SqliteSearchStore.DATABASE_NAME);
+   }
+
+   // moves searches saved by older versions of the app out of
+   // SharedPreferences and into the search store
+   private void migrateSharedPreferences() throws IOException {
+      SharedPreferences preferences =
+         getSharedPreferences(SEARCHES, MODE_PRIVATE);
+      Map<String, ?> legacy = preferences.getAll();
+      if (legacy.isEmpty())
+         return;
+
+      Map<String, String> records = new HashMap<>();
+      for (Map.Entry<String, ?> entry : legacy.entrySet()) {
+         if (entry.getValue() instanceof String)
+            records.put(entry.getKey(), (String) entry.getValue());
+      }
+
+      // copy first so an interrupted migration simply runs again
+      savedSearches.putAll(records);
+      preferences.edit().clear().commit();
+   }
+
    // hide/show saveFloatingActionButton based on EditTexts' contents
    private final TextWatcher textWatcher = new TextWatcher() {
       @Override
@@ -153,15 +991,15 @@ public class MainActivity extends AppCompatActivity {
 
    // shows or hides the saveFloatingActionButton
    private void updateSaveFAB() {
-      // check if there is input in both EditTexts
-      if (queryEditText.getText().toString().isEmpty() ||
+      // check that loading is done and there is input in both EditTexts
+      if (!loaded || queryEditText.getText().toString().isEmpty() ||
          tagEditText.getText().toString().isEmpty())
          saveFloatingActionButton.hide();
       else
          saveFloatingActionButton.show();
    }
 
-   // saveButtonListener save a tag-query pair into SharedPreferences
+   // saveButtonListener save a tag-query pair into the search store
    private final OnClickListener saveButtonListener =
       new OnClickListener() {
          // add/update search if neither query nor tag is empty
@@ -184,46 +1022,100 @@ public class MainActivity extends AppCompatActivity {
          }
       };
 
-   // add new search to file, then refresh all buttons
+   // add new search to file, then refresh all buttons; saving a search
+   // unchanged writes nothing, and a changed query keeps the old one in
+   // the history
    private void addTaggedSearch(String tag, String query) {
-      // TODO: Compare to previous timeString, save if new
-      SimpleDateFormat sdf = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
-      String timeString = sdf.format(Calendar.getInstance().getTime());
+      long start = Metrics.start();
+      long now = System.currentTimeMillis();
+      Query search = new Query(tag, query, now, now);
+      if (database != null) {
+         // compares in the background, so the edit is noted whatever it
+         // finds; a sync shown meanwhile requeries the rows either way
+         noteEdit(tag);
+         changeDatabase(tag, search, true);
+      }
+      else {
+         Query old = getSearch(tag);
+         if (search.hasSameContent(old)) {
+            SKIPPED_WRITES.increment();
+            ADD_LATENCY.stop(start);
+            return;
+         }
 
-      // store query and time as json string in shared prefs
-      JSONObject taggedPrefJson = new JSONObject();
+         if (old != null)
+            history.record(tag, old.getQuery(), query);
+         putSearch(old, search);
+      }
+      changeMatcher(tag, query);
+      ADD_LATENCY.stop(start);
+   }
+
+   // returns the saved search tagged tag, or null if there is none
+   private Query getSearch(String tag) {
+      long start = Metrics.start();
+      Query search = searches.get(tag);
+      LOOKUP_LATENCY.stop(start);
+      return search;
+   }
+
+   // stores search in place of old (null for a new tag), updates every
+   // index, then updates only the affected row of the RecyclerView; the
+   // database finds old itself. Callers skip searches saved unchanged,
+   // so only real edits are noted for a sync being shown
+   private void putSearch(Query old, Query search) {
+      noteEdit(search.getTag());
+      if (database != null) {
+         changeDatabase(search.getTag(), search, false);
+         return;
+      }
+
+      // store query and times as json string in the search store
       try {
-         taggedPrefJson.put(QUERY_KEY, query);
-         taggedPrefJson.put(TIME_KEY, timeString);
-      } catch (JSONException e) {
+         savedSearches.put(search.getTag(), search.toJson());
+      } catch (IOException e) {
          e.printStackTrace();
       }
 
-      // get a SharedPreferences.Editor to store new tag/query pair
-      SharedPreferences.Editor preferencesEditor = savedSearches.edit();
-      preferencesEditor.putString(tag, taggedPrefJson.toString()); // store current search
-      preferencesEditor.apply(); // store the updated preferences
-
-       // if tag is new, add to and sort tags, then display updated list
-      if (!tags.contains(tag)) {
-         tags.add(tag); // add new tag
-         timeMap.put(tag, timeString);
-         Collections.sort(tags, String.CASE_INSENSITIVE_ORDER);
-         adapter.notifyDataSetChanged(); // update tags in RecyclerView
+      if (old != null && !old.getQuery().equals(search.getQuery())) {
+         searchUrls.invalidate(search.getTag());
+         adapter.clearStatus(search.getTag()); // for the old query
+      }
+      int oldTagPosition = old != null ? searches.indexOf(old.getTag()) : -1;
+      int tagPosition = searches.put(search);
+
+      // the recency index only exists once loading has finished
+      int oldRecentPosition = -1;
+      int recentPosition = -1;
+      if (loaded) {
+         oldRecentPosition = old != null ? recency.remove(old) : -1;
+         recentPosition = recency.put(search);
       }
+
+      if (sortByRecent)
+         notifyMoved(recency, oldRecentPosition, recentPosition);
+      else
+         notifyMoved(searches, oldTagPosition, tagPosition);
    }
 
-   private String getTagPref(String tag, String attribute) {
-      String rawJson = savedSearches.getString(tag, "{}");
-      try {
-         JSONObject json = new JSONObject(rawJson);
-         Log.d("pref", "json: " + json.toString());
-         return json.getString(attribute);
-      } catch (JSONException e) {
-         e.printStackTrace();
+   // tells the adapter that a search in list moved from oldPosition to
+   // newPosition, where -1 means absent; filtered rows are refreshed
+   private void notifyMoved(SearchList list, int oldPosition,
+      int newPosition) {
+      if (!adapter.isShowing(list)) {
+         applyFilter.run(); // rows are filtered; refresh the matches
+         return;
       }
 
-      return ""; //error, or doesnt exist
+      if (oldPosition < 0 && newPosition >= 0)
+         adapter.notifyItemInserted(newPosition);
+      else if (oldPosition >= 0 && newPosition < 0)
+         adapter.notifyItemRemoved(oldPosition);
+      else if (oldPosition >= 0) {
+         if (oldPosition != newPosition)
+            adapter.notifyItemMoved(oldPosition, newPosition);
+         adapter.notifyItemChanged(newPosition);
+      }
    }
 
 
@@ -232,37 +1124,271 @@ public class MainActivity extends AppCompatActivity {
       new OnClickListener() {
          @Override
          public void onClick(View view) {
-            // get query string and create a URL representing the search
-             final String tag = ((TextView)(view.findViewById(R.id.textViewTag))).getText().toString();
-             Log.d("pref", "tag: " + tag);
-
-
-             String query = getTagPref(tag, QUERY_KEY);
-
-             Log.d("pref", "query: " + query);
+            long start = Metrics.start();
 
+            // get the row's search and the URL representing it
+            Query search = adapter.getSearch(view);
+            if (search == null)
+               return; // the row is being removed
+            if (selectionMode != null) {
+               toggleSelected(search.getTag());
+               return;
+            }
+            String urlString = searchUrls.get(search);
 
-             String urlString = getString(R.string.search_URL) +
-               Uri.encode(query, "UTF-8");
+            // record the launch so the search moves up in recency order
+            Query current =
+               database == null ? getSearch(search.getTag()) : search;
+            if (current != null)
+               putSearch(current, current.usedAt(System.currentTimeMillis()));
 
-            Log.d("pref", "url: " + urlString);
+            if (previewInApp) {
+               showPreview(search.getTag(), urlString, start);
+               return;
+            }
 
             // create an Intent to launch a web browser
             Intent webIntent = new Intent(Intent.ACTION_VIEW,
                Uri.parse(urlString));
 
             startActivity(webIntent); // show results in web browser
+            CLICK_LATENCY.stop(start);
+         }
+      };
+
+   // queues a refresh of every search's results in the background, in
+   // display order so that the rows on screen tend to update first; the
+   // database's records come in no particular order
+   private void refreshAll() {
+      final SearchList list = database == null ?
+         currentIndex().snapshot() : null;
+
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            if (list != null) {
+               for (int i = 0; i < list.size(); ++i)
+                  refresh(list.get(i));
+            }
+            else {
+               for (Map.Entry<String, String> record :
+                  savedSearches.getAll().entrySet())
+                  refresh(Query.fromJson(record.getKey(), record.getValue()));
+            }
+         }
+      });
+   }
+
+   private void refresh(Query search) {
+      refreshEngine.refresh(search.getTag(), searchUrls.get(search));
+   }
+
+   // shows each refreshed search's status in its row
+   private final RefreshEngine.Listener refreshListener =
+      new RefreshEngine.Listener() {
+         @Override
+         public void onRefreshed(String tag, long time, boolean changed) {
+            adapter.setStatus(tag, getString(changed ?
+               R.string.refresh_changed : R.string.refresh_unchanged));
+         }
+
+         @Override
+         public void onRefreshFailed(String tag, IOException e) {
+            e.printStackTrace();
+            adapter.setStatus(tag, getString(R.string.refresh_failed));
          }
       };
 
+   // counts the tweets in the JSON-lines feed at uri that match each
+   // search and shows the counts in the searches' rows. The matcher is
+   // built from every search the first time, off the main thread, and is
+   // kept up to date from then on
+   private void matchFeed(final Uri uri) {
+      matching = true;
+      if (matchExecutor == null)
+         matchExecutor = Executors.newFixedThreadPool(MATCH_THREADS + 1);
+
+      if (matcher != null) {
+         scanFeed(matcher, uri);
+         return;
+      }
+
+      // adds and deletes made while the matcher is built are replayed on
+      // it
+      if (matcherChanges == null)
+         matcherChanges = new HashMap<>();
+      final SearchList list = database == null ?
+         currentIndex().snapshot() : null;
+
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            final TweetMatcher built = new TweetMatcher();
+            if (list != null) {
+               for (int i = 0; i < list.size(); ++i)
+                  built.put(list.get(i).getTag(), list.get(i).getQuery());
+            }
+            else {
+               for (Map.Entry<String, String> record :
+                  savedSearches.getAll().entrySet()) {
+                  Query search =
+                     Query.fromJson(record.getKey(), record.getValue());
+                  built.put(search.getTag(), search.getQuery());
+               }
+            }
+
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  if (isDestroyed())
+                     return;
+
+                  // an import meanwhile leaves the matcher to be built
+                  // again for the next feed
+                  if (matcherChanges != null) {
+                     for (Map.Entry<String, String> change :
+                        matcherChanges.entrySet()) {
+                        if (change.getValue() != null)
+                           built.put(change.getKey(), change.getValue());
+                        else
+                           built.remove(change.getKey());
+                     }
+                     matcher = built;
+                     matcherChanges = null;
+                  }
+                  scanFeed(matcher != null ? matcher : built, uri);
+               }
+            });
+         }
+      });
+   }
+
+   // keeps the matcher, if it has been built, in step with the searches;
+   // query is null for a deleted search
+   private void changeMatcher(String tag, String query) {
+      if (matcherChanges != null)
+         matcherChanges.put(tag, query); // replayed once it is built
+      else if (matcher != null && query != null)
+         matcher.put(tag, query);
+      else if (matcher != null)
+         matcher.remove(tag);
+   }
+
+   // reads the feed at uri on one thread while the others match it
+   private void scanFeed(final TweetMatcher current, final Uri uri) {
+      matchExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            TweetMatcher.FeedCounts counts = null;
+            try (BufferedReader feed = new BufferedReader(
+               new InputStreamReader(getContentResolver().openInputStream(uri),
+                  StandardCharsets.UTF_8))) {
+               counts = current.matchFeed(feed, matchExecutor, MATCH_THREADS);
+            } catch (IOException | RuntimeException e) {
+               e.printStackTrace(); // unreadable document, or destroyed
+            }
+
+            // only searches with matches are counted; the others show
+            // nothing, whatever an earlier feed matched
+            final Map<String, CharSequence> matches = new HashMap<>();
+            if (counts != null) {
+               for (Map.Entry<String, Integer> count :
+                  counts.getMatchCounts().entrySet())
+                  matches.put(count.getKey(),
+                     getString(R.string.feed_matches, count.getValue()));
+            }
+
+            final TweetMatcher.FeedCounts result = counts;
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  matching = false;
+                  if (isDestroyed())
+                     return;
+
+                  if (result == null) {
+                     Toast.makeText(MainActivity.this, R.string.match_failed,
+                        Toast.LENGTH_SHORT).show();
+                     return;
+                  }
+
+                  adapter.setFeedMatches(matches);
+                  Toast.makeText(MainActivity.this,
+                     getString(R.string.feed_matched, result.getTweetCount(),
+                        result.getMatchCounts().size()),
+                     Toast.LENGTH_SHORT).show();
+               }
+            });
+         }
+      });
+   }
+
+   // shows the results at urlString in a dialog, from the preview cache
+   // when possible, with a button that opens them in the browser instead;
+   // start is when the user clicked
+   private void showPreview(String tag, final String urlString,
+      final long start) {
+      final WebView webView = new WebView(this);
+      final AlertDialog dialog = new AlertDialog.Builder(this)
+         .setTitle(tag)
+         .setView(webView)
+         .setPositiveButton(R.string.open_in_browser,
+            new DialogInterface.OnClickListener() {
+               @Override
+               public void onClick(DialogInterface dialog, int id) {
+                  startActivity(new Intent(Intent.ACTION_VIEW,
+                     Uri.parse(urlString)));
+               }
+            })
+         .setNegativeButton(R.string.close, null)
+         .setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface dialog) {
+               webView.destroy();
+            }
+         })
+         .show();
+
+      previews.fetch(urlString, new PreviewFetcher.Callback() {
+         @Override
+         public void onPreview(PreviewFetcher.Preview preview) {
+            if (isDestroyed() || !dialog.isShowing())
+               return; // closed while fetching
+
+            webView.loadDataWithBaseURL(preview.getUrl(), preview.getText(),
+               preview.getMimeType(), "UTF-8", null);
+            if (!preview.isUpdate())
+               PREVIEW_LATENCY.stop(start);
+         }
+
+         @Override
+         public void onFailure(IOException e) {
+            e.printStackTrace();
+            if (isDestroyed() || !dialog.isShowing())
+               return;
+
+            // the browser button still offers the live page
+            Toast.makeText(MainActivity.this, R.string.preview_failed,
+               Toast.LENGTH_SHORT).show();
+         }
+      });
+   }
+
    // itemLongClickListener displays a dialog allowing the user to share
    // edit or delete a saved search
    private final OnLongClickListener itemLongClickListener =
       new OnLongClickListener() {
          @Override
          public boolean onLongClick(View view) {
-            // get the tag that the user long touched
-            final String tag = ((TextView)(view.findViewById(R.id.textViewTag))).getText().toString();
+            // get the search that the user long touched
+            final Query search = adapter.getSearch(view);
+            if (search == null)
+               return false; // the row is being removed
+            final String tag = search.getTag();
+            if (selectionMode != null) {
+               toggleSelected(tag);
+               return true;
+            }
 
             // create a new AlertDialog
             AlertDialog.Builder builder =
@@ -279,16 +1405,24 @@ public class MainActivity extends AppCompatActivity {
                   public void onClick(DialogInterface dialog, int which) {
                      switch (which) {
                         case 0: // share
-                           shareSearch(tag);
+                           shareSearch(search);
                            break;
                         case 1: // edit
                            // set EditTexts to match chosen tag and query
                            tagEditText.setText(tag);
-                           queryEditText.setText(getTagPref(tag, QUERY_KEY));
+                           queryEditText.setText(search.getQuery());
                            break;
                         case 2: // delete
                            deleteSearch(tag);
                            break;
+                        case 3: // history
+                           showHistory(search);
+                           break;
+                        case 4: // select
+                           selectionMode =
+                              startSupportActionMode(selectionCallback);
+                           toggleSelected(tag);
+                           break;
                      }
                   }
                }
@@ -302,11 +1436,80 @@ public class MainActivity extends AppCompatActivity {
          }
       };
 
+   // selects or deselects tag's search; deselecting the last one ends
+   // the selection
+   private void toggleSelected(String tag) {
+      adapter.setSelected(tag, !adapter.isSelected(tag));
+      if (!adapter.isSelecting())
+         selectionMode.finish();
+      else {
+         selectionMode.setTitle(getString(R.string.selected_count,
+            adapter.getSelection().size()));
+      }
+   }
+
+   // shares or deletes the selected searches from the action bar
+   private final ActionMode.Callback selectionCallback =
+      new ActionMode.Callback() {
+         @Override
+         public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.selection_menu, menu);
+            return true;
+         }
+
+         @Override
+         public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+         }
+
+         @Override
+         public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            switch (item.getItemId()) {
+               case R.id.action_share_selected:
+                  shareSearches(adapter.getSelection());
+                  mode.finish();
+                  return true;
+               case R.id.action_delete_selected:
+                  deleteSearches(adapter.getSelection());
+                  return true;
+            }
+            return false;
+         }
+
+         @Override
+         public void onDestroyActionMode(ActionMode mode) {
+            selectionMode = null;
+            adapter.clearSelection();
+         }
+      };
+
+   // lets the user pick one of search's earlier queries to save again
+   private void showHistory(final Query search) {
+      final List<String> queries =
+         history.get(search.getTag(), search.getQuery());
+      if (queries.isEmpty()) {
+         Toast.makeText(this, R.string.no_history, Toast.LENGTH_SHORT).show();
+         return;
+      }
+
+      new AlertDialog.Builder(this)
+         .setTitle(getString(R.string.history_title, search.getTag()))
+         .setItems(queries.toArray(new String[queries.size()]),
+            new DialogInterface.OnClickListener() {
+               @Override
+               public void onClick(DialogInterface dialog, int which) {
+                  // the revert is itself an edit, so it can be undone
+                  addTaggedSearch(search.getTag(), queries.get(which));
+               }
+            })
+         .setNegativeButton(R.string.cancel, null)
+         .show();
+   }
+
    // allow user to choose an app for sharing URL of a saved search
-   private void shareSearch(String tag) {
-      // create the URL representing the search
-      String urlString = getString(R.string.search_URL) +
-         Uri.encode(getTagPref(tag, QUERY_KEY), "UTF-8");
+   private void shareSearch(Query search) {
+      // get the URL representing the search
+      String urlString = searchUrls.get(search);
 
       // create Intent to share urlString
       Intent shareIntent = new Intent();
@@ -322,6 +1525,542 @@ public class MainActivity extends AppCompatActivity {
          getString(R.string.share_search)));
    }
 
+   // shares the URLs of the searches tagged tags as one message, built
+   // in the background since there may be hundreds of them
+   private void shareSearches(final Set<String> tags) {
+      final String header = getString(R.string.share_searches_message);
+
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            List<String> sorted = new ArrayList<>(tags);
+            Collections.sort(sorted, TagIndex.ORDER);
+            StringBuilder message = new StringBuilder(header);
+            for (String tag : sorted) {
+               // the table is only read here, under its own lock
+               Query search = database == null ?
+                  table.get(tag) : database.getSearch(tag);
+               if (search != null) {
+                  message.append('\n').append(tag).append(": ")
+                     .append(searchUrls.get(search));
+               }
+            }
+
+            final String text = message.toString();
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  if (isDestroyed())
+                     return;
+
+                  Intent shareIntent = new Intent(Intent.ACTION_SEND);
+                  shareIntent.putExtra(Intent.EXTRA_SUBJECT,
+                     getString(R.string.share_subject));
+                  shareIntent.putExtra(Intent.EXTRA_TEXT, text);
+                  shareIntent.setType("text/plain");
+                  startActivity(Intent.createChooser(shareIntent,
+                     getString(R.string.share_search)));
+               }
+            });
+         }
+      });
+   }
+
+   // deletes the searches tagged tags after one confirmation, as a
+   // single write to the store, removing their rows a range at a time
+   private void deleteSearches(final Set<String> tags) {
+      new AlertDialog.Builder(this)
+         .setMessage(getString(R.string.confirm_delete_selected, tags.size()))
+         .setNegativeButton(R.string.cancel, null)
+         .setPositiveButton(R.string.delete,
+            new DialogInterface.OnClickListener() {
+               @Override
+               public void onClick(DialogInterface dialog, int id) {
+                  long start = Metrics.start();
+                  Map<String, String> removals = new HashMap<>();
+                  for (String tag : tags) {
+                     noteEdit(tag);
+                     removals.put(tag, null);
+                     changeMatcher(tag, null);
+                     history.remove(tag);
+                     searchUrls.invalidate(tag);
+                     adapter.clearStatus(tag);
+                  }
+                  if (selectionMode != null)
+                     selectionMode.finish();
+
+                  if (database != null) {
+                     deleteFromDatabase(removals);
+                     BATCH_DELETE_LATENCY.stop(start);
+                     return;
+                  }
+
+                  // the recency index finds the rows through the table,
+                  // so it goes first
+                  int[] recentPositions =
+                     loaded ? recency.removeAll(tags) : new int[0];
+                  int[] tagPositions = searches.removeAll(tags);
+
+                  try {
+                     savedSearches.putAll(removals);
+                  } catch (IOException e) {
+                     e.printStackTrace();
+                  }
+
+                  if (sortByRecent)
+                     notifyRemoved(recency, recentPositions);
+                  else
+                     notifyRemoved(searches, tagPositions);
+                  BATCH_DELETE_LATENCY.stop(start);
+               }
+            })
+         .show();
+   }
+
+   // deletes the tags of removals in one database transaction in the
+   // background, then removes their rows from the requeried list
+   private void deleteFromDatabase(final Map<String, String> removals) {
+      final boolean byRecency = rows.isByRecency();
+      final String filter = rows.getFilter();
+
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            int[] found = new int[removals.size()];
+            int count = 0;
+            for (String tag : removals.keySet()) {
+               int position = database.indexOf(tag, byRecency, filter);
+               if (position >= 0)
+                  found[count++] = position;
+            }
+            final int[] positions = Arrays.copyOf(found, count);
+            Arrays.sort(positions);
+
+            database.putAll(removals);
+            final CursorSearchList result =
+               database.query(byRecency, filter);
+
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  if (isDestroyed()) {
+                     result.close();
+                     return;
+                  }
+
+                  // positions only apply to rows of the same query
+                  if (!rows.isQueryOf(byRecency, filter)) {
+                     result.close();
+                     queryDatabase(true);
+                     return;
+                  }
+
+                  showRows(result);
+                  notifyRemoved(result, positions);
+               }
+            });
+         }
+      });
+   }
+
+   // tells the adapter that the searches at positions, ascending, were
+   // removed from list; filtered rows are refreshed instead
+   private void notifyRemoved(SearchList list, int[] positions) {
+      if (!adapter.isShowing(list))
+         applyFilter.run(); // rows are filtered; refresh the matches
+      else
+         adapter.notifyItemsRemoved(positions);
+   }
+
+   // imports searches from a JSON-lines document or a bundle in the
+   // background, showing progress with a cancel button. Each committed
+   // batch joins the list and the filter index together; the recency
+   // order is rebuilt once the import ends
+   private void importSearches(final Uri uri) {
+      final SearchTransfer transfer =
+         new SearchTransfer(savedSearches, IMPORT_BATCH_SIZE);
+
+      View progressView =
+         getLayoutInflater().inflate(R.layout.dialog_progress, null);
+      final TextView progressMessage =
+         (TextView) progressView.findViewById(R.id.progressMessage);
+      progressMessage.setText(getString(R.string.importing, 0));
+      final AlertDialog progress = new AlertDialog.Builder(this)
+         .setView(progressView)
+         .setCancelable(false)
+         .setNegativeButton(R.string.cancel,
+            new DialogInterface.OnClickListener() {
+               @Override
+               public void onClick(DialogInterface dialog, int which) {
+                  transfer.cancel();
+               }
+            })
+         .show();
+
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            final List<Query> imported = new ArrayList<>();
+            boolean failed = false;
+            try (InputStream in = getContentResolver().openInputStream(uri)) {
+               transfer.importFrom(in, imported,
+                  new SearchTransfer.Listener() {
+                     @Override
+                     public void onBatchImported(final List<Query> batch,
+                        final int count) {
+                        runOnUiThread(new Runnable() {
+                           @Override
+                           public void run() {
+                              if (isDestroyed())
+                                 return;
+
+                              progressMessage.setText(
+                                 getString(R.string.importing, count));
+                              addImportedSearches(batch);
+                           }
+                        });
+                     }
+                  });
+            } catch (IOException | RuntimeException e) {
+               e.printStackTrace(); // malformed or unreadable document
+               failed = true;
+            }
+
+            final String message = failed ?
+               getString(R.string.import_failed, imported.size()) :
+               getString(R.string.imported, imported.size());
+            final boolean any = !imported.isEmpty();
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  if (isDestroyed())
+                     return;
+
+                  progress.dismiss();
+                  if (any)
+                     showImportedSearches();
+                  Toast.makeText(MainActivity.this, message,
+                     Toast.LENGTH_SHORT).show();
+               }
+            });
+         }
+      });
+   }
+
+   // adds a batch of searches just committed by an import to the
+   // in-memory indexes; the adapter keeps its rows while they change and
+   // is refreshed once the import ends
+   private void addImportedSearches(List<Query> batch) {
+      // the matcher is built again, with the imported searches, when the
+      // next feed is matched
+      matcher = null;
+      matcherChanges = null;
+
+      if (database != null)
+         return; // the rows are queried again once the import ends
+
+      adapter.detach();
+      searches.putAll(batch);
+   }
+
+   // shows the searches in the current order once an import has ended
+   private void showImportedSearches() {
+      if (database != null)
+         queryDatabase(true);
+      else
+         buildRecencyIndex();
+   }
+
+   // asks for the URL of the sync server and remembers it, syncing
+   // straight away if sync is true
+   private void editSyncServer(final boolean sync) {
+      final EditText urlEditText = new EditText(this);
+      urlEditText.setInputType(
+         InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_URI);
+      urlEditText.setHint(R.string.sync_server_hint);
+      urlEditText.setText(
+         getPreferences(MODE_PRIVATE).getString(SYNC_URL, ""));
+
+      new AlertDialog.Builder(this)
+         .setTitle(R.string.sync_server)
+         .setView(urlEditText)
+         .setNegativeButton(R.string.cancel, null)
+         .setPositiveButton(R.string.sync_server_save,
+            new DialogInterface.OnClickListener() {
+               @Override
+               public void onClick(DialogInterface dialog, int id) {
+                  String url = urlEditText.getText().toString().trim();
+                  getPreferences(MODE_PRIVATE).edit()
+                     .putString(SYNC_URL, url).apply();
+                  if (sync && !url.isEmpty() && loaded && !syncing)
+                     syncSearches(url);
+               }
+            })
+         .show();
+   }
+
+   // exchanges the changes made since the last sync with the server at
+   // url in the background, then shows the searches other devices saved
+   // or deleted
+   private void syncSearches(final String url) {
+      syncing = true;
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            SyncClient.Result result = null;
+            try {
+               result = new SyncClient(synced,
+                  new UrlConnectionClient(SYNC_TIMEOUT_MS), url,
+                  SYNC_BATCH_SIZE).sync();
+            } catch (IOException | RuntimeException e) {
+               e.printStackTrace(); // what was exchanged stays applied
+            }
+
+            final Set<String> changed = result == null ?
+               Collections.<String>emptySet() :
+               new HashSet<>(result.getChanges().keySet());
+            final String message = result == null ?
+               getString(R.string.sync_failed) :
+               getString(R.string.synced, result.getSent(), changed.size());
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  if (isDestroyed())
+                     return;
+
+                  Toast.makeText(MainActivity.this, message,
+                     Toast.LENGTH_SHORT).show();
+                  readSyncedSearches(changed);
+               }
+            });
+         }
+      });
+   }
+
+   // reads back from the store, in the background, the searches of the
+   // tags a sync changed, then shows them. The user may have edited some
+   // of those tags since the sync stored them, so its records are not
+   // shown as received; every edit made before this call is in the store
+   // when it is read, and tags edited after it are left as the user
+   // made them
+   private void readSyncedSearches(final Set<String> changed) {
+      if (changed.isEmpty()) {
+         syncing = false;
+         return;
+      }
+
+      syncEdits = new HashSet<>();
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            // decoded here rather than on the UI thread
+            final List<Query> saved = new ArrayList<>();
+            final Set<String> deleted = new HashSet<>();
+            for (String tag : changed) {
+               String record = savedSearches.get(tag);
+               if (record == null)
+                  deleted.add(tag);
+               else
+                  saved.add(Query.fromJson(tag, record));
+            }
+
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  syncing = false;
+                  if (isDestroyed())
+                     return;
+
+                  addSyncedSearches(saved, deleted, syncEdits);
+                  syncEdits = null;
+               }
+            });
+         }
+      });
+   }
+
+   // notes that the user edited tag, so that a sync being shown leaves
+   // it alone
+   private void noteEdit(String tag) {
+      if (syncEdits != null)
+         syncEdits.add(tag);
+   }
+
+   // puts the searches a sync saved and removes those it deleted, as the
+   // store holds them, in the in-memory indexes, except those of tags in
+   // edited; as after an import the adapter is refreshed once the
+   // recency order is rebuilt
+   private void addSyncedSearches(List<Query> saved, Set<String> deleted,
+      Set<String> edited) {
+      for (Iterator<Query> i = saved.iterator(); i.hasNext(); ) {
+         if (edited.contains(i.next().getTag()))
+            i.remove();
+      }
+      deleted.removeAll(edited);
+      if (saved.isEmpty() && deleted.isEmpty())
+         return;
+
+      for (Query search : saved) {
+         changeMatcher(search.getTag(), search.getQuery());
+         searchUrls.invalidate(search.getTag());
+         adapter.clearStatus(search.getTag());
+      }
+      for (String tag : deleted) {
+         changeMatcher(tag, null);
+         history.remove(tag);
+         searchUrls.invalidate(tag);
+         adapter.clearStatus(tag);
+      }
+
+      if (database != null) {
+         queryDatabase(true);
+         return;
+      }
+
+      // the recency index finds the rows through the table, so it drops
+      // the deleted ones before the table does
+      adapter.detach();
+      recency.removeAll(deleted);
+      searches.removeAll(deleted);
+      searches.putAll(saved);
+      buildRecencyIndex();
+   }
+
+   // writes a snapshot of the searches to a JSON-lines document in the
+   // background
+   private void exportSearches(final Uri uri) {
+      final SearchList snapshot =
+         database == null ? searches.snapshot() : null;
+
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            // in database mode, rows are read a page at a time
+            CursorSearchList all =
+               snapshot == null ? database.query(false, "") : null;
+            SearchList exported = all != null ? all : snapshot;
+
+            String message;
+            try (OutputStream out =
+               getContentResolver().openOutputStream(uri)) {
+               SearchTransfer.export(exported, out);
+               message = getString(R.string.exported, exported.size());
+            } catch (IOException | RuntimeException e) {
+               e.printStackTrace();
+               message = getString(R.string.export_failed);
+            }
+            finally {
+               if (all != null)
+                  all.close();
+            }
+
+            final String result = message;
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  Toast.makeText(MainActivity.this, result,
+                     Toast.LENGTH_SHORT).show();
+               }
+            });
+         }
+      });
+   }
+
+   // writes every search to a bundle in the background and offers it to
+   // the apps that can receive a file
+   private void shareAllSearches() {
+      final SearchList snapshot =
+         database == null ? searches.snapshot() : null;
+
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            // in database mode, rows are read a page at a time
+            CursorSearchList all =
+               snapshot == null ? database.query(false, "") : null;
+            SearchList shared = all != null ? all : snapshot;
+            final File file =
+               new File(new File(getCacheDir(), SHARED_DIR), BUNDLE_NAME);
+            file.getParentFile().mkdirs();
+
+            int written = -1;
+            try (OutputStream out = new FileOutputStream(file)) {
+               SearchTransfer.exportBundle(shared, out);
+               written = shared.size();
+            } catch (IOException | RuntimeException e) {
+               e.printStackTrace();
+            }
+            finally {
+               if (all != null)
+                  all.close();
+            }
+
+            final int count = written;
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  if (isDestroyed())
+                     return;
+
+                  if (count < 0) {
+                     Toast.makeText(MainActivity.this,
+                        R.string.export_failed, Toast.LENGTH_SHORT).show();
+                     return;
+                  }
+
+                  Intent shareIntent = new Intent(Intent.ACTION_SEND);
+                  shareIntent.setType(SearchBundle.MIME_TYPE);
+                  shareIntent.putExtra(Intent.EXTRA_STREAM,
+                     FileProvider.getUriForFile(MainActivity.this,
+                        FILE_PROVIDER, file));
+                  shareIntent.putExtra(Intent.EXTRA_SUBJECT,
+                     getString(R.string.share_all_subject, count));
+                  shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                  startActivity(Intent.createChooser(shareIntent,
+                     getString(R.string.share_all)));
+               }
+            });
+         }
+      });
+   }
+
+   // writes the latency histograms to logcat and to METRICS_FILE
+   private void dumpMetrics() {
+      final StringWriter table = new StringWriter();
+      try {
+         Metrics.dump(table);
+      } catch (IOException e) {
+         e.printStackTrace(); // a StringWriter never throws
+      }
+
+      for (String line : table.toString().split("\n"))
+         Log.i(TAG, line);
+
+      final File file = new File(getExternalFilesDir(null), METRICS_FILE);
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            String message;
+            try (FileWriter out = new FileWriter(file)) {
+               out.write(table.toString());
+               message = getString(R.string.metrics_dumped, file.getPath());
+            } catch (IOException e) {
+               e.printStackTrace();
+               message = getString(R.string.metrics_failed);
+            }
+
+            final String result = message;
+            runOnUiThread(new Runnable() {
+               @Override
+               public void run() {
+                  Toast.makeText(MainActivity.this, result,
+                     Toast.LENGTH_LONG).show();
+               }
+            });
+         }
+      });
+   }
+
    // deletes a search after the user confirms the delete operation
    private void deleteSearch(final String tag) {
       // create a new AlertDialog and set its message
@@ -335,16 +2074,41 @@ public class MainActivity extends AppCompatActivity {
       confirmBuilder.setPositiveButton(getString(R.string.delete),
          new DialogInterface.OnClickListener() {
             public void onClick(DialogInterface dialog, int id) {
-               tags.remove(tag);
-               timeMap.remove(tag);
-               // get SharedPreferences.Editor to remove saved search
-               SharedPreferences.Editor preferencesEditor =
-                  savedSearches.edit();
-               preferencesEditor.remove(tag); // remove search
-               preferencesEditor.apply(); // save the changes
-
-               // rebind tags to RecyclerView to show updated list
-               adapter.notifyDataSetChanged();
+               long start = Metrics.start();
+               noteEdit(tag);
+               changeMatcher(tag, null);
+               history.remove(tag);
+               if (database != null) {
+                  changeDatabase(tag, null, false);
+                  DELETE_LATENCY.stop(start);
+                  return;
+               }
+
+               Query old = getSearch(tag);
+               if (old == null)
+                  return; // already deleted
+
+               // the recency index finds old through its tag in the table,
+               // so it goes first
+               int recentPosition = loaded ? recency.remove(old) : -1;
+               int tagPosition = searches.remove(tag);
+               searchUrls.invalidate(tag);
+               adapter.clearStatus(tag);
+
+               // append the removal to the search store
+               try {
+                  savedSearches.remove(tag); // remove search
+               } catch (IOException e) {
+                  e.printStackTrace();
+               }
+
+               // remove only the deleted row from the RecyclerView, or
+               // refresh the matches when the rows are filtered
+               if (sortByRecent)
+                  notifyMoved(recency, recentPosition, -1);
+               else
+                  notifyMoved(searches, tagPosition, -1);
+               DELETE_LATENCY.stop(start);
             }
          }
       );
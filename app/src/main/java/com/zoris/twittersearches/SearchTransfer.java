@@ -0,0 +1,223 @@
+// SearchTransfer.java
+// Imports and exports saved searches as JSON lines, one search per line:
+// {"tag":...,"query":...,"time":...,"used":...}, or as a SearchBundle for
+// sharing. Imports tell the two apart by their first bytes, are parsed
+// as a stream and written to the store in batches, one write per batch
+package com.zoris.twittersearches;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.zoris.twittersearches.core.Query;
+import com.zoris.twittersearches.core.SearchBundle;
+import com.zoris.twittersearches.core.SearchList;
+import com.zoris.twittersearches.core.SearchStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class SearchTransfer {
+   // field names of each JSON line
+   private static final String TAG_KEY = "tag";
+   private static final String QUERY_KEY = "query";
+   private static final String TIME_KEY = "time";
+   private static final String USED_KEY = "used";
+
+   // receives progress while an import runs on a background thread
+   interface Listener {
+      // called after each batch is committed with its searches, which
+      // are the listener's from then on, and the running total
+      void onBatchImported(List<Query> batch, int imported);
+   }
+
+   private final SearchStore store;
+   private final int batchSize;
+   private volatile boolean cancelled;
+
+   // imports write to store, committing every batchSize searches; the
+   // listener adds each batch to whatever shows the searches
+   public SearchTransfer(SearchStore store, int batchSize) {
+      this.store = store;
+      this.batchSize = batchSize;
+   }
+
+   // stops a running import after its current search; batches already
+   // committed stay imported
+   public void cancel() {
+      cancelled = true;
+   }
+
+   public boolean isCancelled() {
+      return cancelled;
+   }
+
+   // reads searches from in, JSON lines or a bundle, and stores them,
+   // adding each committed search to imported, which is complete up to
+   // the last batch even if reading fails part way
+   public void importFrom(InputStream in, List<Query> imported,
+      Listener listener) throws IOException {
+      BufferedInputStream buffered = new BufferedInputStream(in);
+      byte[] header = new byte[SearchBundle.headerLength()];
+      buffered.mark(header.length);
+      int length = 0;
+      while (length < header.length) {
+         int n = buffered.read(header, length, header.length - length);
+         if (n < 0)
+            break; // shorter than any bundle
+         length += n;
+      }
+      buffered.reset();
+
+      if (SearchBundle.isBundle(header, length))
+         importBundle(buffered, imported, listener);
+      else
+         importJson(buffered, imported, listener);
+   }
+
+   private void importJson(InputStream in, List<Query> imported,
+      Listener listener) throws IOException {
+      List<Query> batch = new ArrayList<>(batchSize);
+
+      // lenient mode reads the top-level objects one after another
+      JsonReader reader = new JsonReader(new BufferedReader(
+         new InputStreamReader(in, StandardCharsets.UTF_8)));
+      reader.setLenient(true);
+      try {
+         while (!cancelled && reader.peek() != JsonToken.END_DOCUMENT) {
+            Query search = readSearch(reader);
+            if (search != null)
+               add(search, batch, imported, listener);
+         }
+         finish(batch, imported, listener);
+      }
+      finally {
+         reader.close();
+      }
+   }
+
+   private void importBundle(InputStream in, List<Query> imported,
+      Listener listener) throws IOException {
+      List<Query> batch = new ArrayList<>(batchSize);
+      SearchBundle.Reader reader = new SearchBundle.Reader(in);
+      try {
+         Query search;
+         while (!cancelled && (search = reader.next()) != null) {
+            if (!search.getTag().isEmpty() && !search.getQuery().isEmpty())
+               add(search, batch, imported, listener);
+         }
+         finish(batch, imported, listener);
+      }
+      finally {
+         reader.close();
+      }
+   }
+
+   // adds search to batch, committing the batch once it is full
+   private void add(Query search, List<Query> batch, List<Query> imported,
+      Listener listener) throws IOException {
+      batch.add(search);
+      if (batch.size() == batchSize)
+         listener.onBatchImported(commit(batch, imported), imported.size());
+   }
+
+   // commits what is left of batch unless the import was cancelled
+   private void finish(List<Query> batch, List<Query> imported,
+      Listener listener) throws IOException {
+      if (!cancelled && !batch.isEmpty())
+         listener.onBatchImported(commit(batch, imported), imported.size());
+   }
+
+   // writes searches to out, one JSON line each
+   public static void export(SearchList searches, OutputStream out)
+      throws IOException {
+      Writer writer = new BufferedWriter(
+         new OutputStreamWriter(out, StandardCharsets.UTF_8));
+      StringWriter line = new StringWriter();
+
+      for (int i = 0; i < searches.size(); ++i) {
+         Query search = searches.get(i);
+         line.getBuffer().setLength(0);
+         JsonWriter json = new JsonWriter(line);
+         json.beginObject();
+         json.name(TAG_KEY).value(search.getTag());
+         json.name(QUERY_KEY).value(search.getQuery());
+         json.name(TIME_KEY).value(search.getTime());
+         json.name(USED_KEY).value(search.getLastUsed());
+         json.endObject();
+         json.flush();
+
+         writer.write(line.toString());
+         writer.write('\n');
+      }
+      writer.flush();
+   }
+
+   // writes searches to out as a SearchBundle
+   public static void exportBundle(SearchList searches, OutputStream out)
+      throws IOException {
+      SearchBundle.write(searches, out);
+      out.flush();
+   }
+
+   // stores a batch with a single write, moves it to imported and
+   // returns a copy of it
+   private List<Query> commit(List<Query> batch, List<Query> imported)
+      throws IOException {
+      Map<String, String> records = new HashMap<>();
+      for (Query search : batch)
+         records.put(search.getTag(), search.toJson());
+
+      store.putAll(records);
+      List<Query> committed = new ArrayList<>(batch);
+      imported.addAll(batch);
+      batch.clear();
+      return committed;
+   }
+
+   // reads one search object; returns null if it has no tag or query
+   private static Query readSearch(JsonReader reader) throws IOException {
+      String tag = null;
+      String query = null;
+      long time = System.currentTimeMillis();
+      long used = -1;
+
+      reader.beginObject();
+      while (reader.hasNext()) {
+         switch (reader.nextName()) {
+            case TAG_KEY:
+               tag = reader.nextString();
+               break;
+            case QUERY_KEY:
+               query = reader.nextString();
+               break;
+            case TIME_KEY:
+               time = reader.nextLong();
+               break;
+            case USED_KEY:
+               used = reader.nextLong();
+               break;
+            default:
+               reader.skipValue(); // ignore fields added by later versions
+         }
+      }
+      reader.endObject();
+
+      if (tag == null || tag.isEmpty() || query == null || query.isEmpty())
+         return null;
+      return new Query(tag, query, time, used >= 0 ? used : time);
+   }
+}
@@ -2,45 +2,237 @@
 // Subclass of RecyclerView.Adapter for binding data to RecyclerView items
 package com.zoris.twittersearches;
 
-import android.app.DownloadManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcelable;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import java.util.Calendar;
+import com.zoris.twittersearches.core.LatencyHistogram;
+import com.zoris.twittersearches.core.Metrics;
+import com.zoris.twittersearches.core.Query;
+import com.zoris.twittersearches.core.SearchList;
+import com.zoris.twittersearches.core.TimeFormatter;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
 
 public class SearchesAdapter
    extends RecyclerView.Adapter<SearchesAdapter.ViewHolder> {
 
+   // time taken to bind each row
+   private static final LatencyHistogram BIND_LATENCY =
+      Metrics.histogram("bind row");
+
+   // payloads of a change to a row's refresh status or selection alone
+   private static final Object STATUS = new Object();
+   private static final Object SELECTION = new Object();
+
+   // most rows diffed on either side; the diff and its move detection
+   // grow with the square of the rows, so longer lists are swapped in
+   private static final int MAX_DIFF_ROWS = 2000;
+
+   // shown between a row's refresh status and its feed matches
+   private static final String STATUS_SEPARATOR = " \u00b7 ";
+
    // listeners from MainActivity that are registered for each list item
    private final View.OnClickListener clickListener;
    private final View.OnLongClickListener longClickListener;
 
-   // List<String> used to obtain RecyclerView items' data
-   private final List<String> queries; // search tags
-   private final Map<String, String> map;
+   // SearchList used to obtain RecyclerView items' data
+   private SearchList index; // the ordering of all searches to display
+
+   // list currently displayed: either index itself or a frozen list
+   // submitted through submitList; rows are bound from its columns
+   private SearchList items;
+
+   // computes list differences off the main thread; not the storage
+   // thread, so that a diff never holds up writes or filtering
+   private final Executor diffExecutor;
+   private RecyclerView recyclerView; // showing the rows, while attached
+   private final Handler mainHandler = new Handler(Looper.getMainLooper());
+   private int diffGeneration; // discards diffs overtaken by newer ones
+
+   // refresh status and feed matches of each tag's search, kept apart
+   // so that neither replaces the other, and the text shown beside the
+   // search, joined when they change so that binding only reads it
+   private final Map<String, CharSequence> statuses = new HashMap<>();
+   private final Map<String, CharSequence> feedMatches = new HashMap<>();
+   private final Map<String, CharSequence> shownStatuses = new HashMap<>();
+
+   // holders currently bound, so that a status change rebinds just its
+   // row; a list rather than a map keyed by tag, so that binding never
+   // allocates
+   private final List<ViewHolder> boundHolders = new ArrayList<>();
+
+   // zone the times are shown in, read once since reading it copies it
+   private final TimeZone zone = TimeZone.getDefault();
+
+   // tags of the searches the user selected for a batch action
+   private final Set<String> selected = new HashSet<>();
 
    // constructor
-   public SearchesAdapter(List<String> queries, HashMap<String, String> map,
+   public SearchesAdapter(SearchList index, Executor diffExecutor,
       View.OnClickListener clickListener,
       View.OnLongClickListener longClickListener) {
-      this.queries = queries;
-      this.map = map;
+      this.index = index;
+      this.items = index;
+      this.diffExecutor = diffExecutor;
       this.clickListener = clickListener;
       this.longClickListener = longClickListener;
    }
 
+   // true when rows follow list, so positions it returns can be passed
+   // straight to the notifyItem methods
+   public boolean isShowing(SearchList list) {
+      return items == list;
+   }
+
+   // keeps the current rows on screen but stops following the index, so
+   // the index can be changed in bulk and then shown with showIndex
+   public void detach() {
+      if (isShowing(index))
+         items = index.snapshot();
+   }
+
+   // follows list straight away, without copying or diffing it, for
+   // lists paged in from the database; the caller notifies the changes
+   public void swapIndex(SearchList list) {
+      ++diffGeneration; // drops diffs against the previous rows
+      index = list;
+      items = list;
+   }
+
+   // displays list instead of the full index; list must not change
+   // afterwards. The difference from the current rows is computed in the
+   // background and dispatched as move/insert/remove/change events, or
+   // if either side is too long to diff the rows are swapped at once
+   public void submitList(SearchList list) {
+      if (items.size() > MAX_DIFF_ROWS || list.size() > MAX_DIFF_ROWS) {
+         ++diffGeneration;
+         items = list;
+         notifyAllChanged();
+      }
+      else
+         diff(list);
+   }
+
+   // switches to displaying all searches in list's order, following
+   // its later changes. A whole index reorders most rows, as switching
+   // the order does, so it is swapped in rather than diffed
+   public void showIndex(SearchList list) {
+      swapIndex(list);
+      notifyAllChanged();
+   }
+
+   // notifies that every row changed, keeping the list scrolled to the
+   // same position
+   private void notifyAllChanged() {
+      RecyclerView.LayoutManager layout =
+         recyclerView != null ? recyclerView.getLayoutManager() : null;
+      Parcelable state = layout != null ? layout.onSaveInstanceState() : null;
+      notifyDataSetChanged();
+      if (state != null)
+         layout.onRestoreInstanceState(state);
+   }
+
+   // diffs the displayed rows against newList on diffExecutor
+   private void diff(final SearchList newList) {
+      final int generation = ++diffGeneration;
+      final SearchList oldIndex = isShowing(index) ? index : null;
+      final SearchList oldList = oldIndex != null ?
+         oldIndex.snapshot() : items;
+      final int oldVersion = oldIndex != null ?
+         oldIndex.getModificationCount() : 0;
+
+      diffExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            final DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+               new SearchDiffCallback(oldList, newList), true);
+
+            mainHandler.post(new Runnable() {
+               @Override
+               public void run() {
+                  if (generation != diffGeneration)
+                     return; // a newer list was submitted meanwhile
+
+                  // if the index changed while diffing against it, the
+                  // result no longer matches the rows; start over
+                  if (oldIndex != null &&
+                     oldVersion != oldIndex.getModificationCount()) {
+                     submitList(newList);
+                     return;
+                  }
+
+                  items = newList;
+                  result.dispatchUpdatesTo(SearchesAdapter.this);
+               }
+            });
+         }
+      });
+   }
+
+   // compares two lists of searches: rows are the same item when their
+   // tags match and have the same contents when query and time match
+   private static class SearchDiffCallback extends DiffUtil.Callback {
+      private final SearchList oldList;
+      private final SearchList newList;
+
+      SearchDiffCallback(SearchList oldList, SearchList newList) {
+         this.oldList = oldList;
+         this.newList = newList;
+      }
+
+      @Override
+      public int getOldListSize() {
+         return oldList.size();
+      }
+
+      @Override
+      public int getNewListSize() {
+         return newList.size();
+      }
+
+      @Override
+      public boolean areItemsTheSame(int oldPosition, int newPosition) {
+         return oldList.getTag(oldPosition).equals(
+            newList.getTag(newPosition));
+      }
+
+      @Override
+      public boolean areContentsTheSame(int oldPosition, int newPosition) {
+         return oldList.getTime(oldPosition) == newList.getTime(newPosition) &&
+            oldList.getQuery(oldPosition).equals(
+            newList.getQuery(newPosition));
+      }
+   }
+
    // nested subclass of RecyclerView.ViewHolder used to implement
    // the view-holder pattern in the context of a RecyclerView--the logic
    // of recycling views that have scrolled offscreen is handled for you
    public static class ViewHolder extends RecyclerView.ViewHolder {
        public final TextView textViewTag;
        public final TextView textViewTime;
+       public final TextView textViewStatus;
+       private String boundTag; // tag of the search bound, if any
+
+       // what the views show, so that a row bound again to the same
+       // values leaves them alone
+       private String shownTag;
+       private long shownTime = Long.MIN_VALUE;
+       private CharSequence shownStatus;
+       private final char[] timeText = new char[TimeFormatter.LENGTH];
 
       // configures a RecyclerView item's ViewHolder
       public ViewHolder(View itemView,
@@ -49,13 +241,129 @@ public class SearchesAdapter
          super(itemView);
           textViewTag = (TextView) itemView.findViewById(R.id.textViewTag);
           textViewTime = (TextView) itemView.findViewById(R.id.textViewTime);
+          textViewStatus =
+             (TextView) itemView.findViewById(R.id.textViewStatus);
 
-         // attach listeners to itemView
+         // attach listeners to itemView; they find the row's search
+         // through the ViewHolder stored as the view's tag
+         itemView.setTag(this);
          itemView.setOnClickListener(clickListener);
          itemView.setOnLongClickListener(longClickListener);
       }
    }
 
+   // shows the refresh status beside tag's search, or none if status is
+   // null; only a row currently bound to tag is notified, others read
+   // the status when they are next bound
+   public void setStatus(String tag, CharSequence status) {
+      if (status != null)
+         statuses.put(tag, status);
+      else
+         statuses.remove(tag);
+
+      showStatus(tag);
+   }
+
+   // shows the matches of the feed matched last beside the searches of
+   // the tags in matches, replacing those of an earlier feed everywhere
+   public void setFeedMatches(Map<String, CharSequence> matches) {
+      Set<String> tags = new HashSet<>(feedMatches.keySet());
+      tags.addAll(matches.keySet());
+      feedMatches.clear();
+      feedMatches.putAll(matches);
+      for (String tag : tags)
+         showStatus(tag);
+   }
+
+   // removes the refresh status and feed matches of tag's search, which
+   // no longer apply once its query changes
+   public void clearStatus(String tag) {
+      statuses.remove(tag);
+      feedMatches.remove(tag);
+      showStatus(tag);
+   }
+
+   // joins the refresh status and feed matches of tag's search into the
+   // text shown beside it, and notifies its row if it is bound
+   private void showStatus(String tag) {
+      CharSequence status = statuses.get(tag);
+      CharSequence matches = feedMatches.get(tag);
+      if (status == null && matches == null)
+         shownStatuses.remove(tag);
+      else if (matches == null)
+         shownStatuses.put(tag, status);
+      else if (status == null)
+         shownStatuses.put(tag, matches);
+      else
+         shownStatuses.put(tag, status + STATUS_SEPARATOR + matches);
+
+      notifyBound(tag, STATUS);
+   }
+
+   // true while any search is selected
+   public boolean isSelecting() {
+      return !selected.isEmpty();
+   }
+
+   public boolean isSelected(String tag) {
+      return selected.contains(tag);
+   }
+
+   // selects or deselects tag's search, rebinding only its row
+   public void setSelected(String tag, boolean select) {
+      if (select ? selected.add(tag) : selected.remove(tag))
+         notifyBound(tag, SELECTION);
+   }
+
+   // returns a copy of the selected tags
+   public Set<String> getSelection() {
+      return new HashSet<>(selected);
+   }
+
+   // deselects every search
+   public void clearSelection() {
+      Set<String> cleared = getSelection();
+      selected.clear();
+      for (String tag : cleared)
+         notifyBound(tag, SELECTION);
+   }
+
+   // notifies a change to the row bound to tag, if there is one
+   private void notifyBound(String tag, Object payload) {
+      for (int i = 0; i < boundHolders.size(); ++i) {
+         ViewHolder holder = boundHolders.get(i);
+         int position = holder.getAdapterPosition();
+         if (tag.equals(holder.boundTag) &&
+            position != RecyclerView.NO_POSITION) {
+            notifyItemChanged(position, payload);
+            return;
+         }
+      }
+   }
+
+   // notifies the removal of the rows at positions, which are ascending,
+   // as one range per run of adjacent rows; the last run goes first so
+   // that the positions of the runs before it still hold
+   public void notifyItemsRemoved(int[] positions) {
+      int end = positions.length;
+      while (end > 0) {
+         int start = end - 1;
+         while (start > 0 && positions[start - 1] == positions[start] - 1)
+            --start;
+         notifyItemRangeRemoved(positions[start], end - start);
+         end = start;
+      }
+   }
+
+   // returns the search shown by a list item view passed to a listener,
+   // read from the list when asked so that binding creates no Query, or
+   // null if the row is being removed or is not paged in yet
+   public Query getSearch(View itemView) {
+      int position = ((ViewHolder) itemView.getTag()).getAdapterPosition();
+      return position != RecyclerView.NO_POSITION ?
+         items.get(position) : null;
+   }
+
    // sets up new list item and its ViewHolder
    @Override
    public ViewHolder onCreateViewHolder(ViewGroup parent,
@@ -68,18 +376,106 @@ public class SearchesAdapter
       return (new ViewHolder(view, clickListener, longClickListener));
    }
 
-   // sets the text of the list item to display the search tag
+   // sets the text of the list item to display the search tag; only
+   // views whose text changed are set, and nothing is allocated. A row
+   // paged in from the database later is left blank until it arrives
    @Override
    public void onBindViewHolder(ViewHolder holder, int position) {
-      String tag = queries.get(position);
-       holder.textViewTag.setText(tag);
-       holder.textViewTime.setText(map.get(tag));
+      long start = Metrics.start();
+      String tag = items.getTag(position);
+      if (tag == null) {
+         bindBlank(holder);
+         BIND_LATENCY.stop(start);
+         return;
+      }
+
+      if (holder.boundTag == null)
+         boundHolders.add(holder);
+      holder.boundTag = tag;
+
+       if (!tag.equals(holder.shownTag)) {
+          holder.shownTag = tag;
+          holder.textViewTag.setText(tag);
+       }
+       long time = items.getTime(position);
+       if (time != holder.shownTime) {
+          holder.shownTime = time;
+          holder.textViewTime.setText(holder.timeText, 0,
+             TimeFormatter.format(time, zone, holder.timeText));
+       }
+      bindStatus(holder);
+      BIND_LATENCY.stop(start);
+   }
+
+   // clears holder's views while its row is not paged in
+   private void bindBlank(ViewHolder holder) {
+      unbind(holder);
+      holder.shownTag = null;
+      holder.shownTime = Long.MIN_VALUE;
+      holder.shownStatus = null;
+      holder.textViewTag.setText(null);
+      holder.textViewTime.setText(null);
+      holder.textViewStatus.setText(null);
+      holder.itemView.setActivated(false);
+   }
+
+   // shows the status and selection of holder's tag
+   private void bindStatus(ViewHolder holder) {
+      CharSequence status = shownStatuses.isEmpty() ? null :
+         shownStatuses.get(holder.boundTag);
+      if (status != holder.shownStatus) {
+         holder.shownStatus = status;
+         holder.textViewStatus.setText(status);
+      }
+      holder.itemView.setActivated(
+         !selected.isEmpty() && selected.contains(holder.boundTag));
+   }
+
+   // updates only the status and selection of a row when nothing else
+   // about it changed
+   @Override
+   public void onBindViewHolder(ViewHolder holder, int position,
+      List<Object> payloads) {
+      if (payloads.isEmpty() || payloads.contains(null) ||
+         holder.boundTag == null) {
+         onBindViewHolder(holder, position);
+         return;
+      }
+      for (Object payload : payloads) {
+         if (payload != STATUS && payload != SELECTION) {
+            onBindViewHolder(holder, position);
+            return;
+         }
+      }
+      bindStatus(holder);
+   }
+
+   @Override
+   public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+      this.recyclerView = recyclerView;
+   }
+
+   @Override
+   public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+      this.recyclerView = null;
+   }
+
+   @Override
+   public void onViewRecycled(ViewHolder holder) {
+      unbind(holder);
+   }
+
+   // forgets the tag holder was bound to
+   private void unbind(ViewHolder holder) {
+      if (holder.boundTag != null)
+         boundHolders.remove(holder);
+      holder.boundTag = null;
    }
 
    // returns the number of items that adapter binds
    @Override
    public int getItemCount() {
-      return queries.size();
+      return items.size();
    }
 }
 
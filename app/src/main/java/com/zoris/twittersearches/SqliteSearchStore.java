@@ -0,0 +1,230 @@
+// SqliteSearchStore.java
+// SearchStore kept in an SQLite database, for collections too large to
+// hold in memory. Indexes on the case-insensitive tag and on the time of
+// last use give the list's two orders, which are read back a page at a
+// time through CursorSearchList
+package com.zoris.twittersearches;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.zoris.twittersearches.core.Query;
+import com.zoris.twittersearches.core.SearchStore;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+class SqliteSearchStore implements SearchStore {
+   static final String DATABASE_NAME = "searches.db";
+   private static final int VERSION = 1;
+
+   // table and column names
+   private static final String TABLE = "searches";
+   static final String TAG = "tag";
+   static final String QUERY = "query";
+   static final String TIME = "time";
+   static final String USED = "used";
+
+   // the orders of TagIndex and RecencyIndex, each served by an index
+   private static final String BY_TAG = "tag COLLATE NOCASE, tag";
+   private static final String BY_RECENCY =
+      "used DESC, tag COLLATE NOCASE, tag";
+
+   // rows sorting before tag ?1 last used at ?2; the first comparison of
+   // each is a range on the index, the rest only checks the boundary rows
+   private static final String BEFORE_TAG =
+      "tag <= ?1 COLLATE NOCASE AND NOT (tag = ?1 COLLATE NOCASE AND " +
+      "tag >= ?1)";
+   private static final String BEFORE_RECENCY =
+      "used >= ?2 AND NOT (used = ?2 AND (tag > ?1 COLLATE NOCASE OR " +
+      "(tag = ?1 COLLATE NOCASE AND tag >= ?1)))";
+
+   // rows whose tag or query contains the filter, case-insensitively
+   private static final String MATCHES =
+      "(tag LIKE ?3 ESCAPE '\\' OR query LIKE ?3 ESCAPE '\\')";
+
+   private final SQLiteOpenHelper helper;
+   private SQLiteDatabase database; // open once loaded
+
+   // writes made so far, so that a list can tell its rows have moved;
+   // only changed on the background executor
+   private volatile int modificationCount;
+
+   SqliteSearchStore(Context context) {
+      helper = new SQLiteOpenHelper(context, DATABASE_NAME, null, VERSION) {
+         @Override
+         public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " (" +
+               TAG + " TEXT PRIMARY KEY NOT NULL, " +
+               QUERY + " TEXT NOT NULL, " +
+               TIME + " INTEGER NOT NULL, " +
+               USED + " INTEGER NOT NULL)");
+            db.execSQL("CREATE INDEX searches_by_tag ON " + TABLE +
+               " (" + BY_TAG + ")");
+            db.execSQL("CREATE INDEX searches_by_recency ON " + TABLE +
+               " (" + BY_RECENCY + ")");
+         }
+
+         @Override
+         public void onUpgrade(SQLiteDatabase db, int oldVersion,
+            int newVersion) {
+         }
+      };
+
+      // lets list pages be read while a change is being written
+      helper.setWriteAheadLoggingEnabled(true);
+   }
+
+   // opens the database, creating it on first use
+   @Override
+   public void load() {
+      database = helper.getWritableDatabase();
+   }
+
+   // returns the search saved under tag as a record, or null
+   @Override
+   public String get(String tag) {
+      Query search = getSearch(tag);
+      return search != null ? search.toJson() : null;
+   }
+
+   // returns the search saved under tag, or null if there is none
+   public Query getSearch(String tag) {
+      try (Cursor cursor = database.query(TABLE, null, TAG + " = ?",
+         new String[] {tag}, null, null, null)) {
+         if (!cursor.moveToFirst())
+            return null;
+
+         return new Query(tag,
+            cursor.getString(cursor.getColumnIndexOrThrow(QUERY)),
+            cursor.getLong(cursor.getColumnIndexOrThrow(TIME)),
+            cursor.getLong(cursor.getColumnIndexOrThrow(USED)));
+      }
+   }
+
+   // reads every search into memory; only used to move them to a log
+   @Override
+   public Map<String, String> getAll() {
+      Map<String, String> records = new HashMap<>();
+      try (CursorSearchList all = query(false, "")) {
+         for (int i = 0; i < all.size(); ++i) {
+            Query search = all.get(i);
+            records.put(search.getTag(), search.toJson());
+         }
+      }
+      return Collections.unmodifiableMap(records);
+   }
+
+   @Override
+   public void put(String tag, String record) {
+      put(Query.fromJson(tag, record));
+   }
+
+   // adds or replaces the row of search's tag
+   public void put(Query search) {
+      ++modificationCount;
+      database.insertWithOnConflict(TABLE, null, values(search),
+         SQLiteDatabase.CONFLICT_REPLACE);
+   }
+
+   // writes the records in one transaction; a null record removes its tag
+   @Override
+   public void putAll(Map<String, String> records) {
+      database.beginTransaction();
+      try {
+         for (Map.Entry<String, String> entry : records.entrySet()) {
+            if (entry.getValue() == null)
+               remove(entry.getKey());
+            else
+               put(entry.getKey(), entry.getValue());
+         }
+         database.setTransactionSuccessful();
+      }
+      finally {
+         database.endTransaction();
+      }
+   }
+
+   @Override
+   public void remove(String tag) {
+      ++modificationCount;
+      database.delete(TABLE, TAG + " = ?", new String[] {tag});
+   }
+
+   // every change is committed as it is made, so there is nothing to flush
+   @Override
+   public void flush() {
+   }
+
+   @Override
+   public void close() {
+      helper.close();
+      database = null;
+   }
+
+   // queries the searches in tag or recency order, keeping those that
+   // contain filter if it isn't empty; the query runs before returning
+   public CursorSearchList query(boolean byRecency, String filter) {
+      String where = filter.isEmpty() ? null : MATCHES.replace("?3", "?1");
+      String[] arguments = filter.isEmpty() ? null :
+         new String[] {pattern(filter)};
+
+      Cursor cursor = database.query(TABLE, null, where, arguments, null,
+         null, byRecency ? BY_RECENCY : BY_TAG);
+      return new CursorSearchList(cursor, this, byRecency, filter);
+   }
+
+   // lets lists of rows tell whether the database changed since they
+   // were queried
+   int getModificationCount() {
+      return modificationCount;
+   }
+
+   // returns the position of the search saved under tag in the rows
+   // query(byRecency, filter) returns, or -1 if it isn't among them
+   public int indexOf(String tag, boolean byRecency, String filter) {
+      // ?1 is the tag, ?2 its last use and ?3 the filter pattern; unused
+      // parameters below the highest one are bound to empty strings
+      String match = filter.isEmpty() ? "" : " AND " + MATCHES;
+      String[] arguments = filter.isEmpty() ? new String[] {tag} :
+         new String[] {tag, "", pattern(filter)};
+
+      long used;
+      try (Cursor cursor = database.rawQuery("SELECT " + USED + " FROM " +
+         TABLE + " WHERE tag = ?1" + match, arguments)) {
+         if (!cursor.moveToFirst())
+            return -1; // absent, or filtered out
+         used = cursor.getLong(0);
+      }
+
+      if (byRecency) {
+         if (arguments.length == 1)
+            arguments = new String[] {tag, null};
+         arguments[1] = Long.toString(used);
+      }
+
+      return (int) DatabaseUtils.longForQuery(database,
+         "SELECT COUNT(*) FROM " + TABLE + " WHERE " +
+         (byRecency ? BEFORE_RECENCY : BEFORE_TAG) + match, arguments);
+   }
+
+   // LIKE pattern matching text anywhere, with its wildcards escaped
+   private static String pattern(String text) {
+      return '%' + text.replace("\\", "\\\\").replace("%", "\\%")
+         .replace("_", "\\_") + '%';
+   }
+
+   private static ContentValues values(Query search) {
+      ContentValues values = new ContentValues(4);
+      values.put(TAG, search.getTag());
+      values.put(QUERY, search.getQuery());
+      values.put(TIME, search.getTime());
+      values.put(USED, search.getLastUsed());
+      return values;
+   }
+}
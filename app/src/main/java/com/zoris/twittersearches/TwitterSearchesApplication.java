@@ -0,0 +1,201 @@
+// TwitterSearchesApplication.java
+// Holds what must outlive an activity: the search store, the executor
+// that does its disk access and the query history. An activity recreated
+// after a rotation gets the same store and history instead of opening a
+// second copy of either over the same files
+package com.zoris.twittersearches;
+
+import android.app.Application;
+
+import com.zoris.twittersearches.core.LogSearchStore;
+import com.zoris.twittersearches.core.Metrics;
+import com.zoris.twittersearches.core.QueryHistory;
+import com.zoris.twittersearches.core.SearchStore;
+import com.zoris.twittersearches.core.SyncedSearchStore;
+import com.zoris.twittersearches.core.WriteBehindSearchStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class TwitterSearchesApplication extends Application {
+   // name of the log file that stores the saved searches
+   private static final String SEARCHES_LOG = "searches.log";
+
+   // name of the journal of changes not yet written to the log
+   private static final String SEARCHES_JOURNAL = "searches.journal";
+
+   // how long changes wait so that rapid edits are written as one batch
+   private static final long WRITE_DELAY_MS = 1000;
+
+   // file in the app's files directory holding the version of each
+   // search for syncing
+   private static final String SYNC_FILE = "sync.bin";
+
+   // file in the app's files directory holding the earlier queries of
+   // each tag, and how many of them are kept
+   private static final String HISTORY_FILE = "history.bin";
+   private static final int HISTORY_VERSIONS = 10;
+
+   // runs disk access and decoding off the main thread, in order, for
+   // every activity of the process
+   private final ScheduledExecutorService backgroundExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+
+   // earlier queries of each tag, read once per process
+   private final QueryHistory history = new QueryHistory(HISTORY_VERSIONS);
+
+   private SyncedSearchStore store; // open until the storage is switched
+   private SqliteSearchStore database; // store's searches in database mode
+   private boolean storeLoaded; // store has been loaded and migrated
+   private LogSearchStore log; // the log opened last, to report damage
+
+   // reads the history on the background executor, ahead of any save
+   @Override
+   public void onCreate() {
+      super.onCreate();
+      registerHistoryGauges(history);
+      backgroundExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            loadHistory();
+         }
+      });
+   }
+
+   ScheduledExecutorService getBackgroundExecutor() {
+      return backgroundExecutor;
+   }
+
+   QueryHistory getHistory() {
+      return history;
+   }
+
+   // returns the store of the saved searches, opening it in the log or
+   // the database as useDatabase says unless it is open already. Either
+   // way the store keeps a version of each search for syncing
+   synchronized SyncedSearchStore openStore(boolean useDatabase) {
+      if (store == null) {
+         File syncFile = new File(getFilesDir(), SYNC_FILE);
+         if (useDatabase) {
+            database = new SqliteSearchStore(this);
+            store = new SyncedSearchStore(database, syncFile);
+         }
+         else
+            store = new SyncedSearchStore(openLog(), syncFile);
+      }
+      return store;
+   }
+
+   // returns the database under the open store, or null in the
+   // in-memory mode
+   synchronized SqliteSearchStore getDatabase() {
+      return database;
+   }
+
+   // true once an activity has loaded the open store
+   synchronized boolean isStoreLoaded() {
+      return storeLoaded;
+   }
+
+   synchronized void setStoreLoaded() {
+      storeLoaded = true;
+   }
+
+   // closes the store so that the next one opened may use the other
+   // storage; runs on the background executor
+   synchronized void closeStore() {
+      if (store == null)
+         return;
+
+      try {
+         store.close();
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+      store = null;
+      database = null;
+      storeLoaded = false;
+   }
+
+   // opens the log of the in-memory mode; edits reach it in batches and
+   // are journaled until they do
+   synchronized SearchStore openLog() {
+      log = new LogSearchStore(new File(getFilesDir(), SEARCHES_LOG));
+      return new WriteBehindSearchStore(log,
+         new File(getFilesDir(), SEARCHES_JOURNAL), backgroundExecutor,
+         WRITE_DELAY_MS);
+   }
+
+   // returns where loading the log kept a damaged copy of it, once, or
+   // null if it loaded whole
+   synchronized File takeCorruptLog() {
+      return log != null ? log.takeCorruptCopy() : null;
+   }
+
+   // deletes the log of the in-memory mode and its journal once their
+   // searches have been moved into the database
+   void deleteLog() {
+      new File(getFilesDir(), SEARCHES_JOURNAL).delete();
+      new File(getFilesDir(), SEARCHES_LOG).delete();
+   }
+
+   // true if the in-memory mode has left a log behind
+   boolean hasLog() {
+      return new File(getFilesDir(), SEARCHES_LOG).exists();
+   }
+
+   // reads the query history saved by an earlier run, if any
+   private void loadHistory() {
+      File file = new File(getFilesDir(), HISTORY_FILE);
+      try (DataInputStream in = new DataInputStream(
+         new BufferedInputStream(new FileInputStream(file)))) {
+         history.readFrom(in);
+      } catch (FileNotFoundException e) {
+         // nothing has been edited yet
+      } catch (IOException e) {
+         e.printStackTrace(); // starts over with no history
+      }
+   }
+
+   // writes the query history to a temporary file that replaces the
+   // saved one, so a crash never leaves it half written; runs on the
+   // background executor
+   void saveHistory() {
+      File file = new File(getFilesDir(), HISTORY_FILE);
+      File temp = new File(getFilesDir(), HISTORY_FILE + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+         new BufferedOutputStream(new FileOutputStream(temp)))) {
+         history.writeTo(out);
+      } catch (IOException e) {
+         e.printStackTrace();
+         return;
+      }
+      if (!temp.renameTo(file))
+         temp.delete();
+   }
+
+   // reports the size of history with the metrics
+   private static void registerHistoryGauges(final QueryHistory history) {
+      Metrics.gauge("history versions", new Metrics.Gauge() {
+         @Override
+         public long value() {
+            return history.getVersionCount();
+         }
+      });
+      Metrics.gauge("history bytes", new Metrics.Gauge() {
+         @Override
+         public long value() {
+            return history.getBytes();
+         }
+      });
+   }
+}
@@ -0,0 +1,56 @@
+// BundleBenchmark.java
+// Measures writing every search to a SearchBundle, as sharing them does,
+// and reading the bundle back, as importing it does
+package com.zoris.twittersearches.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BundleBenchmark {
+   @Param({"1000", "10000", "100000"})
+   int size;
+
+   private SearchList byTag; // the searches in tag order, as shared
+   private byte[] bundle;
+
+   @Setup(Level.Trial)
+   public void writeBundle() throws IOException {
+      TagIndex index = new TagIndex(new SearchTable());
+      index.putAll(SearchData.searches(size));
+      byTag = index.snapshot();
+      bundle = encode();
+   }
+
+   // writing every search to a bundle
+   @Benchmark
+   public byte[] encode() throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      SearchBundle.write(byTag, out);
+      return out.toByteArray();
+   }
+
+   // reading every search back from the bundle
+   @Benchmark
+   public void decode(Blackhole blackhole) throws IOException {
+      SearchBundle.Reader reader =
+         new SearchBundle.Reader(new ByteArrayInputStream(bundle));
+      for (Query search; (search = reader.next()) != null; )
+         blackhole.consume(search);
+   }
+}
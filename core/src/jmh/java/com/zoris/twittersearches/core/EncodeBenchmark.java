@@ -0,0 +1,62 @@
+// EncodeBenchmark.java
+// Measures encoding and decoding stored records and building search URLs
+package com.zoris.twittersearches.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EncodeBenchmark {
+   private static final String SEARCH_URL =
+      "http://mobile.twitter.com/search?q=";
+
+   @Param({"1000", "10000", "100000"})
+   int size;
+
+   private List<Query> searches;
+   private List<String> records;
+
+   @Setup(Level.Trial)
+   public void encodeRecords() {
+      searches = SearchData.searches(size);
+      records = new ArrayList<>(size);
+      for (Query search : searches)
+         records.add(search.toJson());
+   }
+
+   // encoding every search as the record written to the store
+   @Benchmark
+   public void encode(Blackhole blackhole) {
+      for (Query search : searches)
+         blackhole.consume(search.toJson());
+   }
+
+   // decoding every record, as loading does
+   @Benchmark
+   public void decode(Blackhole blackhole) {
+      for (int i = 0; i < size; ++i)
+         blackhole.consume(
+            Query.fromJson(searches.get(i).getTag(), records.get(i)));
+   }
+
+   // building the search URL of every search
+   @Benchmark
+   public void buildUrls(Blackhole blackhole) {
+      for (Query search : searches)
+         blackhole.consume(SearchUrls.build(SEARCH_URL, search.getQuery()));
+   }
+}
@@ -0,0 +1,57 @@
+// FilterBenchmark.java
+// Measures filter-box lookups in FilterIndex and keeping it up to date
+package com.zoris.twittersearches.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterBenchmark {
+   @Param({"1000", "10000", "100000"})
+   int size;
+
+   // a word prefix, a selective substring and a broad substring
+   @Param({"ko", "user12", "java"})
+   String filter;
+
+   private List<Query> searches;
+   private SearchTable table;
+   private FilterIndex index;
+   private int next; // cycles through the searches
+
+   @Setup(Level.Trial)
+   public void createIndex() {
+      searches = SearchData.searches(size);
+      table = new SearchTable();
+      index = new FilterIndex(table);
+      for (Query search : searches)
+         table.put(search);
+      index.trimToSize();
+   }
+
+   @Benchmark
+   public SearchList find() {
+      return index.find(filter, false);
+   }
+
+   // re-indexing a search whose query text changed
+   @Benchmark
+   public void update() {
+      Query search = searches.get(next++ % size);
+      table.put(new Query(search.getTag(), search.getQuery() + " x",
+         search.getTime(), search.getLastUsed()));
+      table.put(search);
+   }
+}
@@ -0,0 +1,83 @@
+// HeapFootprint.java
+// Reports the heap each saved search takes once loaded the way
+// MainActivity loads them: the log store's tag index, the SearchTable,
+// the tag and recency orders and the filter index. Not a benchmark; run
+// its main method on the jmh classpath, optionally passing a count
+package com.zoris.twittersearches.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class HeapFootprint {
+   private HeapFootprint() {
+   }
+
+   public static void main(String[] args) throws IOException {
+      int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+      File file = File.createTempFile("searches", ".log");
+      file.delete();
+      LogSearchStore store = new LogSearchStore(file);
+      store.load();
+      Map<String, String> records = new HashMap<>();
+      for (Query search : SearchData.searches(count))
+         records.put(search.getTag(), search.toJson());
+      store.putAll(records);
+      store.close();
+      records = null;
+
+      long base = usedHeap();
+      store = new LogSearchStore(file);
+      store.load();
+      Map<String, String> all = store.getAll();
+
+      // sorted, decoded and bound as loadSearches does
+      SearchTable table = new SearchTable();
+      FilterIndex filterIndex = new FilterIndex(table);
+      TagIndex searches = new TagIndex(table);
+      List<String> sortedTags = new ArrayList<>(all.keySet());
+      Collections.sort(sortedTags, TagIndex.ORDER);
+      int[] rows = new int[sortedTags.size()];
+      for (int i = 0; i < rows.length; ++i) {
+         String tag = sortedTags.get(i);
+         rows[i] = table.put(Query.fromJson(tag, all.get(tag)));
+      }
+      searches.appendSorted(rows);
+      filterIndex.trimToSize();
+      all = null;
+      sortedTags = null;
+      rows = null;
+
+      RecencyIndex recency =
+         RecencyIndex.build(table, searches.snapshot());
+      long loaded = usedHeap();
+
+      System.out.printf("%d searches: %d bytes per search%n", count,
+         (loaded - base) / count);
+
+      // keeps everything reachable until measured
+      System.out.println(store.get(searches.getTag(0)) != null &&
+         recency.size() == searches.size() &&
+         filterIndex.find("java", false).size() > 0);
+      store.close();
+      file.delete();
+   }
+
+   private static long usedHeap() {
+      Runtime runtime = Runtime.getRuntime();
+      for (int i = 0; i < 4; ++i) {
+         System.gc();
+         try {
+            Thread.sleep(100);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+      return runtime.totalMemory() - runtime.freeMemory();
+   }
+}
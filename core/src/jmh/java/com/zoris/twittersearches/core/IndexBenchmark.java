@@ -0,0 +1,133 @@
+// IndexBenchmark.java
+// Measures sorting the searches at startup and keeping TagIndex and
+// RecencyIndex up to date as searches are saved, used and deleted, one
+// at a time or as a selection
+package com.zoris.twittersearches.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IndexBenchmark {
+   // searches deleted together by the selection benchmarks
+   private static final int SELECTION = 500;
+
+   @Param({"1000", "10000", "100000"})
+   int size;
+
+   private List<Query> searches;
+   private List<String> tags;
+   private SearchTable table;
+   private TagIndex tagIndex;
+   private SearchSnapshot byTag; // the loaded searches in tag order
+   private RecencyIndex recency;
+   private int next; // cycles through the searches
+   private long clock; // strictly increasing use times
+   private List<Query> selection; // new tags spread over the whole order
+   private Set<String> selectedTags;
+
+   @Setup(Level.Trial)
+   public void createIndexes() {
+      searches = SearchData.searches(size);
+      tags = new ArrayList<>(size);
+      for (Query search : searches)
+         tags.add(search.getTag());
+
+      table = new SearchTable();
+      tagIndex = new TagIndex(table);
+      for (Query search : searches)
+         tagIndex.put(search);
+
+      byTag = tagIndex.snapshot();
+      recency = RecencyIndex.build(table, byTag);
+      for (Query search : searches)
+         clock = Math.max(clock, search.getLastUsed());
+
+      selection = new ArrayList<>(SELECTION);
+      selectedTags = new HashSet<>();
+      for (int i = 0; i < SELECTION; ++i) {
+         Query search = searches.get((int) ((long) i * size / SELECTION));
+         Query copy = new Query(search.getTag() + '~', search.getQuery(),
+            search.getTime(), search.getLastUsed());
+         selection.add(copy);
+         selectedTags.add(copy.getTag());
+      }
+   }
+
+   // sorting every tag, as loading does before binding the list
+   @Benchmark
+   public List<String> sort() {
+      List<String> sorted = new ArrayList<>(tags);
+      Collections.sort(sorted, TagIndex.ORDER);
+      return sorted;
+   }
+
+   // saving a new tag and deleting it again
+   @Benchmark
+   public int insertAndRemove() {
+      Query search = searches.get(next++ % size);
+      Query copy = new Query(search.getTag() + '~', search.getQuery(),
+         search.getTime(), search.getLastUsed());
+      return tagIndex.put(copy) + tagIndex.remove(copy.getTag());
+   }
+
+   // launching a search, which moves it to the front in recency order
+   @Benchmark
+   public int use() {
+      Query search = tagIndex.get(searches.get(next++ % size).getTag());
+      Query used = search.usedAt(++clock);
+      recency.remove(search);
+      tagIndex.put(used);
+      return recency.put(used);
+   }
+
+   // saving the selection, then deleting it a search at a time, as the
+   // single delete does
+   @Benchmark
+   public int deleteEach() {
+      addSelection();
+      int positions = 0;
+      for (Query search : selection) {
+         positions += recency.remove(search);
+         positions += tagIndex.remove(search.getTag());
+      }
+      return positions;
+   }
+
+   // saving the selection, then deleting it in one pass per index
+   @Benchmark
+   public int deleteSelection() {
+      addSelection();
+      return recency.removeAll(selectedTags).length +
+         tagIndex.removeAll(selectedTags).length;
+   }
+
+   private void addSelection() {
+      for (Query search : selection) {
+         tagIndex.put(search);
+         recency.put(search);
+      }
+   }
+
+   // building the recency order once loading has finished
+   @Benchmark
+   public RecencyIndex buildRecency() {
+      return RecencyIndex.build(table, byTag);
+   }
+}
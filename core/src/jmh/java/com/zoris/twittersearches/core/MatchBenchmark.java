@@ -0,0 +1,84 @@
+// MatchBenchmark.java
+// Measures TweetMatcher: matching a feed of tweets against every search
+// in one pass, on one thread and on all cores, and changing one search
+// of a matcher that is already built
+package com.zoris.twittersearches.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MatchBenchmark {
+   private static final int TWEETS = 10_000;
+
+   @Param({"1000", "10000", "100000"})
+   int size;
+
+   private TweetMatcher matcher;
+   private String feed;
+   private List<Query> searches;
+   private ExecutorService workers;
+   private int cores;
+   private int next; // cycles through the searches for edit
+
+   @Setup(Level.Trial)
+   public void buildMatcher() {
+      searches = SearchData.searches(size);
+      matcher = new TweetMatcher();
+      for (Query search : searches)
+         matcher.put(search.getTag(), search.getQuery());
+      matcher.snapshot(); // builds the automata
+
+      StringBuilder lines = new StringBuilder();
+      for (String tweet : SearchData.tweets(TWEETS, size))
+         lines.append(tweet).append('\n');
+      feed = lines.toString();
+
+      cores = Runtime.getRuntime().availableProcessors();
+      workers = Executors.newFixedThreadPool(cores);
+   }
+
+   @TearDown(Level.Trial)
+   public void stopWorkers() {
+      workers.shutdown();
+   }
+
+   @Benchmark
+   public TweetMatcher.FeedCounts feedOneThread() throws IOException {
+      return matcher.matchFeed(new BufferedReader(new StringReader(feed)),
+         workers, 1);
+   }
+
+   @Benchmark
+   public TweetMatcher.FeedCounts feedAllCores() throws IOException {
+      return matcher.matchFeed(new BufferedReader(new StringReader(feed)),
+         workers, cores);
+   }
+
+   // an edit that adds a new word, then the snapshot the next match
+   // needs; only the small automaton of recent words is rebuilt
+   @Benchmark
+   public Object edit() {
+      Query search = searches.get(next % size);
+      matcher.put(search.getTag(), search.getQuery() + " word" + next++);
+      return matcher.snapshot();
+   }
+}
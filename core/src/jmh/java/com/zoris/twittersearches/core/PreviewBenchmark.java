@@ -0,0 +1,92 @@
+// PreviewBenchmark.java
+// Measures opening a preview through PreviewFetcher against StubServer:
+// a full download, a conditional request answered 304, and a fresh page
+// served from the disk cache
+package com.zoris.twittersearches.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PreviewBenchmark {
+   // runs fetch and its callback on the calling thread
+   private static final Executor DIRECT = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+         command.run();
+      }
+   };
+
+   private StubServer server;
+   private File directory;
+   private PreviewFetcher fetcher;
+   private PreviewFetcher.Preview result;
+
+   private final PreviewFetcher.Callback callback =
+      new PreviewFetcher.Callback() {
+         @Override
+         public void onPreview(PreviewFetcher.Preview preview) {
+            result = preview;
+         }
+
+         @Override
+         public void onFailure(IOException e) {
+            throw new IllegalStateException(e);
+         }
+      };
+
+   @Setup(Level.Trial)
+   public void startServer() throws IOException {
+      server = new StubServer(0);
+      directory = File.createTempFile("previews", "");
+      directory.delete();
+      fetcher = new PreviewFetcher(new UrlConnectionClient(5000),
+         new DiskLruCache(directory, 10 * 1024 * 1024), DIRECT, DIRECT, 0, 0);
+   }
+
+   @TearDown(Level.Trial)
+   public void stopServer() {
+      server.stop();
+      File[] files = directory.listFiles();
+      if (files != null) {
+         for (File file : files)
+            file.delete();
+      }
+      directory.delete();
+   }
+
+   // a page that may not be stored, downloaded in full every time
+   @Benchmark
+   public PreviewFetcher.Preview download() {
+      fetcher.fetch(server.url("nostore"), callback);
+      return result;
+   }
+
+   // an expired page confirmed by a 304 response
+   @Benchmark
+   public PreviewFetcher.Preview revalidate() {
+      fetcher.fetch(server.url("revalidate"), callback);
+      return result;
+   }
+
+   // a repeat open of a fresh page, read from disk without a request
+   @Benchmark
+   public PreviewFetcher.Preview cached() {
+      fetcher.fetch(server.url("fresh"), callback);
+      return result;
+   }
+}
@@ -0,0 +1,101 @@
+// RefreshBenchmark.java
+// Measures refreshing a batch of saved searches through RefreshEngine
+// against StubServer, which answers after a simulated round trip. Half
+// of the searches repeat another's query, so coalescing halves the
+// requests, and the pool size bounds how many overlap
+package com.zoris.twittersearches.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RefreshBenchmark {
+   private static final int SEARCHES = 200;
+   private static final long ROUND_TRIP_MS = 20;
+
+   // reports results on the engine's threads
+   private static final Executor DIRECT = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+         command.run();
+      }
+   };
+
+   @Param({"1", "4", "8"})
+   int concurrency;
+
+   private StubServer server;
+   private File directory;
+   private RefreshEngine engine;
+   private String[] urls;
+   private volatile CountDownLatch remaining;
+
+   @Setup(Level.Trial)
+   public void startServer() throws IOException {
+      server = new StubServer(ROUND_TRIP_MS);
+      directory = File.createTempFile("previews", "");
+      directory.delete();
+      PreviewFetcher fetcher = new PreviewFetcher(
+         new UrlConnectionClient(5000),
+         new DiskLruCache(directory, 100 * 1024 * 1024), DIRECT, DIRECT, 0, 0);
+
+      engine = new RefreshEngine(fetcher, concurrency, 0, DIRECT,
+         new RefreshEngine.Listener() {
+            @Override
+            public void onRefreshed(String tag, long time, boolean changed) {
+               remaining.countDown();
+            }
+
+            @Override
+            public void onRefreshFailed(String tag, IOException e) {
+               throw new IllegalStateException(e);
+            }
+         });
+
+      // every second search shares the query of the one before it
+      urls = new String[SEARCHES];
+      for (int i = 0; i < SEARCHES; ++i)
+         urls[i] = server.url("revalidate?q=" + i / 2);
+   }
+
+   @TearDown(Level.Trial)
+   public void stopServer() {
+      engine.cancel();
+      if (server.peakActive() > concurrency)
+         throw new IllegalStateException("Served " + server.peakActive() +
+            " requests at once with " + concurrency + " allowed");
+      server.stop();
+
+      File[] files = directory.listFiles();
+      if (files != null) {
+         for (File file : files)
+            file.delete();
+      }
+      directory.delete();
+   }
+
+   // refreshes every search and waits for all of the results
+   @Benchmark
+   public void refreshAll() throws InterruptedException {
+      remaining = new CountDownLatch(SEARCHES);
+      for (int i = 0; i < SEARCHES; ++i)
+         engine.refresh("tag" + i, urls[i]);
+      remaining.await();
+   }
+}
@@ -0,0 +1,66 @@
+// SearchData.java
+// Deterministic synthetic saved searches shared by the benchmarks
+package com.zoris.twittersearches.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+final class SearchData {
+   private static final String[] WORDS = {
+      "android", "java", "kotlin", "gradle", "twitter", "news", "sports",
+      "music", "weather", "traffic", "python", "rust", "election",
+      "football", "coffee", "travel", "space", "science", "movies", "art"
+   };
+
+   private SearchData() {
+   }
+
+   // returns count searches with unique mixed-case tags, two- to
+   // four-word queries with operators, and times spread over a year
+   static List<Query> searches(int count) {
+      Random random = new Random(count);
+      long now = 1_500_000_000_000L;
+      List<Query> searches = new ArrayList<>(count);
+
+      for (int i = 0; i < count; ++i) {
+         StringBuilder query = new StringBuilder();
+         int words = 2 + random.nextInt(3);
+         for (int w = 0; w < words; ++w) {
+            if (w > 0)
+               query.append(random.nextInt(4) == 0 ? " OR " : " ");
+            query.append(WORDS[random.nextInt(WORDS.length)]);
+         }
+         query.append(" from:user").append(random.nextInt(count));
+
+         String tag = (random.nextBoolean() ? "Tag " : "tag ") +
+            WORDS[random.nextInt(WORDS.length)] + ' ' + i;
+         long time = now - (long) random.nextInt(365 * 24 * 60) * 60_000L;
+         searches.add(new Query(tag, query.toString(), time,
+            time + random.nextInt(1_000_000)));
+      }
+      return searches;
+   }
+
+   // returns count tweets as JSON lines, by users numbered as in the
+   // from: terms of searches(users), with six to twenty words of text
+   static List<String> tweets(int count, int users) {
+      Random random = new Random(count);
+      List<String> tweets = new ArrayList<>(count);
+
+      for (int i = 0; i < count; ++i) {
+         StringBuilder text = new StringBuilder();
+         int words = 6 + random.nextInt(15);
+         for (int w = 0; w < words; ++w) {
+            if (w > 0)
+               text.append(' ');
+            text.append(random.nextInt(3) == 0 ?
+               WORDS[random.nextInt(WORDS.length)] : "filler" + w);
+         }
+         // nothing generated needs escaping
+         tweets.add("{\"user\":\"user" + random.nextInt(users) +
+            "\",\"text\":\"" + text + "!\"}");
+      }
+      return tweets;
+   }
+}
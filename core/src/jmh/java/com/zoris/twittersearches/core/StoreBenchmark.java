@@ -0,0 +1,78 @@
+// StoreBenchmark.java
+// Measures loading, saving and deleting searches in LogSearchStore
+package com.zoris.twittersearches.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoreBenchmark {
+   @Param({"1000", "10000", "100000"})
+   int size;
+
+   private File file;
+   private LogSearchStore store;
+   private List<Query> searches;
+   private int next; // cycles through the searches for save and delete
+
+   @Setup(Level.Trial)
+   public void createStore() throws IOException {
+      searches = SearchData.searches(size);
+      Map<String, String> records = new HashMap<>();
+      for (Query search : searches)
+         records.put(search.getTag(), search.toJson());
+
+      file = File.createTempFile("searches", ".log");
+      file.delete();
+      store = new LogSearchStore(file);
+      store.load();
+      store.putAll(records);
+   }
+
+   @TearDown(Level.Trial)
+   public void deleteStore() throws IOException {
+      store.close();
+      file.delete();
+   }
+
+   // a cold start: one sequential read of the whole log
+   @Benchmark
+   public Map<String, String> load() throws IOException {
+      LogSearchStore loaded = new LogSearchStore(file);
+      loaded.load();
+      loaded.close();
+      return loaded.getAll();
+   }
+
+   // re-saving an existing search, as an edit does
+   @Benchmark
+   public void save() throws IOException {
+      Query search = searches.get(next++ % size);
+      store.put(search.getTag(), search.toJson());
+   }
+
+   // deleting a search; it is put back so the store keeps its size
+   @Benchmark
+   public void delete() throws IOException {
+      Query search = searches.get(next++ % size);
+      store.remove(search.getTag());
+      store.put(search.getTag(), search.toJson());
+   }
+}
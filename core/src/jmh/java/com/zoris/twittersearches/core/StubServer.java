@@ -0,0 +1,116 @@
+// StubServer.java
+// Stand-in for the search site on the loopback interface. Every path
+// serves the same page with an ETag, answering 304 to a matching
+// If-None-Match; the path's last segment names the Cache-Control sent.
+// Requests can be delayed like a real round trip, and the server counts
+// requests and the most it was serving at once
+package com.zoris.twittersearches.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class StubServer {
+   static final String ETAG = "\"results-1\"";
+
+   private final HttpServer server;
+   private final ExecutorService threads = Executors.newCachedThreadPool();
+   private final byte[] body;
+   private final long delayMillis;
+   private final AtomicInteger requests = new AtomicInteger();
+   private final AtomicInteger active = new AtomicInteger();
+   private final AtomicInteger peakActive = new AtomicInteger();
+
+   // serves a results page of about 50 KB, after delayMillis per request
+   StubServer(long delayMillis) throws IOException {
+      this.delayMillis = delayMillis;
+
+      StringBuilder page = new StringBuilder("<html><body>");
+      for (Query search : SearchData.searches(500))
+         page.append("<p>").append(search.getQuery()).append("</p>\n");
+      body = page.append("</body></html>").toString().getBytes(
+         StandardCharsets.UTF_8);
+
+      server = HttpServer.create(
+         new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      server.setExecutor(threads);
+      server.createContext("/", new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            try {
+               serve(exchange);
+            }
+            finally {
+               exchange.close();
+            }
+         }
+      });
+      server.start();
+   }
+
+   // counts the request as active while it waits out the round trip,
+   // which ends before the client can see the response
+   private void serve(HttpExchange exchange) throws IOException {
+      requests.incrementAndGet();
+      int now = active.incrementAndGet();
+      int peak;
+      while ((peak = peakActive.get()) < now &&
+         !peakActive.compareAndSet(peak, now)) {
+         // retry until the peak is at least now
+      }
+      try {
+         if (delayMillis > 0)
+            Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      finally {
+         active.decrementAndGet();
+      }
+
+      String path = exchange.getRequestURI().getPath();
+      exchange.getResponseHeaders().set("ETag", ETAG);
+      exchange.getResponseHeaders().set("Cache-Control",
+         path.endsWith("fresh") ? "max-age=3600" :
+         path.endsWith("revalidate") ? "max-age=0" : "no-store");
+      exchange.getResponseHeaders().set("Content-Type",
+         "text/html; charset=utf-8");
+
+      if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+         exchange.sendResponseHeaders(HttpResponse.NOT_MODIFIED, -1);
+      else {
+         exchange.sendResponseHeaders(HttpResponse.OK, body.length);
+         OutputStream out = exchange.getResponseBody();
+         out.write(body);
+         out.close();
+      }
+   }
+
+   // the URL of path on this server; path must not start with a slash
+   String url(String path) {
+      return "http://127.0.0.1:" + server.getAddress().getPort() + "/" +
+         path;
+   }
+
+   int requests() {
+      return requests.get();
+   }
+
+   int peakActive() {
+      return peakActive.get();
+   }
+
+   void stop() {
+      server.stop(0);
+      threads.shutdown();
+   }
+}
@@ -0,0 +1,121 @@
+// SyncBenchmark.java
+// Measures syncing saved searches through SyncServer over the loopback
+// interface: a new device receiving every search, and a device that is
+// up to date receiving a few edits made on another one
+package com.zoris.twittersearches.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SyncBenchmark {
+   // searches edited on one device between syncs of the other
+   private static final int EDITS = 10;
+   private static final int BATCH_SIZE = 500;
+   private static final int TIMEOUT_MS = 15000;
+
+   @Param({"1000", "10000"})
+   int size;
+
+   private SyncServer server;
+   private File directory;
+   private SyncedSearchStore editor; // where the searches are edited
+   private SyncedSearchStore follower; // kept up to date with editor
+   private SyncedSearchStore newcomer; // syncs for the first time
+   private List<Query> searches;
+   private int next; // cycles through the searches to edit
+   private long edits; // made so far, so that every edit changes a search
+   private int devices; // stores opened, to name their files
+
+   @Setup(Level.Trial)
+   public void startServer() throws IOException {
+      server = new SyncServer();
+      directory = File.createTempFile("sync", "");
+      directory.delete();
+      directory.mkdir();
+
+      searches = SearchData.searches(size);
+      Map<String, String> records = new HashMap<>();
+      for (Query search : searches)
+         records.put(search.getTag(), search.toJson());
+
+      editor = openDevice();
+      editor.putAll(records);
+      client(editor).sync();
+      follower = openDevice();
+      client(follower).sync();
+   }
+
+   @Setup(Level.Invocation)
+   public void openNewcomer() throws IOException {
+      newcomer = openDevice();
+   }
+
+   @TearDown(Level.Invocation)
+   public void closeNewcomer() throws IOException {
+      newcomer.close();
+   }
+
+   @TearDown(Level.Trial)
+   public void stopServer() throws IOException {
+      editor.close();
+      follower.close();
+      server.stop();
+      for (File file : directory.listFiles())
+         file.delete();
+      directory.delete();
+   }
+
+   // a device syncing for the first time, receiving every search
+   @Benchmark
+   public SyncClient.Result fullSync() throws IOException {
+      return client(newcomer).sync();
+   }
+
+   // a few searches edited on one device, then synced to another; only
+   // the edits cross the network
+   @Benchmark
+   public SyncClient.Result incrementalSync() throws IOException {
+      for (int i = 0; i < EDITS; ++i) {
+         Query search = searches.get(next);
+         next = (next + 1) % searches.size();
+         // only a query is versioned, so the edit changes it
+         editor.put(search.getTag(), new Query(search.getTag(),
+            search.getQuery() + " " + ++edits, search.getTime(),
+            search.getLastUsed()).toJson());
+      }
+      client(editor).sync();
+      return client(follower).sync();
+   }
+
+   private SyncedSearchStore openDevice() throws IOException {
+      ++devices;
+      SyncedSearchStore store = new SyncedSearchStore(
+         new LogSearchStore(new File(directory, devices + ".log")),
+         new File(directory, devices + ".sync"));
+      store.load();
+      return store;
+   }
+
+   private SyncClient client(SyncedSearchStore store) {
+      return new SyncClient(store, new UrlConnectionClient(TIMEOUT_MS),
+         server.url(), BATCH_SIZE);
+   }
+}
@@ -0,0 +1,40 @@
+// Counter.java
+// Count of events on a code path, such as writes that were skipped.
+// Like a histogram it records only while Metrics is enabled
+package com.zoris.twittersearches.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Counter {
+   private final String name;
+   private final AtomicLong count = new AtomicLong();
+
+   // counters are created through Metrics.counter
+   Counter(String name) {
+      this.name = name;
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   // counts one event, if recording is enabled
+   public void increment() {
+      if (Metrics.isEnabled())
+         count.incrementAndGet();
+   }
+
+   // counts events at once, if recording is enabled
+   public void add(long events) {
+      if (Metrics.isEnabled())
+         count.addAndGet(events);
+   }
+
+   public long getCount() {
+      return count.get();
+   }
+
+   public void reset() {
+      count.set(0);
+   }
+}
@@ -0,0 +1,157 @@
+// DiskLruCache.java
+// Size-bounded cache of byte entries in a directory, one file per key.
+// Once the entries' total size passes the limit, the least recently used
+// are deleted. Reads update a file's modification time, so the access
+// order survives restarts. Every method synchronizes on the cache
+package com.zoris.twittersearches.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DiskLruCache {
+   private static final String TEMP_SUFFIX = ".tmp";
+
+   private final File directory;
+   private final long maxBytes;
+
+   // file size by key, least recently used first
+   private final LinkedHashMap<String, Long> sizes =
+      new LinkedHashMap<>(16, 0.75f, true);
+   private long size; // total bytes of all entries
+   private boolean opened;
+
+   public DiskLruCache(File directory, long maxBytes) {
+      this.directory = directory;
+      this.maxBytes = maxBytes;
+   }
+
+   // indexes the entries already in the directory, oldest use first, and
+   // deletes files left by interrupted writes; called by the other
+   // methods if needed, so only worth calling early to do the work ahead
+   public synchronized void open() throws IOException {
+      if (opened)
+         return;
+
+      if (!directory.isDirectory() && !directory.mkdirs())
+         throw new IOException("Cannot create " + directory);
+
+      File[] files = directory.listFiles();
+      if (files == null)
+         throw new IOException("Cannot list " + directory);
+
+      final long[] modified = new long[files.length];
+      Integer[] order = new Integer[files.length];
+      for (int i = 0; i < files.length; ++i) {
+         modified[i] = files[i].lastModified();
+         order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+         @Override
+         public int compare(Integer a, Integer b) {
+            return Long.compare(modified[a], modified[b]);
+         }
+      });
+
+      for (Integer i : order) {
+         File file = files[i];
+         if (file.getName().endsWith(TEMP_SUFFIX))
+            file.delete();
+         else if (file.isFile()) {
+            sizes.put(file.getName(), file.length());
+            size += file.length();
+         }
+      }
+      opened = true;
+      trim();
+   }
+
+   // returns the entry stored under key, or null if there is none
+   public synchronized byte[] get(String key) throws IOException {
+      open();
+      if (sizes.get(key) == null)
+         return null;
+
+      File file = new File(directory, key);
+      byte[] data = new byte[(int) file.length()];
+      FileInputStream in;
+      try {
+         in = new FileInputStream(file);
+      } catch (IOException e) { // deleted behind the cache
+         remove(key);
+         return null;
+      }
+      try {
+         int read = 0;
+         int count;
+         while (read < data.length &&
+            (count = in.read(data, read, data.length - read)) > 0)
+            read += count;
+         if (read < data.length)
+            throw new IOException("Truncated cache entry " + key);
+      }
+      finally {
+         in.close();
+      }
+      file.setLastModified(System.currentTimeMillis());
+      return data;
+   }
+
+   // stores data under key, replacing any entry, then evicts the least
+   // recently used entries until the cache fits its limit; key must be a
+   // valid file name. The entry is written to a temporary file and renamed
+   // over the old one, so readers never see a partly written entry
+   public synchronized void put(String key, byte[] data) throws IOException {
+      open();
+      File temp = new File(directory, key + TEMP_SUFFIX);
+      FileOutputStream out = new FileOutputStream(temp);
+      try {
+         out.write(data);
+      }
+      finally {
+         out.close();
+      }
+      if (!temp.renameTo(new File(directory, key))) {
+         temp.delete();
+         throw new IOException("Cannot store cache entry " + key);
+      }
+
+      Long old = sizes.put(key, (long) data.length);
+      size += data.length - (old != null ? old : 0);
+      trim();
+   }
+
+   // deletes the entry stored under key, if any
+   public synchronized void remove(String key) throws IOException {
+      open();
+      Long old = sizes.remove(key);
+      if (old != null) {
+         size -= old;
+         new File(directory, key).delete();
+      }
+   }
+
+   // returns the total bytes of all entries
+   public synchronized long size() throws IOException {
+      open();
+      return size;
+   }
+
+   // deletes least recently used entries while over the limit
+   private void trim() {
+      Iterator<Map.Entry<String, Long>> entries =
+         sizes.entrySet().iterator();
+      while (size > maxBytes && entries.hasNext()) {
+         Map.Entry<String, Long> eldest = entries.next();
+         new File(directory, eldest.getKey()).delete();
+         size -= eldest.getValue();
+         entries.remove();
+      }
+   }
+}
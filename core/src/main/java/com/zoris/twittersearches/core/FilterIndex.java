@@ -0,0 +1,449 @@
+// FilterIndex.java
+// In-memory text index over saved searches' tags and queries used to
+// filter the list as the user types. Filters of three or more characters
+// match substrings through trigram postings; shorter filters match word
+// prefixes through a two-level prefix trie. Postings hold SearchTable
+// rows and follow the table's changes under its lock, so the index may
+// be queried from a background thread.
+package com.zoris.twittersearches.core;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class FilterIndex implements SearchTable.Listener {
+   // filters shorter than this are matched against word prefixes
+   private static final int GRAM_LENGTH = 3;
+
+   private final SearchTable table;
+
+   // postings for every trigram, and for every one- and two-character
+   // word prefix, keyed by the packed characters
+   private final Map<Long, Postings> grams = new HashMap<>();
+   private final Map<Long, Postings> prefixes = new HashMap<>();
+
+   // indexes the searches put into table from now on
+   public FilterIndex(SearchTable table) {
+      this.table = table;
+      table.addListener(this);
+   }
+
+   // indexes the text of row, which the table now holds
+   @Override
+   public void rowAdded(int row) {
+      String text = lowered(row);
+      for (long key : keys(text, true))
+         postings(grams, key).add(row);
+      for (long key : keys(text, false))
+         postings(prefixes, key).add(row);
+   }
+
+   // drops the text of row, which the table is about to change
+   @Override
+   public void rowRemoved(int row) {
+      String text = lowered(row);
+      for (long key : keys(text, true))
+         grams.get(key).remove(row);
+      for (long key : keys(text, false))
+         prefixes.get(key).remove(row);
+   }
+
+   // releases the spare capacity of every posting list, e.g. once the
+   // saved searches have been loaded
+   public void trimToSize() {
+      synchronized (table) {
+         for (Postings list : grams.values())
+            list.trimToSize();
+         for (Postings list : prefixes.values())
+            list.trimToSize();
+      }
+   }
+
+   // returns the searches whose tag or query matches filter, sorted by
+   // recency or by tag; filter is matched case-insensitively
+   public SearchSnapshot find(String filter, boolean byRecency) {
+      String text = lower(filter);
+      synchronized (table) {
+         int[] results = new int[16];
+         int count = 0;
+
+         if (text.length() < GRAM_LENGTH) {
+            Postings matches = text.isEmpty() ? null :
+               prefixes.get(pack(text, 0, text.length()));
+            if (matches != null) {
+               results = matches.toArray();
+               count = results.length;
+            }
+         }
+         else {
+            // intersect the postings of every trigram, starting from the
+            // shortest, then confirm each candidate really contains filter
+            Set<Long> keys = keys(text, true);
+            Postings[] lists = new Postings[keys.size()];
+            int lengths = 0;
+            for (long key : keys) {
+               Postings list = grams.get(key);
+               if (list == null || list.size == 0)
+                  return table.snapshot(results, 0);
+               lists[lengths++] = list;
+            }
+            Arrays.sort(lists, Postings.BY_SIZE);
+
+            // candidates arrive in increasing row order, so each other
+            // list is read forward from where the previous lookup stopped
+            Reader[] readers = new Reader[lists.length];
+            for (int j = 0; j < lists.length; ++j)
+               readers[j] = new Reader(lists[j]);
+
+            candidates:
+            for (int row = readers[0].seek(0); row >= 0;
+               row = readers[0].seek(row + 1)) {
+               for (int j = 1; j < readers.length; ++j) {
+                  int next = readers[j].seek(row);
+                  if (next < 0)
+                     break candidates; // no later row can match either
+                  if (next != row)
+                     continue candidates;
+               }
+               if (table.containsLowered(row, text)) {
+                  if (count == results.length)
+                     results = Arrays.copyOf(results, count * 2);
+                  results[count++] = row;
+               }
+            }
+         }
+
+         (byRecency ? RowOrder.byRecency(table) : RowOrder.byTag(table))
+            .sort(results, count);
+         return table.snapshot(results, count);
+      }
+   }
+
+   // returns row's tag and query, lowered the way filters are
+   private String lowered(int row) {
+      StringBuilder text = new StringBuilder();
+      table.appendText(row, text);
+      for (int i = 0; i < text.length(); ++i)
+         text.setCharAt(i, Character.toLowerCase(text.charAt(i)));
+      return text.toString();
+   }
+
+   // lowers text one character at a time, as the table compares it
+   private static String lower(String text) {
+      char[] chars = text.toCharArray();
+      for (int i = 0; i < chars.length; ++i)
+         chars[i] = Character.toLowerCase(chars[i]);
+      return new String(chars);
+   }
+
+   // returns the packed trigrams of text, or its one- and two-character
+   // word prefixes when grams is false
+   private static Set<Long> keys(String text, boolean grams) {
+      Set<Long> keys = new HashSet<>();
+
+      if (grams) {
+         for (int i = 0; i + GRAM_LENGTH <= text.length(); ++i)
+            keys.add(pack(text, i, GRAM_LENGTH));
+      }
+      else {
+         for (int i = 0; i < text.length(); ++i) {
+            if (!Character.isLetterOrDigit(text.charAt(i)) ||
+               (i > 0 && Character.isLetterOrDigit(text.charAt(i - 1))))
+               continue; // not the start of a word
+
+            keys.add(pack(text, i, 1));
+            if (i + 1 < text.length())
+               keys.add(pack(text, i, 2));
+         }
+      }
+      return keys;
+   }
+
+   // packs up to three characters and the count into one key
+   private static long pack(String text, int start, int length) {
+      long key = length;
+      for (int i = start; i < start + length; ++i)
+         key = (key << 16) | text.charAt(i);
+      return key;
+   }
+
+   private static Postings postings(Map<Long, Postings> map, long key) {
+      Postings list = map.get(key);
+      if (list == null) {
+         list = new Postings();
+         map.put(key, list);
+      }
+      return list;
+   }
+
+   // sorted set of table rows, stored in blocks of up to BLOCK_SIZE
+   // rows: each block keeps its first row in meta and the gaps to the
+   // rest as varints in data, so most postings take a byte or two and a
+   // change re-encodes only the block it falls in
+   private static class Postings {
+      static final Comparator<Postings> BY_SIZE =
+         new Comparator<Postings>() {
+            @Override
+            public int compare(Postings a, Postings b) {
+               return a.size - b.size;
+            }
+         };
+
+      static final int BLOCK_SIZE = 64;
+
+      // entries of meta for each block: its first row, its row count and
+      // where its gaps start in data
+      static final int FIRST = 0;
+      static final int COUNT = 1;
+      static final int START = 2;
+      static final int STRIDE = 3;
+
+      int size; // rows in the list
+      int last = -1; // largest row, where appends go
+      int blocks;
+      int[] meta = new int[STRIDE];
+      byte[] data = new byte[4];
+      int length; // bytes of data in use
+
+      // rows are mostly added in increasing order, as the table hands
+      // them out, so this is usually an append; reused rows are inserted
+      void add(int row) {
+         if (row > last && blocks > 0 &&
+            meta[(blocks - 1) * STRIDE + COUNT] < BLOCK_SIZE) {
+            ensureData(length + 5);
+            length = writeGap(data, length, row - last);
+            ++meta[(blocks - 1) * STRIDE + COUNT];
+         }
+         else if (row > last) {
+            insertBlock(blocks);
+            meta[(blocks - 1) * STRIDE + FIRST] = row;
+            meta[(blocks - 1) * STRIDE + COUNT] = 1;
+         }
+         else {
+            int block = blockOf(row);
+            int[] rows = new int[BLOCK_SIZE + 1];
+            int count = decode(block, rows);
+            int index = Arrays.binarySearch(rows, 0, count, row);
+            if (index >= 0)
+               return; // already present
+
+            index = -(index + 1);
+            System.arraycopy(rows, index, rows, index + 1, count - index);
+            rows[index] = row;
+            ++count;
+
+            if (count <= BLOCK_SIZE)
+               encode(block, rows, 0, count);
+            else {
+               // split a full block in two
+               int half = count / 2;
+               encode(block, rows, 0, half);
+               insertBlock(block + 1);
+               encode(block + 1, rows, half, count - half);
+            }
+         }
+
+         last = Math.max(last, row);
+         ++size;
+      }
+
+      void remove(int row) {
+         if (blocks == 0)
+            return;
+
+         int block = blockOf(row);
+         int[] rows = new int[BLOCK_SIZE];
+         int count = decode(block, rows);
+         int index = Arrays.binarySearch(rows, 0, count, row);
+         if (index < 0)
+            return;
+
+         System.arraycopy(rows, index + 1, rows, index, count - index - 1);
+         --count;
+         if (count > 0)
+            encode(block, rows, 0, count);
+         else
+            removeBlock(block);
+         --size;
+
+         if (row == last) {
+            last = -1;
+            if (blocks > 0)
+               last = rows[decode(blocks - 1, rows) - 1];
+         }
+      }
+
+      // returns every row, in order
+      int[] toArray() {
+         int[] rows = new int[size];
+         int[] block = new int[BLOCK_SIZE];
+         int count = 0;
+         for (int i = 0; i < blocks; ++i) {
+            int decoded = decode(i, block);
+            System.arraycopy(block, 0, rows, count, decoded);
+            count += decoded;
+         }
+         return rows;
+      }
+
+      void trimToSize() {
+         meta = Arrays.copyOf(meta, Math.max(blocks, 1) * STRIDE);
+         data = Arrays.copyOf(data, length);
+      }
+
+      // returns the last block whose first row is at or before row, or
+      // the first block if row comes before them all
+      private int blockOf(int row) {
+         int low = 0;
+         int high = blocks - 1;
+         while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (meta[middle * STRIDE + FIRST] <= row)
+               low = middle;
+            else
+               high = middle - 1;
+         }
+         return low;
+      }
+
+      // where block's gaps end in data
+      private int end(int block) {
+         return block + 1 < blocks ?
+            meta[(block + 1) * STRIDE + START] : length;
+      }
+
+      // reads block's rows into rows and returns how many there are
+      private int decode(int block, int[] rows) {
+         int count = meta[block * STRIDE + COUNT];
+         int position = meta[block * STRIDE + START];
+         int row = meta[block * STRIDE + FIRST];
+         rows[0] = row;
+         for (int i = 1; i < count; ++i) {
+            int gap = 0;
+            for (int shift = 0; ; shift += 7) {
+               byte b = data[position++];
+               gap |= (b & 0x7f) << shift;
+               if (b >= 0)
+                  break;
+            }
+            row += gap;
+            rows[i] = row;
+         }
+         return count;
+      }
+
+      // replaces block's contents with rows[from, from + count)
+      private void encode(int block, int[] rows, int from, int count) {
+         byte[] gaps = new byte[count * 5];
+         int gapLength = 0;
+         for (int i = from + 1; i < from + count; ++i)
+            gapLength = writeGap(gaps, gapLength, rows[i] - rows[i - 1]);
+
+         int start = meta[block * STRIDE + START];
+         int oldEnd = end(block);
+         int shift = gapLength - (oldEnd - start);
+         ensureData(length + shift);
+         System.arraycopy(data, oldEnd, data, oldEnd + shift,
+            length - oldEnd);
+         System.arraycopy(gaps, 0, data, start, gapLength);
+         length += shift;
+         for (int i = block + 1; i < blocks; ++i)
+            meta[i * STRIDE + START] += shift;
+
+         meta[block * STRIDE + FIRST] = rows[from];
+         meta[block * STRIDE + COUNT] = count;
+      }
+
+      // adds an empty block at index, starting where the previous one ends
+      private void insertBlock(int index) {
+         if ((blocks + 1) * STRIDE > meta.length)
+            meta = Arrays.copyOf(meta, Math.max(meta.length * 2, STRIDE));
+         System.arraycopy(meta, index * STRIDE, meta, (index + 1) * STRIDE,
+            (blocks - index) * STRIDE);
+         meta[index * STRIDE + FIRST] = 0;
+         meta[index * STRIDE + COUNT] = 0;
+         meta[index * STRIDE + START] = index < blocks ?
+            meta[(index + 1) * STRIDE + START] : length;
+         ++blocks;
+      }
+
+      // removes an empty block, which has no gaps in data
+      private void removeBlock(int index) {
+         System.arraycopy(meta, (index + 1) * STRIDE, meta, index * STRIDE,
+            (blocks - index - 1) * STRIDE);
+         --blocks;
+      }
+
+      private void ensureData(int capacity) {
+         if (capacity > data.length)
+            data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+      }
+
+      // writes gap as a varint at position and returns where it ends
+      private static int writeGap(byte[] bytes, int position, int gap) {
+         while ((gap & ~0x7f) != 0) {
+            bytes[position++] = (byte) ((gap & 0x7f) | 0x80);
+            gap >>>= 7;
+         }
+         bytes[position++] = (byte) gap;
+         return position;
+      }
+   }
+
+   // reads a posting list forward, skipping whole blocks when seeking
+   private static class Reader {
+      private final Postings list;
+      private int block = -1;
+      private int position; // of the next gap in list.data
+      private int remaining; // gaps left in the block
+      private int row;
+
+      Reader(Postings list) {
+         this.list = list;
+      }
+
+      // returns the first row at or after target, or -1 if there is
+      // none; targets must not decrease from one call to the next
+      int seek(int target) {
+         if (block >= 0 && (row < 0 || row >= target))
+            return row;
+
+         int next = Math.max(block, 0);
+         while (next + 1 < list.blocks &&
+            list.meta[(next + 1) * Postings.STRIDE + Postings.FIRST] <=
+            target)
+            ++next;
+         if (next != block)
+            enter(next);
+
+         while (row < target) {
+            if (remaining > 0) {
+               int gap = 0;
+               for (int shift = 0; ; shift += 7) {
+                  byte b = list.data[position++];
+                  gap |= (b & 0x7f) << shift;
+                  if (b >= 0)
+                     break;
+               }
+               row += gap;
+               --remaining;
+            }
+            else if (block + 1 < list.blocks)
+               enter(block + 1);
+            else
+               return row = -1;
+         }
+         return row;
+      }
+
+      private void enter(int next) {
+         block = next;
+         row = list.meta[next * Postings.STRIDE + Postings.FIRST];
+         remaining = list.meta[next * Postings.STRIDE + Postings.COUNT] - 1;
+         position = list.meta[next * Postings.STRIDE + Postings.START];
+      }
+   }
+}
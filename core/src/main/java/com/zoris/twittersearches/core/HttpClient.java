@@ -0,0 +1,20 @@
+// HttpClient.java
+// Performs the HTTP requests of PreviewFetcher and SyncClient, so the
+// network library can be swapped, or replaced by a stub in benchmarks
+package com.zoris.twittersearches.core;
+
+import java.io.IOException;
+import java.util.Map;
+
+public interface HttpClient {
+   // fetches url, sending headers as request header fields; error and
+   // 304 statuses are returned rather than thrown
+   HttpResponse get(String url, Map<String, String> headers)
+      throws IOException;
+
+   // posts body to url, sending headers as request header fields; error
+   // statuses are returned rather than thrown, and redirects are not
+   // followed
+   HttpResponse post(String url, Map<String, String> headers, byte[] body)
+      throws IOException;
+}
@@ -0,0 +1,46 @@
+// HttpResponse.java
+// Status, header fields and body of a completed HTTP request
+package com.zoris.twittersearches.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public class HttpResponse {
+   public static final int OK = 200;
+   public static final int NOT_MODIFIED = 304;
+
+   private final int status;
+   private final Map<String, String> headers; // by lower-case name
+   private final byte[] body;
+
+   // headers may use any case; a field given more than once should be
+   // joined with commas, as HTTP allows
+   public HttpResponse(int status, Map<String, String> headers,
+      byte[] body) {
+      this.status = status;
+      this.body = body;
+
+      Map<String, String> lowered = new HashMap<>();
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+         if (header.getKey() != null)
+            lowered.put(header.getKey().toLowerCase(Locale.ROOT),
+               header.getValue());
+      }
+      this.headers = Collections.unmodifiableMap(lowered);
+   }
+
+   public int getStatus() {
+      return status;
+   }
+
+   // returns the header field called name in any case, or null
+   public String getHeader(String name) {
+      return headers.get(name.toLowerCase(Locale.ROOT));
+   }
+
+   public byte[] getBody() {
+      return body;
+   }
+}
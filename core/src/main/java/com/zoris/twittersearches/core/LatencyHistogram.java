@@ -0,0 +1,116 @@
+// LatencyHistogram.java
+// Fixed-size histogram of durations in nanoseconds. Buckets are
+// log-linear: each power of two is split into eight, so any reported
+// percentile is within 12.5% of the true value. Recording only
+// increments counters, so it never allocates
+package com.zoris.twittersearches.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+   private static final int SUB_BUCKET_BITS = 3;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+   // enough buckets for any non-negative long
+   private static final int BUCKETS =
+      (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+   private final String name;
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong count = new AtomicLong();
+   private final AtomicLong total = new AtomicLong(); // sum of durations
+   private final AtomicLong max = new AtomicLong();
+
+   // histograms are created through Metrics.histogram
+   LatencyHistogram(String name) {
+      this.name = name;
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   // records the time since start, a value returned by Metrics.start;
+   // does nothing if recording was disabled when start was taken
+   public void stop(long start) {
+      if (start != 0)
+         record(System.nanoTime() - start);
+   }
+
+   // records one duration
+   public void record(long nanos) {
+      if (nanos < 0)
+         nanos = 0; // clock went backwards
+
+      counts.incrementAndGet(bucket(nanos));
+      count.incrementAndGet();
+      total.addAndGet(nanos);
+
+      long previous = max.get();
+      while (nanos > previous && !max.compareAndSet(previous, nanos))
+         previous = max.get();
+   }
+
+   public long getCount() {
+      return count.get();
+   }
+
+   public long getMax() {
+      return max.get();
+   }
+
+   // returns the mean duration, or 0 if nothing was recorded
+   public long getMean() {
+      long recorded = count.get();
+      return recorded == 0 ? 0 : total.get() / recorded;
+   }
+
+   // returns an upper bound of the duration below which fraction (0 to 1)
+   // of the recordings fall, or 0 if nothing was recorded
+   public long getPercentile(double fraction) {
+      long recorded = count.get();
+      if (recorded == 0)
+         return 0;
+
+      long rank = Math.max(1, (long) Math.ceil(fraction * recorded));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += counts.get(i);
+         if (seen >= rank)
+            return Math.min(upperBound(i), max.get());
+      }
+      return max.get(); // recordings arrived while counting
+   }
+
+   public void reset() {
+      for (int i = 0; i < BUCKETS; ++i)
+         counts.set(i, 0);
+      count.set(0);
+      total.set(0);
+      max.set(0);
+   }
+
+   // index of the bucket holding nanos: values below SUB_BUCKETS have a
+   // bucket each, larger ones are placed by their top four bits
+   static int bucket(long nanos) {
+      if (nanos < SUB_BUCKETS)
+         return (int) nanos;
+
+      int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+      int subBucket =
+         (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+   }
+
+   // largest value placed in bucket index
+   static long upperBound(int index) {
+      if (index < SUB_BUCKETS)
+         return index;
+
+      int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) <<
+         (exponent - SUB_BUCKET_BITS);
+      return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+   }
+}
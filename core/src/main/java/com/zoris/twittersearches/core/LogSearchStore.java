@@ -0,0 +1,413 @@
+// LogSearchStore.java
+// SearchStore kept as an append-only binary log that is periodically
+// compacted; each change costs one small append instead of a full rewrite.
+// Only the tags and the file offsets of their records are kept in memory;
+// records are read back from the file when asked for. A log damaged
+// other than by a torn last append is copied aside and started again
+// with the records read before the damage, never compacted over
+package com.zoris.twittersearches.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class LogSearchStore implements SearchStore {
+   private static final int MAGIC = 0x54575353; // "TWSS"
+   private static final int VERSION = 1;
+   private static final int HEADER_SIZE = 5; // magic + version
+
+   // operation codes that start every log record
+   private static final byte OP_PUT = 1;
+   private static final byte OP_REMOVE = 2;
+
+   // compact once the log holds this many more records than live tags
+   private static final int COMPACTION_SLACK = 64;
+
+   private final File file;
+
+   // tags of the live records and the offsets of their values in the
+   // file, in an open-addressing table kept at most half full; logs stay
+   // far below 2 GB, so offsets fit in an int
+   private String[] tags = new String[32];
+   private int[] offsets = new int[32];
+   private int size; // live records
+
+   // the log as read by load, kept until getAll decodes it or a change
+   // makes it stale, so loading reads the file only once
+   private byte[] loaded;
+   private int fileLength; // where the next append lands
+   private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+   private final DataOutputStream out = new DataOutputStream(buffer);
+   private FileOutputStream log; // opened lazily in append mode
+   private int logRecords; // records in the log, including overwritten ones
+   private boolean ready; // loaded; nothing is written to the log before
+   private File corruptCopy; // where load kept a damaged log, until taken
+
+   public LogSearchStore(File file) {
+      this.file = file;
+   }
+
+   // replays the log with a single sequential read of the file
+   @Override
+   public synchronized void load() throws IOException {
+      tags = new String[32];
+      offsets = new int[32];
+      size = 0;
+      loaded = null;
+      logRecords = 0;
+      ready = false;
+
+      if (!file.exists()) {
+         rewrite(); // start a fresh log with only a header
+         ready = true;
+         return;
+      }
+
+      byte[] data = readFile();
+      ByteBuffer bytes = ByteBuffer.wrap(data);
+      if (data.length < HEADER_SIZE || bytes.getInt() != MAGIC ||
+         bytes.get() != VERSION) {
+         startOver(data);
+         return;
+      }
+
+      int end = bytes.position(); // end of the last complete record
+      try {
+         while (bytes.hasRemaining()) {
+            byte op = bytes.get();
+            if (op != OP_PUT && op != OP_REMOVE) {
+               startOver(data);
+               return;
+            }
+            String tag = readString(bytes);
+
+            if (op == OP_PUT) {
+               int offset = bytes.position();
+               skipString(bytes);
+               putOffset(tag, offset);
+            }
+            else
+               removeOffset(tag);
+
+            ++logRecords;
+            end = bytes.position();
+         }
+      }
+      catch (BufferUnderflowException e) {
+         // the last append was torn by a crash; drop the partial record
+         try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(end);
+         }
+      }
+
+      fileLength = end;
+      loaded = data;
+      ready = true;
+   }
+
+   // returns the copy of a damaged log that load kept, once, or null if
+   // the log loaded whole
+   public synchronized File takeCorruptCopy() {
+      File copy = corruptCopy;
+      corruptCopy = null;
+      return copy;
+   }
+
+   // keeps data, a log damaged before its end, in a file of its own and
+   // starts a new log with the records read up to the damage. Records
+   // past it cannot be found, and appending after the damaged bytes
+   // would drop them for good at the next compaction
+   private void startOver(byte[] data) throws IOException {
+      File copy = new File(file.getPath() + ".corrupt");
+      for (int i = 1; copy.exists(); ++i)
+         copy = new File(file.getPath() + ".corrupt." + i);
+      try (FileOutputStream saved = new FileOutputStream(copy)) {
+         saved.write(data);
+         saved.getFD().sync();
+      }
+
+      corruptCopy = copy;
+      rewrite();
+      ready = true;
+   }
+
+   // reads the record stored under tag from the file
+   @Override
+   public synchronized String get(String tag) {
+      int slot = slotOf(tag);
+      if (tags[slot] == null)
+         return null;
+
+      if (loaded != null)
+         return readString(loaded, offsets[slot]);
+
+      try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+         raf.seek(offsets[slot]);
+         byte[] utf8 = new byte[raf.readInt()];
+         raf.readFully(utf8);
+         return new String(utf8, StandardCharsets.UTF_8);
+      } catch (IOException e) {
+         e.printStackTrace();
+         return null;
+      }
+   }
+
+   // decodes every live record, reading the file again unless load has
+   // just read it
+   @Override
+   public synchronized Map<String, String> getAll() {
+      byte[] data = loaded;
+      loaded = null;
+      try {
+         if (data == null)
+            data = readFile();
+      } catch (IOException e) {
+         e.printStackTrace();
+         return Collections.emptyMap();
+      }
+
+      Map<String, String> all = new HashMap<>(size * 2);
+      for (int slot = 0; slot < tags.length; ++slot) {
+         if (tags[slot] != null)
+            all.put(tags[slot], readString(data, offsets[slot]));
+      }
+      return Collections.unmodifiableMap(all);
+   }
+
+   @Override
+   public synchronized void put(String tag, String record)
+      throws IOException {
+      putOffset(tag, writeRecord(OP_PUT, tag, record));
+      append(1);
+   }
+
+   @Override
+   public synchronized void putAll(Map<String, String> batch)
+      throws IOException {
+      int count = 0;
+      for (Map.Entry<String, String> entry : batch.entrySet()) {
+         if (entry.getValue() == null) {
+            if (!removeOffset(entry.getKey()))
+               continue; // nothing to remove
+            writeRecord(OP_REMOVE, entry.getKey(), null);
+         }
+         else {
+            putOffset(entry.getKey(),
+               writeRecord(OP_PUT, entry.getKey(), entry.getValue()));
+         }
+         ++count;
+      }
+      append(count);
+   }
+
+   @Override
+   public synchronized void remove(String tag) throws IOException {
+      if (removeOffset(tag)) {
+         writeRecord(OP_REMOVE, tag, null);
+         append(1);
+      }
+   }
+
+   // every change is appended as it is made, so there is nothing to flush
+   @Override
+   public void flush() {
+   }
+
+   @Override
+   public synchronized void close() throws IOException {
+      if (log != null) {
+         log.close();
+         log = null;
+      }
+   }
+
+   // encodes one record into the pending write buffer and returns the
+   // offset its value will have in the file
+   private int writeRecord(byte op, String tag, String record)
+      throws IOException {
+      out.writeByte(op);
+      writeString(tag);
+      int offset = fileLength + buffer.size();
+      if (record != null)
+         writeString(record);
+      return offset;
+   }
+
+   // appends the buffered records, compacting when mostly garbage
+   private void append(int count) throws IOException {
+      if (buffer.size() == 0)
+         return;
+      if (!ready) {
+         buffer.reset();
+         throw new IOException("Search log not loaded: " + file);
+      }
+
+      if (log == null)
+         log = new FileOutputStream(file, true);
+
+      loaded = null; // no longer the whole log
+      log.write(buffer.toByteArray());
+      fileLength += buffer.size();
+      buffer.reset();
+      logRecords += count;
+
+      if (logRecords > 2 * size + COMPACTION_SLACK)
+         rewrite();
+   }
+
+   // copies the live records to a new log and swaps it in atomically
+   private void rewrite() throws IOException {
+      close();
+      byte[] old = size > 0 ? readFile() : null;
+      int[] moved = new int[offsets.length];
+
+      buffer.reset();
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      for (int slot = 0; slot < tags.length; ++slot) {
+         if (tags[slot] == null)
+            continue;
+
+         // the value's length and bytes are copied without decoding
+         out.writeByte(OP_PUT);
+         writeString(tags[slot]);
+         moved[slot] = buffer.size();
+         int length = ByteBuffer.wrap(old, offsets[slot], 4).getInt();
+         out.write(old, offsets[slot], 4 + length);
+      }
+      int length = buffer.size();
+
+      File temp = new File(file.getPath() + ".tmp");
+      try (FileOutputStream compacted = new FileOutputStream(temp)) {
+         buffer.writeTo(compacted);
+         compacted.getFD().sync();
+      }
+      finally {
+         buffer.reset();
+      }
+
+      if (!temp.renameTo(file))
+         throw new IOException("Could not replace search log: " + file);
+      offsets = moved;
+      fileLength = length;
+      loaded = null;
+      logRecords = size;
+   }
+
+   // reads the whole log with a single sequential read
+   private byte[] readFile() throws IOException {
+      byte[] data = new byte[(int) file.length()];
+      try (FileInputStream in = new FileInputStream(file)) {
+         int read = 0;
+         while (read < data.length) {
+            int count = in.read(data, read, data.length - read);
+            if (count < 0)
+               break;
+            read += count;
+         }
+      }
+      return data;
+   }
+
+   // returns the slot holding tag, or the empty slot where it would go
+   private int slotOf(String tag) {
+      int mask = tags.length - 1;
+      int slot = hash(tag) & mask;
+      while (tags[slot] != null && !tags[slot].equals(tag))
+         slot = (slot + 1) & mask;
+      return slot;
+   }
+
+   // records that tag's value now starts at offset
+   private void putOffset(String tag, int offset) {
+      int slot = slotOf(tag);
+      if (tags[slot] == null) {
+         if (++size * 2 > tags.length) {
+            resize(tags.length * 2);
+            slot = slotOf(tag);
+         }
+         tags[slot] = tag;
+      }
+      offsets[slot] = offset;
+   }
+
+   // forgets tag, returning false if it had no record; later entries of
+   // its probe run are shifted back so lookups never stop at the gap
+   private boolean removeOffset(String tag) {
+      int gap = slotOf(tag);
+      if (tags[gap] == null)
+         return false;
+
+      int mask = tags.length - 1;
+      for (int slot = (gap + 1) & mask; tags[slot] != null;
+         slot = (slot + 1) & mask) {
+         int home = hash(tags[slot]) & mask;
+         if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+            tags[gap] = tags[slot];
+            offsets[gap] = offsets[slot];
+            gap = slot;
+         }
+      }
+      tags[gap] = null;
+      --size;
+      return true;
+   }
+
+   private void resize(int capacity) {
+      String[] oldTags = tags;
+      int[] oldOffsets = offsets;
+      tags = new String[capacity];
+      offsets = new int[capacity];
+      for (int i = 0; i < oldTags.length; ++i) {
+         if (oldTags[i] != null) {
+            int slot = slotOf(oldTags[i]);
+            tags[slot] = oldTags[i];
+            offsets[slot] = oldOffsets[i];
+         }
+      }
+   }
+
+   private static int hash(String tag) {
+      int hash = tag.hashCode();
+      return hash ^ (hash >>> 16);
+   }
+
+   private void writeString(String value) throws IOException {
+      byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(utf8.length);
+      out.write(utf8);
+   }
+
+   private static String readString(byte[] data, int offset) {
+      ByteBuffer bytes = ByteBuffer.wrap(data);
+      bytes.position(offset);
+      return readString(bytes);
+   }
+
+   private static void skipString(ByteBuffer bytes) {
+      int length = bytes.getInt();
+      if (length < 0 || length > bytes.remaining())
+         throw new BufferUnderflowException();
+      bytes.position(bytes.position() + length);
+   }
+
+   private static String readString(ByteBuffer bytes) {
+      int length = bytes.getInt();
+      if (length < 0 || length > bytes.remaining())
+         throw new BufferUnderflowException();
+      String value = new String(bytes.array(), bytes.position(), length,
+         StandardCharsets.UTF_8);
+      bytes.position(bytes.position() + length);
+      return value;
+   }
+}
@@ -0,0 +1,122 @@
+// Metrics.java
+// Registry of in-process latency histograms, event counters and gauges.
+// Code paths are timed with
+//    long start = Metrics.start();
+//    ...
+//    HISTOGRAM.stop(start);
+// which costs one volatile read while recording is disabled
+package com.zoris.twittersearches.core;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public final class Metrics {
+   // a value that is read when metrics are dumped, such as a size
+   public interface Gauge {
+      long value();
+   }
+
+   private static volatile boolean enabled;
+   private static final List<LatencyHistogram> histograms =
+      new CopyOnWriteArrayList<>();
+   private static final List<Counter> counters =
+      new CopyOnWriteArrayList<>();
+   private static final Map<String, Gauge> gauges =
+      new ConcurrentSkipListMap<>();
+
+   private Metrics() {
+   }
+
+   // returns the histogram registered under name, creating it on first
+   // use; meant to be kept in a static field
+   public static synchronized LatencyHistogram histogram(String name) {
+      for (LatencyHistogram histogram : histograms) {
+         if (histogram.getName().equals(name))
+            return histogram;
+      }
+
+      LatencyHistogram histogram = new LatencyHistogram(name);
+      histograms.add(histogram);
+      return histogram;
+   }
+
+   // returns the counter registered under name, creating it on first use;
+   // meant to be kept in a static field
+   public static synchronized Counter counter(String name) {
+      for (Counter counter : counters) {
+         if (counter.getName().equals(name))
+            return counter;
+      }
+
+      Counter counter = new Counter(name);
+      counters.add(counter);
+      return counter;
+   }
+
+   // registers gauge under name, replacing any gauge registered before,
+   // as when an activity is created again
+   public static void gauge(String name, Gauge gauge) {
+      gauges.put(name, gauge);
+   }
+
+   public static boolean isEnabled() {
+      return enabled;
+   }
+
+   public static void setEnabled(boolean enabled) {
+      Metrics.enabled = enabled;
+   }
+
+   // returns the start time to pass to LatencyHistogram.stop, or 0 if
+   // recording is disabled
+   public static long start() {
+      return enabled ? System.nanoTime() : 0;
+   }
+
+   // clears every histogram and counter, e.g. before comparing a new
+   // build; gauges always show their current value
+   public static void reset() {
+      for (LatencyHistogram histogram : histograms)
+         histogram.reset();
+      for (Counter counter : counters)
+         counter.reset();
+   }
+
+   // writes a table of every histogram that has recordings, with
+   // durations in microseconds, then the counters and gauges
+   public static void dump(Appendable out) throws IOException {
+      out.append(String.format(Locale.US, "%-16s %8s %9s %9s %9s %9s %9s%n",
+         "path", "count", "mean", "p50", "p90", "p99", "max"));
+
+      for (LatencyHistogram histogram : histograms) {
+         if (histogram.getCount() == 0)
+            continue;
+
+         out.append(String.format(Locale.US,
+            "%-16s %8d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+            histogram.getName(), histogram.getCount(),
+            micros(histogram.getMean()),
+            micros(histogram.getPercentile(0.5)),
+            micros(histogram.getPercentile(0.9)),
+            micros(histogram.getPercentile(0.99)),
+            micros(histogram.getMax())));
+      }
+
+      for (Counter counter : counters) {
+         out.append(String.format(Locale.US, "%-16s %8d%n",
+            counter.getName(), counter.getCount()));
+      }
+      for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+         out.append(String.format(Locale.US, "%-16s %8d%n",
+            gauge.getKey(), gauge.getValue().value()));
+      }
+   }
+
+   private static double micros(long nanos) {
+      return nanos / 1000.0;
+   }
+}
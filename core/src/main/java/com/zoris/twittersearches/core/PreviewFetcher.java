@@ -0,0 +1,412 @@
+// PreviewFetcher.java
+// Fetches search result pages for in-app previews through an HttpClient,
+// keeping the responses in a DiskLruCache. A fresh page is served
+// without a request. A stale one still within the server's
+// stale-while-revalidate window is served at once, then revalidated in
+// the background with If-None-Match and If-Modified-Since, and delivered
+// again only if it changed
+package com.zoris.twittersearches.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+public class PreviewFetcher {
+   // receives the results of fetch on the callback executor
+   public interface Callback {
+      // called with the cached or fetched page, then once more with the
+      // new page if a stale one that was delivered turns out to have
+      // changed
+      void onPreview(Preview preview);
+
+      // called when there is no page to show
+      void onFailure(IOException e);
+   }
+
+   // a page ready to show
+   public static class Preview {
+      private final String url;
+      private final String contentType;
+      private final byte[] body;
+      private final boolean update;
+
+      private Preview(String url, String contentType, byte[] body,
+         boolean update) {
+         this.url = url;
+         this.contentType = contentType;
+         this.body = body;
+         this.update = update;
+      }
+
+      public String getUrl() {
+         return url;
+      }
+
+      // the media type without parameters, text/html by default
+      public String getMimeType() {
+         int end = contentType.indexOf(';');
+         String type = (end < 0 ? contentType :
+            contentType.substring(0, end)).trim();
+         return type.isEmpty() ? "text/html" : type;
+      }
+
+      // the body decoded with the charset in the content type, or UTF-8
+      public String getText() {
+         Charset charset = StandardCharsets.UTF_8;
+         String name = parameter(contentType, "charset");
+         try {
+            if (name != null)
+               charset = Charset.forName(name);
+         } catch (IllegalArgumentException e) {
+            // unknown charsets fall back to UTF-8
+         }
+         return new String(body, charset);
+      }
+
+      // true if this page replaces a stale one delivered earlier
+      public boolean isUpdate() {
+         return update;
+      }
+   }
+
+   private static final int ENTRY_VERSION = 1;
+
+   private final HttpClient client;
+   private final DiskLruCache cache;
+   private final Executor networkExecutor;
+   private final Executor callbackExecutor;
+   private final long defaultFreshMillis;
+   private final long defaultStaleMillis;
+
+   // pages without Cache-Control are fresh for defaultFreshMillis, then
+   // served stale while revalidating for defaultStaleMillis more; requests
+   // and cache reads run on networkExecutor
+   public PreviewFetcher(HttpClient client, DiskLruCache cache,
+      Executor networkExecutor, Executor callbackExecutor,
+      long defaultFreshMillis, long defaultStaleMillis) {
+      this.client = client;
+      this.cache = cache;
+      this.networkExecutor = networkExecutor;
+      this.callbackExecutor = callbackExecutor;
+      this.defaultFreshMillis = defaultFreshMillis;
+      this.defaultStaleMillis = defaultStaleMillis;
+   }
+
+   // fetches url's page, from the cache if possible
+   public void fetch(final String url, final Callback callback) {
+      networkExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            Entry entry = read(url);
+            long now = System.currentTimeMillis();
+
+            if (entry != null && now < entry.freshUntil()) {
+               deliver(entry.toPreview(false), callback);
+               return;
+            }
+            boolean delivered = false;
+            if (entry != null && now < entry.staleUntil()) {
+               deliver(entry.toPreview(false), callback);
+               delivered = true;
+            }
+            revalidate(url, entry, delivered, callback);
+         }
+      });
+   }
+
+   // revalidates url's page now, even if it is fresh, and returns true
+   // if it changed or was not cached; runs on the calling thread, for
+   // background refreshes that should also warm the cache
+   public boolean refresh(String url) throws IOException {
+      Entry entry = read(url);
+      return changed(entry, request(url, entry));
+   }
+
+   // requests url, conditionally if there is an entry, and delivers the
+   // result unless the entry was delivered and is still current
+   private void revalidate(String url, Entry entry, boolean delivered,
+      Callback callback) {
+      Entry current;
+      try {
+         current = request(url, entry);
+      } catch (IOException e) {
+         fail(entry, delivered, e, callback);
+         return;
+      }
+
+      // a page that was served stale is only sent again if it changed
+      if (!delivered)
+         deliver(current.toPreview(false), callback);
+      else if (changed(entry, current))
+         deliver(current.toPreview(true), callback);
+   }
+
+   // requests url, conditionally if there is an entry, stores the
+   // response unless it may not be, and returns the page as it is now
+   private Entry request(String url, Entry entry) throws IOException {
+      Map<String, String> headers = new HashMap<>();
+      if (entry != null && !entry.etag.isEmpty())
+         headers.put("If-None-Match", entry.etag);
+      if (entry != null && !entry.lastModified.isEmpty())
+         headers.put("If-Modified-Since", entry.lastModified);
+
+      HttpResponse response = client.get(url, headers);
+      long now = System.currentTimeMillis();
+      int status = response.getStatus();
+      if (status == HttpResponse.NOT_MODIFIED && entry != null) {
+         Entry refreshed = entry.revalidated(response, now);
+         write(refreshed);
+         return refreshed;
+      }
+      if (status != HttpResponse.OK)
+         throw new IOException("HTTP " + status + " for " + url);
+
+      String cacheControl = header(response, "Cache-Control");
+      Entry fetched = new Entry(url, header(response, "ETag"),
+         header(response, "Last-Modified"), header(response, "Content-Type"),
+         now, freshMillis(cacheControl), staleMillis(cacheControl),
+         response.getBody());
+      if (cacheControl.toLowerCase(Locale.ROOT).contains("no-store"))
+         remove(url);
+      else
+         write(fetched);
+      return fetched;
+   }
+
+   // true if current's page differs from entry's, or there was no entry;
+   // a revalidated entry shares its body, which saves comparing it
+   private static boolean changed(Entry entry, Entry current) {
+      return entry == null || (current.body != entry.body &&
+         !Arrays.equals(current.body, entry.body));
+   }
+
+   // falls back to a stale entry if it was not already delivered
+   private void fail(Entry entry, boolean delivered, IOException e,
+      Callback callback) {
+      if (delivered)
+         e.printStackTrace();
+      else if (entry != null)
+         deliver(entry.toPreview(false), callback);
+      else
+         failure(e, callback);
+   }
+
+   private void deliver(final Preview preview, final Callback callback) {
+      callbackExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            callback.onPreview(preview);
+         }
+      });
+   }
+
+   private void failure(final IOException e, final Callback callback) {
+      callbackExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            callback.onFailure(e);
+         }
+      });
+   }
+
+   private long freshMillis(String cacheControl) {
+      if (cacheControl.toLowerCase(Locale.ROOT).contains("no-cache"))
+         return 0;
+      return seconds(cacheControl, "max-age", defaultFreshMillis);
+   }
+
+   private long staleMillis(String cacheControl) {
+      return seconds(cacheControl, "stale-while-revalidate",
+         defaultStaleMillis);
+   }
+
+   // returns the directive name of cacheControl in milliseconds, or
+   // otherwise if it is absent or malformed
+   private static long seconds(String cacheControl, String name,
+      long otherwise) {
+      String value = parameter(cacheControl, name);
+      try {
+         return value != null ?
+            Math.max(0, Long.parseLong(value)) * 1000 : otherwise;
+      } catch (NumberFormatException e) {
+         return otherwise;
+      }
+   }
+
+   // returns the value of name=value in a header of parameters separated
+   // by commas or semicolons, unquoted, or null if there is none
+   private static String parameter(String header, String name) {
+      for (String part : header.split("[,;]")) {
+         int equals = part.indexOf('=');
+         if (equals > 0 &&
+            part.substring(0, equals).trim().equalsIgnoreCase(name)) {
+            String value = part.substring(equals + 1).trim();
+            if (value.length() >= 2 && value.startsWith("\"") &&
+               value.endsWith("\""))
+               value = value.substring(1, value.length() - 1);
+            return value;
+         }
+      }
+      return null;
+   }
+
+   private static String header(HttpResponse response, String name) {
+      String value = response.getHeader(name);
+      return value != null ? value : "";
+   }
+
+   // returns url's cache entry, or null if there is none or it is
+   // unreadable, as after a crash or a hash collision
+   private Entry read(String url) {
+      try {
+         byte[] data = cache.get(key(url));
+         if (data == null)
+            return null;
+
+         Entry entry = Entry.decode(data);
+         return entry != null && entry.url.equals(url) ? entry : null;
+      } catch (IOException e) {
+         e.printStackTrace();
+         return null;
+      }
+   }
+
+   private void write(Entry entry) {
+      try {
+         cache.put(key(entry.url), entry.encode());
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   private void remove(String url) {
+      try {
+         cache.remove(key(url));
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   // the cache file name for url: its SHA-1 in hex
+   private static String key(String url) {
+      try {
+         byte[] digest = MessageDigest.getInstance("SHA-1")
+            .digest(url.getBytes(StandardCharsets.UTF_8));
+         StringBuilder key = new StringBuilder(2 * digest.length);
+         for (byte b : digest)
+            key.append(Character.forDigit((b >> 4) & 0xf, 16))
+               .append(Character.forDigit(b & 0xf, 16));
+         return key.toString();
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e); // every platform has SHA-1
+      }
+   }
+
+   // a cached response with the validators and lifetimes it came with
+   private static class Entry {
+      final String url;
+      final String etag; // empty if none
+      final String lastModified; // empty if none
+      final String contentType;
+      final long fetched; // when the server last confirmed the body
+      final long freshMillis;
+      final long staleMillis;
+      final byte[] body;
+
+      Entry(String url, String etag, String lastModified,
+         String contentType, long fetched, long freshMillis,
+         long staleMillis, byte[] body) {
+         this.url = url;
+         this.etag = etag;
+         this.lastModified = lastModified;
+         this.contentType = contentType;
+         this.fetched = fetched;
+         this.freshMillis = freshMillis;
+         this.staleMillis = staleMillis;
+         this.body = body;
+      }
+
+      long freshUntil() {
+         return fetched + freshMillis;
+      }
+
+      long staleUntil() {
+         return freshUntil() + staleMillis;
+      }
+
+      // this entry as confirmed by a 304 response at now, which may carry
+      // new validators
+      Entry revalidated(HttpResponse response, long now) {
+         String newEtag = response.getHeader("ETag");
+         String newLastModified = response.getHeader("Last-Modified");
+         return new Entry(url, newEtag != null ? newEtag : etag,
+            newLastModified != null ? newLastModified : lastModified,
+            contentType, now, freshMillis, staleMillis, body);
+      }
+
+      Preview toPreview(boolean update) {
+         return new Preview(url, contentType, body, update);
+      }
+
+      byte[] encode() {
+         ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream(body.length + 256);
+         DataOutputStream out = new DataOutputStream(bytes);
+         try {
+            out.writeInt(ENTRY_VERSION);
+            out.writeUTF(url);
+            out.writeUTF(etag);
+            out.writeUTF(lastModified);
+            out.writeUTF(contentType);
+            out.writeLong(fetched);
+            out.writeLong(freshMillis);
+            out.writeLong(staleMillis);
+            out.writeInt(body.length);
+            out.write(body);
+         } catch (IOException e) {
+            throw new IllegalStateException(e); // not thrown in memory
+         }
+         return bytes.toByteArray();
+      }
+
+      // returns the entry encoded in data, or null if it is from another
+      // version or damaged
+      static Entry decode(byte[] data) {
+         DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(data));
+         try {
+            if (in.readInt() != ENTRY_VERSION)
+               return null;
+
+            String url = in.readUTF();
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            String contentType = in.readUTF();
+            long fetched = in.readLong();
+            long freshMillis = in.readLong();
+            long staleMillis = in.readLong();
+            int length = in.readInt();
+            if (length < 0 || length != in.available())
+               return null;
+
+            byte[] body = new byte[length];
+            in.readFully(body);
+            return new Entry(url, etag, lastModified, contentType, fetched,
+               freshMillis, staleMillis, body);
+         } catch (IOException e) {
+            return null;
+         }
+      }
+   }
+}
@@ -0,0 +1,140 @@
+package com.zoris.twittersearches.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class Query {
+
+    // keys of the JSON record stored for each tag
+    static final String QUERY_KEY = "query";
+    static final String TIME_KEY = "time";
+    static final String USED_KEY = "used";
+
+    // parameters of the FNV-1a hash that histories and sync versions keep
+    static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private String tag;
+    private String query;
+    private long time; // epoch millis when the search was saved
+    private long lastUsed; // epoch millis when last saved or launched
+    private boolean legacy; // decoded from a record with a text time
+
+    public Query(String tag, String query, long time, long lastUsed) {
+        this.tag = tag;
+        this.query = query;
+        this.time = time;
+        this.lastUsed = lastUsed;
+    }
+
+    // decodes the JSON record stored under tag; missing fields become ""
+    // or 0. Records written before times were stored as epoch millis hold
+    // a formatted time string, which is parsed here once
+    public static Query fromJson(String tag, String rawJson) {
+        try {
+            JSONObject json = new JSONObject(rawJson);
+            Object time = json.opt(TIME_KEY);
+            if (time instanceof String) {
+                long millis = TimeFormatter.parse((String) time);
+                Query search = new Query(tag, json.optString(QUERY_KEY),
+                        millis, millis);
+                search.legacy = true;
+                return search;
+            }
+
+            long millis = json.optLong(TIME_KEY);
+            return new Query(tag, json.optString(QUERY_KEY), millis,
+                    json.optLong(USED_KEY, millis));
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        return new Query(tag, "", 0, 0); //error, or doesnt exist
+    }
+
+    // encodes the query and time as the JSON record stored under the tag
+    public String toJson() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put(QUERY_KEY, query);
+            json.put(TIME_KEY, time);
+            json.put(USED_KEY, lastUsed);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json.toString();
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public void setLastUsed(long lastUsed) {
+        this.lastUsed = lastUsed;
+    }
+
+    // true if the stored record predates epoch-millis times and should be
+    // rewritten with toJson
+    public boolean isLegacy() {
+        return legacy;
+    }
+
+    // returns a copy of this search marked as used at the given time
+    public Query usedAt(long millis) {
+        return new Query(tag, query, time, millis);
+    }
+
+    // true if other saves the same tag and query, so that writing it
+    // would only move the times; the strings are compared directly, as
+    // a hash of each would read every character anyway
+    public boolean hasSameContent(Query other) {
+        return other != null && tag.equals(other.tag) &&
+                query.equals(other.query);
+    }
+
+    // FNV-1a over the characters of text, continuing from hash and
+    // ending with a separator so that "ab" + "c" differs from "a" + "bc"
+    static long hash(String text, long hash) {
+        for (int i = 0; i < text.length(); ++i)
+            hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+        return (hash ^ 0xFFFF) * FNV_PRIME;
+    }
+
+    @Override
+    public boolean equals(Object q){
+        if (q instanceof Query) {
+            return this.tag.equals(((Query) q).getTag());
+        }
+        return false;
+    }
+
+    // queries are identified by their tag, matching equals
+    @Override
+    public int hashCode() {
+        return tag.hashCode();
+    }
+}
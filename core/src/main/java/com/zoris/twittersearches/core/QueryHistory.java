@@ -0,0 +1,229 @@
+// QueryHistory.java
+// Earlier queries of each tag, so that an edit can be reverted. Only the
+// current query is stored in full, by the search store; each earlier
+// version is kept as a delta that turns the version after it back into
+// it: the length of the prefix and suffix the two share, and the text
+// between them. Each tag keeps at most a fixed number of versions, the
+// oldest being dropped first. The history also remembers the hash of the
+// query its newest delta applies to, so that a query changed behind its
+// back, as by an import, makes the tag's history be discarded rather
+// than rebuilt into nonsense
+package com.zoris.twittersearches.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class QueryHistory {
+   // changed whenever the format written by writeTo changes
+   private static final int VERSION = 1;
+
+   // bytes a delta costs besides its text: the two lengths and the
+   // object and string headers, roughly
+   private static final int DELTA_OVERHEAD = 40;
+
+   // turns a query back into the one before it
+   private static final class Delta {
+      final int prefix; // characters kept from the start
+      final int suffix; // characters kept from the end
+      final String text; // replaces what lies between them
+
+      Delta(int prefix, int suffix, String text) {
+         this.prefix = prefix;
+         this.suffix = suffix;
+         this.text = text;
+      }
+
+      // the delta that turns to into from
+      static Delta between(String to, String from) {
+         int max = Math.min(to.length(), from.length());
+         int prefix = 0;
+         while (prefix < max && to.charAt(prefix) == from.charAt(prefix))
+            ++prefix;
+         int suffix = 0;
+         while (suffix < max - prefix &&
+            to.charAt(to.length() - 1 - suffix) ==
+            from.charAt(from.length() - 1 - suffix))
+            ++suffix;
+         return new Delta(prefix, suffix,
+            from.substring(prefix, from.length() - suffix));
+      }
+
+      // the query before current, or null if the delta does not fit it
+      String apply(String current) {
+         if (prefix + suffix > current.length())
+            return null;
+         return current.substring(0, prefix) + text +
+            current.substring(current.length() - suffix);
+      }
+
+      int bytes() {
+         return DELTA_OVERHEAD + 2 * text.length();
+      }
+   }
+
+   // the deltas of one tag, newest first
+   private static final class Versions {
+      final ArrayDeque<Delta> deltas = new ArrayDeque<>();
+      long head; // hash of the query the newest delta applies to
+   }
+
+   private final int maxVersions;
+   private final Map<String, Versions> versions = new HashMap<>();
+   private int deltaCount; // deltas kept for all tags
+   private long bytes; // approximate memory the deltas take
+
+   // keeps up to maxVersions earlier queries of each tag
+   public QueryHistory(int maxVersions) {
+      this.maxVersions = maxVersions;
+   }
+
+   // records that tag's query changed from oldQuery to newQuery
+   public synchronized void record(String tag, String oldQuery,
+      String newQuery) {
+      if (oldQuery.equals(newQuery))
+         return;
+
+      Versions tagVersions = versions.get(tag);
+      if (tagVersions == null) {
+         tagVersions = new Versions();
+         versions.put(tag, tagVersions);
+      }
+      else if (tagVersions.head != hash(oldQuery))
+         clear(tagVersions); // changed behind the history's back
+
+      Delta delta = Delta.between(newQuery, oldQuery);
+      tagVersions.deltas.addFirst(delta);
+      tagVersions.head = hash(newQuery);
+      ++deltaCount;
+      bytes += delta.bytes();
+
+      while (tagVersions.deltas.size() > maxVersions) {
+         Delta oldest = tagVersions.deltas.removeLast();
+         --deltaCount;
+         bytes -= oldest.bytes();
+      }
+   }
+
+   // returns tag's earlier queries, newest first, given its current
+   // query; empty if there are none or they no longer apply to current
+   public synchronized List<String> get(String tag, String current) {
+      Versions tagVersions = versions.get(tag);
+      if (tagVersions == null)
+         return Collections.emptyList();
+      if (tagVersions.head != hash(current)) {
+         remove(tag);
+         return Collections.emptyList();
+      }
+
+      List<String> queries = new ArrayList<>(tagVersions.deltas.size());
+      String query = current;
+      for (Delta delta : tagVersions.deltas) {
+         query = delta.apply(query);
+         if (query == null)
+            break; // cannot happen unless the hash collided
+         queries.add(query);
+      }
+      return queries;
+   }
+
+   // forgets tag's history, as when the search is deleted
+   public synchronized void remove(String tag) {
+      Versions tagVersions = versions.remove(tag);
+      if (tagVersions != null)
+         clear(tagVersions);
+   }
+
+   private void clear(Versions tagVersions) {
+      for (Delta delta : tagVersions.deltas) {
+         --deltaCount;
+         bytes -= delta.bytes();
+      }
+      tagVersions.deltas.clear();
+   }
+
+   // returns the number of earlier queries kept for all tags
+   public synchronized int getVersionCount() {
+      return deltaCount;
+   }
+
+   // returns roughly how many bytes of memory the deltas take
+   public synchronized long getBytes() {
+      return bytes;
+   }
+
+   // writes every tag's deltas, to be read back by readFrom
+   public synchronized void writeTo(DataOutputStream out)
+      throws IOException {
+      out.writeInt(VERSION);
+      out.writeInt(versions.size());
+      for (Map.Entry<String, Versions> entry : versions.entrySet()) {
+         Versions tagVersions = entry.getValue();
+         out.writeUTF(entry.getKey());
+         out.writeLong(tagVersions.head);
+         out.writeShort(tagVersions.deltas.size());
+         for (Delta delta : tagVersions.deltas) {
+            writeVarint(out, delta.prefix);
+            writeVarint(out, delta.suffix);
+            out.writeUTF(delta.text);
+         }
+      }
+   }
+
+   // adds the history in, as written by writeTo, except for tags edited
+   // since, which keep their newer history; a history written by another
+   // version of the app is ignored
+   public synchronized void readFrom(DataInputStream in) throws IOException {
+      if (in.readInt() != VERSION)
+         return;
+
+      for (int tags = in.readInt(); tags > 0; --tags) {
+         String tag = in.readUTF();
+         Versions tagVersions = new Versions();
+         tagVersions.head = in.readLong();
+         for (int count = in.readUnsignedShort(); count > 0; --count) {
+            Delta delta = new Delta(readVarint(in), readVarint(in),
+               in.readUTF());
+            if (tagVersions.deltas.size() < maxVersions)
+               tagVersions.deltas.addLast(delta); // unless kept fewer now
+         }
+
+         if (versions.containsKey(tag))
+            continue;
+         versions.put(tag, tagVersions);
+         for (Delta delta : tagVersions.deltas) {
+            ++deltaCount;
+            bytes += delta.bytes();
+         }
+      }
+   }
+
+   private static long hash(String query) {
+      return Query.hash(query, Query.FNV_OFFSET);
+   }
+
+   private static void writeVarint(DataOutputStream out, int value)
+      throws IOException {
+      while ((value & ~0x7F) != 0) {
+         out.writeByte(value & 0x7F | 0x80);
+         value >>>= 7;
+      }
+      out.writeByte(value);
+   }
+
+   private static int readVarint(DataInputStream in) throws IOException {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+         int b = in.readUnsignedByte();
+         value |= (b & 0x7F) << shift;
+         if ((b & 0x80) == 0)
+            return value;
+      }
+   }
+}
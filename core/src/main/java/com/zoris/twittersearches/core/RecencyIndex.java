@@ -0,0 +1,199 @@
+// RecencyIndex.java
+// Saved searches ordered from most to least recently saved or used, as an
+// array of SearchTable rows. A search that is used moves to the front by
+// one removal and one append, so the order is kept up to date without
+// re-sorting
+package com.zoris.twittersearches.core;
+
+import java.util.Arrays;
+import java.util.Set;
+
+public class RecencyIndex implements SearchList {
+   private final SearchTable table;
+
+   // stored oldest first so the common case, a search used now, is an
+   // append at the end of the arrays; each row is kept with the last use
+   // it was indexed at, which orders it until it is removed
+   private int[] rows;
+   private long[] used;
+   private int size;
+   private int modificationCount; // incremented by every change
+
+   // an empty index over searches kept in table
+   public RecencyIndex(SearchTable table) {
+      this(table, new int[16], new long[16], 0);
+   }
+
+   private RecencyIndex(SearchTable table, int[] rows, long[] used,
+      int size) {
+      this.table = table;
+      this.rows = rows;
+      this.used = used;
+      this.size = size;
+   }
+
+   // builds the index from a snapshot of every search in tag order; used
+   // at startup and after imports, off the main thread
+   public static RecencyIndex build(SearchTable table,
+      final SearchSnapshot byTag) {
+      int count = byTag.size();
+      int[] positions = new int[count];
+      for (int i = 0; i < count; ++i)
+         positions[i] = i;
+
+      // the sort is stable, so searches last used at the same time stay
+      // in tag order, the tie-break find expects
+      new RowOrder() {
+         @Override
+         int compare(int a, int b) {
+            long usedA = byTag.getLastUsed(a);
+            long usedB = byTag.getLastUsed(b);
+            return usedA == usedB ? 0 : usedA > usedB ? -1 : 1;
+         }
+      }.sort(positions, count);
+
+      int[] rows = new int[Math.max(16, count)];
+      long[] used = new long[rows.length];
+      for (int i = 0; i < count; ++i) {
+         int position = positions[count - 1 - i];
+         rows[i] = byTag.getRow(position);
+         used[i] = byTag.getLastUsed(position);
+      }
+      return new RecencyIndex(table, rows, used, count);
+   }
+
+   @Override
+   public int size() {
+      return size;
+   }
+
+   // returns the search at position, counting from the most recent
+   @Override
+   public Query get(int position) {
+      return table.get(rows[size - 1 - position]);
+   }
+
+   @Override
+   public String getTag(int position) {
+      return table.tag(rows[size - 1 - position]);
+   }
+
+   @Override
+   public String getQuery(int position) {
+      return table.query(rows[size - 1 - position]);
+   }
+
+   @Override
+   public long getTime(int position) {
+      return table.time(rows[size - 1 - position]);
+   }
+
+   @Override
+   public SearchSnapshot snapshot() {
+      int[] newestFirst = new int[size];
+      for (int i = 0; i < size; ++i)
+         newestFirst[i] = rows[size - 1 - i];
+      return table.snapshot(newestFirst, size);
+   }
+
+   @Override
+   public int getModificationCount() {
+      return modificationCount;
+   }
+
+   // adds search, which must already be in the table and not yet in
+   // this index, and returns its position
+   public int put(Query search) {
+      int index = find(search.getLastUsed(), search.getTag());
+      index = index >= 0 ? index : -(index + 1);
+
+      if (size == rows.length) {
+         rows = Arrays.copyOf(rows, size * 2);
+         used = Arrays.copyOf(used, size * 2);
+      }
+      System.arraycopy(rows, index, rows, index + 1, size - index);
+      System.arraycopy(used, index, used, index + 1, size - index);
+      rows[index] = table.rowOf(search.getTag());
+      used[index] = search.getLastUsed();
+      ++size;
+      ++modificationCount;
+      return size - 1 - index;
+   }
+
+   // removes search and returns its former position, or -1 if it was
+   // not present; the search must still be in the table. It is found by
+   // its last use unless that was changed behind the index, as by an
+   // import, which leaves only a scan for its row
+   public int remove(Query search) {
+      int index = find(search.getLastUsed(), search.getTag());
+      if (index < 0) {
+         int row = table.rowOf(search.getTag());
+         index = size - 1;
+         while (index >= 0 && rows[index] != row)
+            --index;
+      }
+      if (index < 0)
+         return -1;
+
+      int position = size - 1 - index;
+      System.arraycopy(rows, index + 1, rows, index, size - index - 1);
+      System.arraycopy(used, index + 1, used, index, size - index - 1);
+      --size;
+      ++modificationCount;
+      return position;
+   }
+
+   // removes the searches saved under tags, which must still be in the
+   // table, in one pass over the rows and returns their former positions
+   // in ascending order. They are found by row, since their last uses may
+   // have changed behind the index
+   public int[] removeAll(Set<String> tags) {
+      int[] removedRows = new int[tags.size()];
+      int count = 0;
+      for (String tag : tags) {
+         int row = table.rowOf(tag);
+         if (row >= 0)
+            removedRows[count++] = row;
+      }
+      Arrays.sort(removedRows, 0, count);
+
+      // positions count from the newest, so they are found descending
+      int[] positions = new int[count];
+      int removed = 0;
+      int write = 0;
+      for (int read = 0; read < size; ++read) {
+         if (Arrays.binarySearch(removedRows, 0, count, rows[read]) >= 0)
+            positions[count - 1 - removed++] = size - 1 - read;
+         else {
+            rows[write] = rows[read];
+            used[write] = used[read];
+            ++write;
+         }
+      }
+      size = write;
+      ++modificationCount;
+      return Arrays.copyOfRange(positions, count - removed, count);
+   }
+
+   // binary search of the oldest-first arrays for the search tagged tag
+   // last used at lastUsed
+   private int find(long lastUsed, String tag) {
+      int low = 0;
+      int high = size - 1;
+
+      while (low <= high) {
+         int middle = (low + high) >>> 1;
+         int result = used[middle] != lastUsed ?
+            (used[middle] < lastUsed ? -1 : 1) :
+            TagIndex.ORDER.compare(tag, table.tag(rows[middle]));
+
+         if (result < 0)
+            low = middle + 1;
+         else if (result > 0)
+            high = middle - 1;
+         else
+            return middle;
+      }
+      return -(low + 1);
+   }
+}
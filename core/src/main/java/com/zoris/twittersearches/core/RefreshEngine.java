@@ -0,0 +1,160 @@
+// RefreshEngine.java
+// Refreshes the result pages of many saved searches without flooding the
+// network. At most a fixed number of requests run at once, requests to
+// the same host start at least an interval apart, and searches whose
+// query text is the same share one request. Results are reported per tag
+// on the callback executor until the engine is cancelled
+package com.zoris.twittersearches.core;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+public class RefreshEngine {
+   // receives results on the callback executor, never after cancel
+   public interface Listener {
+      // tag's search was refreshed at time; changed is true if its page
+      // differs from the cached copy or none was cached
+      void onRefreshed(String tag, long time, boolean changed);
+
+      void onRefreshFailed(String tag, IOException e);
+   }
+
+   private static final long IDLE_SECONDS = 30; // before threads exit
+
+   private final PreviewFetcher fetcher;
+   private final long hostIntervalMillis;
+   private final Executor callbackExecutor;
+   private final Listener listener;
+
+   // runs the requests, at most as many at once as it has threads, each
+   // delayed until its host's turn
+   private final ScheduledThreadPoolExecutor executor;
+
+   // tags waiting for each URL that is queued or being fetched
+   private final Map<String, List<String>> waiting = new HashMap<>();
+
+   // earliest time the next request to each host may start
+   private final Map<String, Long> nextStart = new HashMap<>();
+
+   private volatile boolean cancelled;
+
+   public RefreshEngine(PreviewFetcher fetcher, int maxConcurrent,
+      long hostIntervalMillis, Executor callbackExecutor,
+      Listener listener) {
+      this.fetcher = fetcher;
+      this.hostIntervalMillis = hostIntervalMillis;
+      this.callbackExecutor = callbackExecutor;
+      this.listener = listener;
+
+      executor = new ScheduledThreadPoolExecutor(maxConcurrent,
+         new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+               Thread thread = new Thread(runnable, "refresh");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      executor.setKeepAliveTime(IDLE_SECONDS, TimeUnit.SECONDS);
+      executor.allowCoreThreadTimeOut(true);
+   }
+
+   // queues a refresh of url for tag; if url is already queued or being
+   // fetched for another tag, tag shares that request instead
+   public synchronized void refresh(String tag, final String url) {
+      if (cancelled)
+         return;
+
+      List<String> tags = waiting.get(url);
+      if (tags != null) {
+         if (!tags.contains(tag))
+            tags.add(tag);
+         return;
+      }
+      tags = new ArrayList<>(1);
+      tags.add(tag);
+      waiting.put(url, tags);
+
+      // reserve the host's next start time, so a long queue for one host
+      // is spread out however many threads are free
+      String host = host(url);
+      long now = System.currentTimeMillis();
+      Long next = nextStart.get(host);
+      long start = next != null ? Math.max(now, next) : now;
+      nextStart.put(host, start + hostIntervalMillis);
+
+      executor.schedule(new Runnable() {
+         @Override
+         public void run() {
+            fetch(url);
+         }
+      }, start - now, TimeUnit.MILLISECONDS);
+   }
+
+   // returns the number of distinct URLs queued or being fetched
+   public synchronized int pending() {
+      return waiting.size();
+   }
+
+   // drops queued requests and stops reporting results; requests already
+   // under way finish in the background. The engine cannot be reused
+   public synchronized void cancel() {
+      cancelled = true;
+      waiting.clear();
+      executor.shutdownNow();
+   }
+
+   // fetches url and reports the result to every tag that waited for it
+   private void fetch(String url) {
+      boolean changed = false;
+      IOException failure = null;
+      try {
+         changed = fetcher.refresh(url);
+      } catch (IOException e) {
+         failure = e;
+      }
+
+      List<String> tags;
+      synchronized (this) {
+         tags = waiting.remove(url);
+      }
+      if (tags != null)
+         report(tags, System.currentTimeMillis(), changed, failure);
+   }
+
+   private void report(final List<String> tags, final long time,
+      final boolean changed, final IOException failure) {
+      callbackExecutor.execute(new Runnable() {
+         @Override
+         public void run() {
+            for (String tag : tags) {
+               if (cancelled)
+                  return;
+               if (failure != null)
+                  listener.onRefreshFailed(tag, failure);
+               else
+                  listener.onRefreshed(tag, time, changed);
+            }
+         }
+      });
+   }
+
+   // the host rate limits apply to; unparseable URLs share one limit
+   private static String host(String url) {
+      try {
+         String host = new URI(url).getHost();
+         return host != null ? host : "";
+      } catch (URISyntaxException e) {
+         return "";
+      }
+   }
+}
@@ -0,0 +1,65 @@
+// RowOrder.java
+// Order of table rows, or of positions in a snapshot, by keys read from
+// their columns, with a stable merge sort of int arrays so that rows are
+// sorted without boxing them
+package com.zoris.twittersearches.core;
+
+abstract class RowOrder {
+   // negative, zero or positive as a sorts before, with or after b
+   abstract int compare(int a, int b);
+
+   // sorts the first count elements of rows; equal rows keep their order
+   void sort(int[] rows, int count) {
+      int[] from = rows;
+      int[] to = new int[count];
+      for (int width = 1; width < count; width *= 2) {
+         for (int low = 0; low < count; low += 2 * width) {
+            merge(from, to, low, Math.min(low + width, count),
+               Math.min(low + 2 * width, count));
+         }
+         int[] merged = to;
+         to = from;
+         from = merged;
+      }
+
+      if (from != rows)
+         System.arraycopy(from, 0, rows, 0, count);
+   }
+
+   // merges the sorted runs from[low, middle) and from[middle, high)
+   private void merge(int[] from, int[] to, int low, int middle,
+      int high) {
+      int i = low;
+      int j = middle;
+      for (int k = low; k < high; ++k) {
+         if (j == high || (i < middle && compare(from[i], from[j]) <= 0))
+            to[k] = from[i++];
+         else
+            to[k] = from[j++];
+      }
+   }
+
+   // rows of table in TagIndex.ORDER
+   static RowOrder byTag(final SearchTable table) {
+      return new RowOrder() {
+         @Override
+         int compare(int a, int b) {
+            return TagIndex.ORDER.compare(table.tag(a), table.tag(b));
+         }
+      };
+   }
+
+   // rows of table most recently used first, ties broken by tag
+   static RowOrder byRecency(final SearchTable table) {
+      return new RowOrder() {
+         @Override
+         int compare(int a, int b) {
+            long usedA = table.lastUsed(a);
+            long usedB = table.lastUsed(b);
+            if (usedA != usedB)
+               return usedA > usedB ? -1 : 1;
+            return TagIndex.ORDER.compare(table.tag(a), table.tag(b));
+         }
+      };
+   }
+}
@@ -0,0 +1,285 @@
+// SearchBundle.java
+// Compact binary encoding of a collection of saved searches, for moving
+// them between devices in one file. The file starts with MAGIC and a
+// version byte; the rest is deflated and holds the number of searches,
+// then each search as
+//    shared  varint  characters of the tag shared with the previous tag
+//    suffix  varint length, then UTF-8 bytes of the rest of the tag
+//    query   varint length, then UTF-8 bytes
+//    time    zigzag varint difference from the previous search's time
+//    used    zigzag varint difference from this search's time
+// Searches written in tag order share long prefixes and nearby times, so
+// most fields take a byte or two before compression. Reading is a single
+// pass that returns one search at a time
+package com.zoris.twittersearches.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public final class SearchBundle {
+   // MIME type and file name extension of bundles
+   public static final String MIME_TYPE = "application/x-twitter-searches";
+   public static final String EXTENSION = ".searches";
+
+   // first bytes of every bundle, followed by VERSION
+   private static final byte[] MAGIC = {'T', 'S', 'B'};
+   private static final int VERSION = 1;
+
+   private static final int BUFFER_SIZE = 8192;
+
+   // longest tag suffix or query read, in UTF-8 bytes, far beyond any
+   // search; a longer length only comes from a corrupt or hostile file
+   private static final int MAX_STRING_BYTES = 64 * 1024;
+
+   private SearchBundle() {
+   }
+
+   // true if header, the first bytes of a file, start a bundle of any
+   // version
+   public static boolean isBundle(byte[] header, int length) {
+      if (length < MAGIC.length)
+         return false;
+      for (int i = 0; i < MAGIC.length; ++i) {
+         if (header[i] != MAGIC[i])
+            return false;
+      }
+      return true;
+   }
+
+   // returns the number of bytes isBundle needs to tell a bundle apart
+   public static int headerLength() {
+      return MAGIC.length;
+   }
+
+   // writes every search in searches to out as a bundle, leaving out
+   // open; searches in tag order compress best
+   public static void write(SearchList searches, OutputStream out)
+      throws IOException {
+      out.write(MAGIC);
+      out.write(VERSION);
+
+      Deflater deflater = new Deflater();
+      try {
+         Output data = new Output(new DeflaterOutputStream(
+            new NonClosingOutputStream(out), deflater, BUFFER_SIZE));
+         data.writeVarint(searches.size());
+
+         String previousTag = "";
+         long previousTime = 0;
+         for (int i = 0; i < searches.size(); ++i) {
+            Query search = searches.get(i);
+            String tag = search.getTag();
+            long time = search.getTime();
+            int shared = sharedPrefix(previousTag, tag);
+            data.writeVarint(shared);
+            data.writeString(tag.substring(shared));
+            data.writeString(search.getQuery());
+            data.writeVarint(zigzag(time - previousTime));
+            data.writeVarint(zigzag(search.getLastUsed() - time));
+            previousTag = tag;
+            previousTime = time;
+         }
+         data.close(); // finishes the deflated stream
+      }
+      finally {
+         deflater.end();
+      }
+   }
+
+   // reads the searches of one bundle in order; closing it closes the
+   // stream it reads
+   public static final class Reader implements Closeable {
+      private final Input data;
+      private final int count;
+      private int read; // searches returned so far
+      private String previousTag = "";
+      private long previousTime;
+
+      // reads the header from in, failing if it is not a bundle this
+      // version of the app can read
+      public Reader(InputStream in) throws IOException {
+         byte[] header = new byte[MAGIC.length + 1];
+         int length = 0;
+         while (length < header.length) {
+            int n = in.read(header, length, header.length - length);
+            if (n < 0)
+               break;
+            length += n;
+         }
+         if (!isBundle(header, length) || length < header.length)
+            throw new IOException("Not a search bundle");
+         if (header[MAGIC.length] != VERSION)
+            throw new IOException("Unsupported search bundle version " +
+               header[MAGIC.length]);
+
+         data = new Input(new InflaterInputStream(in));
+         count = data.readVarint();
+      }
+
+      // returns the number of searches in the bundle
+      public int getCount() {
+         return count;
+      }
+
+      // returns the next search, or null after the last one
+      public Query next() throws IOException {
+         if (read == count)
+            return null;
+
+         int shared = data.readVarint();
+         if (shared > previousTag.length())
+            throw new IOException("Corrupt search bundle");
+         String tag = previousTag.substring(0, shared) + data.readString();
+         if (tag.length() > MAX_STRING_BYTES)
+            throw new IOException("Corrupt search bundle"); // kept growing
+         String query = data.readString();
+         long time = previousTime + unzigzag(data.readLongVarint());
+         long used = time + unzigzag(data.readLongVarint());
+         previousTag = tag;
+         previousTime = time;
+         ++read;
+         return new Query(tag, query, time, used);
+      }
+
+      @Override
+      public void close() throws IOException {
+         data.close();
+      }
+   }
+
+   // characters at the start of b shared with a, never splitting a
+   // surrogate pair, which UTF-8 cannot encode in halves
+   private static int sharedPrefix(String a, String b) {
+      int max = Math.min(a.length(), b.length());
+      int shared = 0;
+      while (shared < max && a.charAt(shared) == b.charAt(shared))
+         ++shared;
+      if (shared > 0 && Character.isHighSurrogate(b.charAt(shared - 1)))
+         --shared;
+      return shared;
+   }
+
+   private static long zigzag(long value) {
+      return (value << 1) ^ (value >> 63);
+   }
+
+   private static long unzigzag(long value) {
+      return (value >>> 1) ^ -(value & 1);
+   }
+
+   // buffered writes of varints and length-prefixed strings
+   private static final class Output {
+      private final OutputStream out;
+
+      Output(OutputStream out) {
+         this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+      }
+
+      void writeVarint(long value) throws IOException {
+         while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+         }
+         out.write((int) value);
+      }
+
+      void writeString(String text) throws IOException {
+         byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+         writeVarint(bytes.length);
+         out.write(bytes);
+      }
+
+      void close() throws IOException {
+         out.close();
+      }
+   }
+
+   // buffered reads of what Output writes
+   private static final class Input {
+      private final InputStream in;
+      private byte[] bytes = new byte[64]; // reused for strings
+
+      Input(InputStream in) {
+         this.in = new BufferedInputStream(in, BUFFER_SIZE);
+      }
+
+      int readVarint() throws IOException {
+         long value = readLongVarint();
+         if (value > Integer.MAX_VALUE)
+            throw new IOException("Corrupt search bundle");
+         return (int) value;
+      }
+
+      long readLongVarint() throws IOException {
+         long value = 0;
+         for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+               throw new EOFException("Truncated search bundle");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+               return value;
+         }
+         throw new IOException("Corrupt search bundle");
+      }
+
+      String readString() throws IOException {
+         int length = readVarint();
+         if (length > MAX_STRING_BYTES)
+            throw new IOException("Corrupt search bundle");
+         if (length > bytes.length)
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+         int offset = 0;
+         while (offset < length) {
+            int n = in.read(bytes, offset, length - offset);
+            if (n < 0)
+               throw new EOFException("Truncated search bundle");
+            offset += n;
+         }
+         return new String(bytes, 0, length, StandardCharsets.UTF_8);
+      }
+
+      void close() throws IOException {
+         in.close();
+      }
+   }
+
+   // lets the deflated stream be finished without closing the caller's
+   // stream
+   private static final class NonClosingOutputStream extends OutputStream {
+      private final OutputStream out;
+
+      NonClosingOutputStream(OutputStream out) {
+         this.out = out;
+      }
+
+      @Override
+      public void write(int b) throws IOException {
+         out.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+         out.write(b, off, len);
+      }
+
+      @Override
+      public void flush() throws IOException {
+         out.flush();
+      }
+
+      @Override
+      public void close() throws IOException {
+         flush();
+      }
+   }
+}
@@ -0,0 +1,28 @@
+// SearchList.java
+// An ordering of the saved searches that SearchesAdapter can follow live.
+// Rows are read a column at a time, so binding one needs no Query
+package com.zoris.twittersearches.core;
+
+public interface SearchList {
+   // returns the number of searches in the list
+   int size();
+
+   // returns a new Query holding the search at position
+   Query get(int position);
+
+   // returns the tag of the search at position
+   String getTag(int position);
+
+   // returns the query text of the search at position
+   String getQuery(int position);
+
+   // returns the time the search at position was saved
+   long getTime(int position);
+
+   // returns a list of the searches in their current order that does
+   // not change afterwards
+   SearchList snapshot();
+
+   // lets callers detect changes made after they took a snapshot
+   int getModificationCount();
+}
@@ -0,0 +1,74 @@
+// SearchSnapshot.java
+// Frozen copy of some rows of a SearchTable, in display order. The
+// columns are copied, while query text stays in the table's packed array,
+// which is never overwritten in place, so a snapshot is cheap to take and
+// safe to read from any thread
+package com.zoris.twittersearches.core;
+
+public class SearchSnapshot implements SearchList {
+   private final int[] rows;
+   private final String[] tags;
+   private final byte[] text;
+   private final int[] queryStarts;
+   private final int[] queryLengths;
+   private final long[] times;
+   private final long[] lastUsed;
+
+   SearchSnapshot(int[] rows, String[] tags, byte[] text, int[] queryStarts,
+      int[] queryLengths, long[] times, long[] lastUsed) {
+      this.rows = rows;
+      this.tags = tags;
+      this.text = text;
+      this.queryStarts = queryStarts;
+      this.queryLengths = queryLengths;
+      this.times = times;
+      this.lastUsed = lastUsed;
+   }
+
+   @Override
+   public int size() {
+      return tags.length;
+   }
+
+   @Override
+   public Query get(int position) {
+      return new Query(tags[position], getQuery(position), times[position],
+         lastUsed[position]);
+   }
+
+   @Override
+   public String getTag(int position) {
+      return tags[position];
+   }
+
+   @Override
+   public String getQuery(int position) {
+      return SearchTable.decode(text, queryStarts[position],
+         queryLengths[position]);
+   }
+
+   @Override
+   public long getTime(int position) {
+      return times[position];
+   }
+
+   public long getLastUsed(int position) {
+      return lastUsed[position];
+   }
+
+   // the table row the search at position was copied from
+   int getRow(int position) {
+      return rows[position];
+   }
+
+   // already frozen
+   @Override
+   public SearchSnapshot snapshot() {
+      return this;
+   }
+
+   @Override
+   public int getModificationCount() {
+      return 0;
+   }
+}
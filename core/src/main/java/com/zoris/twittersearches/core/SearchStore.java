@@ -0,0 +1,33 @@
+// SearchStore.java
+// Persistent storage for the user's tagged searches
+package com.zoris.twittersearches.core;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Map;
+
+public interface SearchStore extends Closeable, Flushable {
+   // reads every saved search into memory; must be called before use
+   void load() throws IOException;
+
+   // returns the stored record for tag, or null if there is none
+   String get(String tag);
+
+   // returns a read-only view of all tag/record pairs
+   Map<String, String> getAll();
+
+   // adds or replaces the record stored under tag
+   void put(String tag, String record) throws IOException;
+
+   // adds or replaces several records with a single write; a null record
+   // removes its tag
+   void putAll(Map<String, String> records) throws IOException;
+
+   // removes the record stored under tag, if any
+   void remove(String tag) throws IOException;
+
+   // writes any changes the store has not yet made durable
+   @Override
+   void flush() throws IOException;
+}
@@ -0,0 +1,391 @@
+// SearchTable.java
+// Columnar in-memory model of the saved searches. Each search is a row:
+// its tag is kept once in a tag table found through an open-addressing
+// hash, its query text is packed with all the others into one byte
+// array, and its times are kept in long arrays. A row keeps its number
+// while its search exists, so indexes hold row numbers instead of
+// objects. Every method synchronizes on the table; listeners are called
+// with that lock held
+package com.zoris.twittersearches.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SearchTable {
+   // told about rows whose tag or query text is added or removed
+   public interface Listener {
+      // row now holds a search, or new query text for its search
+      void rowAdded(int row);
+
+      // row still holds the search or query text that is going away
+      void rowRemoved(int row);
+   }
+
+   private static final int INITIAL_ROWS = 16;
+
+   // columns, indexed by row
+   private String[] tags = new String[INITIAL_ROWS];
+   private int[] queryStarts = new int[INITIAL_ROWS];
+   private int[] queryLengths = new int[INITIAL_ROWS]; // see length()
+   private long[] times = new long[INITIAL_ROWS];
+   private long[] lastUsed = new long[INITIAL_ROWS];
+
+   private int rowCount; // rows ever allocated, including free ones
+   private int size; // rows holding a search
+   private int[] freeRows = new int[INITIAL_ROWS];
+   private int freeCount;
+
+   // query text of every row back to back, one byte per character when
+   // all of a query's characters are Latin-1 and two otherwise, as the
+   // platform's compact strings store them. Changed text is appended and
+   // the old copy left behind until compaction, which moves everything
+   // to a new array, so text a snapshot shares is never overwritten
+   private byte[] text = new byte[INITIAL_ROWS * 32];
+   private int textEnd;
+   private int liveText; // bytes still used by some row
+
+   // row + 1 for each tag, or 0 for an empty slot; kept at most half
+   // full so that linear probing stays short
+   private int[] slots = new int[INITIAL_ROWS * 2];
+
+   private final List<Listener> listeners = new ArrayList<>();
+
+   public synchronized void addListener(Listener listener) {
+      listeners.add(listener);
+   }
+
+   // returns the number of searches
+   public synchronized int size() {
+      return size;
+   }
+
+   // returns the row of tag's search, or -1 if there is none
+   public synchronized int rowOf(String tag) {
+      int mask = slots.length - 1;
+      for (int slot = hash(tag) & mask; slots[slot] != 0;
+         slot = (slot + 1) & mask) {
+         int row = slots[slot] - 1;
+         if (tags[row].equals(tag))
+            return row;
+      }
+      return -1;
+   }
+
+   // returns the search saved under tag, or null if there is none
+   public synchronized Query get(String tag) {
+      int row = rowOf(tag);
+      return row >= 0 ? get(row) : null;
+   }
+
+   // adds or replaces the search with search's tag and returns its row
+   public synchronized int put(Query search) {
+      int row = rowOf(search.getTag());
+      if (row < 0) {
+         row = allocateRow(search.getTag());
+         writeQuery(row, search.getQuery());
+         times[row] = search.getTime();
+         lastUsed[row] = search.getLastUsed();
+         for (Listener listener : listeners)
+            listener.rowAdded(row);
+         return row;
+      }
+
+      times[row] = search.getTime();
+      lastUsed[row] = search.getLastUsed();
+      if (!queryEquals(row, search.getQuery())) {
+         for (Listener listener : listeners)
+            listener.rowRemoved(row);
+         // the old text is dead; a compaction while writing the new text
+         // must not copy it
+         liveText -= byteCount(queryLengths[row]);
+         queryLengths[row] = 0;
+         writeQuery(row, search.getQuery());
+         for (Listener listener : listeners)
+            listener.rowAdded(row);
+      }
+      return row;
+   }
+
+   // removes the search saved under tag and returns its former row, or
+   // -1 if there was none
+   public synchronized int remove(String tag) {
+      int row = rowOf(tag);
+      if (row < 0)
+         return -1;
+
+      for (Listener listener : listeners)
+         listener.rowRemoved(row);
+
+      removeSlot(row);
+      tags[row] = null;
+      liveText -= byteCount(queryLengths[row]);
+      queryLengths[row] = 0;
+      --size;
+
+      if (freeCount == freeRows.length)
+         freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+      freeRows[freeCount++] = row;
+      return row;
+   }
+
+   public synchronized String tag(int row) {
+      return tags[row];
+   }
+
+   // returns row's query text; this copies it out of the packed array
+   public synchronized String query(int row) {
+      return decode(text, queryStarts[row], queryLengths[row]);
+   }
+
+   public synchronized long time(int row) {
+      return times[row];
+   }
+
+   public synchronized long lastUsed(int row) {
+      return lastUsed[row];
+   }
+
+   // returns row's search as a new Query
+   public synchronized Query get(int row) {
+      return new Query(tags[row], query(row), times[row], lastUsed[row]);
+   }
+
+   // returns a frozen copy of the given rows, in order
+   public synchronized SearchSnapshot snapshot(int[] rows, int count) {
+      String[] snapshotTags = new String[count];
+      int[] starts = new int[count];
+      int[] lengths = new int[count];
+      long[] snapshotTimes = new long[count];
+      long[] snapshotUsed = new long[count];
+
+      for (int i = 0; i < count; ++i) {
+         int row = rows[i];
+         snapshotTags[i] = tags[row];
+         starts[i] = queryStarts[row];
+         lengths[i] = queryLengths[row];
+         snapshotTimes[i] = times[row];
+         snapshotUsed[i] = lastUsed[row];
+      }
+      return new SearchSnapshot(Arrays.copyOf(rows, count), snapshotTags,
+         text, starts, lengths, snapshotTimes, snapshotUsed);
+   }
+
+   // true if row's query text equals query
+   synchronized boolean queryEquals(int row, String query) {
+      int length = queryLengths[row];
+      if (charCount(length) != query.length())
+         return false;
+
+      int start = queryStarts[row];
+      for (int i = 0; i < query.length(); ++i) {
+         if (charAt(text, start, length, i) != query.charAt(i))
+            return false;
+      }
+      return true;
+   }
+
+   // true if row's tag or query text contains lowered, which must be
+   // lower case; characters are lowered one at a time to compare
+   synchronized boolean containsLowered(int row, String lowered) {
+      return indexOfLowered(tags[row], lowered) ||
+         indexOfLowered(text, queryStarts[row], queryLengths[row], lowered);
+   }
+
+   // appends row's text, tag then query, to out as the filter index
+   // tokenizes it
+   synchronized void appendText(int row, StringBuilder out) {
+      out.append(tags[row]).append('\n');
+      int start = queryStarts[row];
+      int length = queryLengths[row];
+      for (int i = 0; i < charCount(length); ++i)
+         out.append(charAt(text, start, length, i));
+   }
+
+   // the stored length of a query: its character count, complemented
+   // when it takes two bytes per character
+   private static int length(String query, boolean wide) {
+      return wide ? ~query.length() : query.length();
+   }
+
+   private static int charCount(int length) {
+      return length < 0 ? ~length : length;
+   }
+
+   private static int byteCount(int length) {
+      return length < 0 ? 2 * ~length : length;
+   }
+
+   // returns character index of the query stored at start with length
+   private static char charAt(byte[] text, int start, int length, int index) {
+      if (length >= 0)
+         return (char) (text[start + index] & 0xff);
+
+      int i = start + 2 * index;
+      return (char) ((text[i] & 0xff) << 8 | (text[i + 1] & 0xff));
+   }
+
+   // returns the query stored at start with length as a new String
+   static String decode(byte[] text, int start, int length) {
+      if (length >= 0)
+         return new String(text, start, length, StandardCharsets.ISO_8859_1);
+
+      char[] chars = new char[~length];
+      for (int i = 0; i < chars.length; ++i)
+         chars[i] = charAt(text, start, length, i);
+      return new String(chars);
+   }
+
+   // gives tag a row, reusing a free one if possible
+   private int allocateRow(String tag) {
+      int row;
+      if (freeCount > 0)
+         row = freeRows[--freeCount];
+      else {
+         if (rowCount == tags.length)
+            growRows();
+         row = rowCount++;
+      }
+
+      // rehash before the row has its tag, or it would get two slots
+      ++size;
+      if (size * 2 > slots.length)
+         rehash(slots.length * 2);
+      tags[row] = tag;
+      insertSlot(row);
+      return row;
+   }
+
+   private void growRows() {
+      int capacity = tags.length * 2;
+      tags = Arrays.copyOf(tags, capacity);
+      queryStarts = Arrays.copyOf(queryStarts, capacity);
+      queryLengths = Arrays.copyOf(queryLengths, capacity);
+      times = Arrays.copyOf(times, capacity);
+      lastUsed = Arrays.copyOf(lastUsed, capacity);
+   }
+
+   // appends query to the text array, first compacting away old text if
+   // that makes room, otherwise growing the array
+   private void writeQuery(int row, String query) {
+      boolean wide = false;
+      for (int i = 0; i < query.length() && !wide; ++i)
+         wide = query.charAt(i) > 0xff;
+
+      int length = length(query, wide);
+      int bytes = byteCount(length);
+      if (textEnd + bytes > text.length) {
+         if (liveText + bytes <= text.length / 2)
+            compactText(text.length);
+         else
+            compactText(Math.max(text.length * 2, liveText + bytes));
+      }
+
+      for (int i = 0; i < query.length(); ++i) {
+         char c = query.charAt(i);
+         if (wide) {
+            text[textEnd + 2 * i] = (byte) (c >> 8);
+            text[textEnd + 2 * i + 1] = (byte) c;
+         }
+         else
+            text[textEnd + i] = (byte) c;
+      }
+      queryStarts[row] = textEnd;
+      queryLengths[row] = length;
+      textEnd += bytes;
+      liveText += bytes;
+   }
+
+   // copies the text of every live row into a new array of capacity
+   private void compactText(int capacity) {
+      byte[] compacted = new byte[capacity];
+      int end = 0;
+      for (int row = 0; row < rowCount; ++row) {
+         if (tags[row] == null)
+            continue;
+
+         int bytes = byteCount(queryLengths[row]);
+         System.arraycopy(text, queryStarts[row], compacted, end, bytes);
+         queryStarts[row] = end;
+         end += bytes;
+      }
+      text = compacted;
+      textEnd = end;
+   }
+
+   private void insertSlot(int row) {
+      int mask = slots.length - 1;
+      int slot = hash(tags[row]) & mask;
+      while (slots[slot] != 0)
+         slot = (slot + 1) & mask;
+      slots[slot] = row + 1;
+   }
+
+   // empties row's slot, shifting later entries of its probe run back so
+   // that lookups never stop early at the gap
+   private void removeSlot(int row) {
+      int mask = slots.length - 1;
+      int slot = hash(tags[row]) & mask;
+      while (slots[slot] != row + 1)
+         slot = (slot + 1) & mask;
+
+      int gap = slot;
+      for (slot = (gap + 1) & mask; slots[slot] != 0;
+         slot = (slot + 1) & mask) {
+         int home = hash(tags[slots[slot] - 1]) & mask;
+         // move the entry into the gap unless its home lies after the gap
+         // and at or before its slot, cyclically
+         if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+            slots[gap] = slots[slot];
+            gap = slot;
+         }
+      }
+      slots[gap] = 0;
+   }
+
+   private void rehash(int capacity) {
+      slots = new int[capacity];
+      for (int row = 0; row < rowCount; ++row) {
+         if (tags[row] != null)
+            insertSlot(row);
+      }
+   }
+
+   private static int hash(String tag) {
+      int hash = tag.hashCode();
+      return hash ^ (hash >>> 16);
+   }
+
+   // true if chars contains lowered, ignoring case
+   private static boolean indexOfLowered(String chars, String lowered) {
+      int last = chars.length() - lowered.length();
+      candidates:
+      for (int i = 0; i <= last; ++i) {
+         for (int j = 0; j < lowered.length(); ++j) {
+            if (Character.toLowerCase(chars.charAt(i + j)) !=
+               lowered.charAt(j))
+               continue candidates;
+         }
+         return true;
+      }
+      return false;
+   }
+
+   // true if the query stored at start with length contains lowered,
+   // ignoring case
+   private static boolean indexOfLowered(byte[] text, int start,
+      int length, String lowered) {
+      int last = charCount(length) - lowered.length();
+      candidates:
+      for (int i = 0; i <= last; ++i) {
+         for (int j = 0; j < lowered.length(); ++j) {
+            if (Character.toLowerCase(charAt(text, start, length, i + j)) !=
+               lowered.charAt(j))
+               continue candidates;
+         }
+         return true;
+      }
+      return false;
+   }
+}
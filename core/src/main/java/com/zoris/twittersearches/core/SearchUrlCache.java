@@ -0,0 +1,52 @@
+// SearchUrlCache.java
+// Bounded least-recently-used cache of encoded search URLs by tag, so
+// launching or sharing a search doesn't re-encode its query each time
+package com.zoris.twittersearches.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SearchUrlCache {
+   private final String baseUrl; // prefix of every search URL
+   private final Map<String, CachedUrl> entries;
+
+   // query text a URL was built from, so an edited query is never served
+   // a stale URL even if invalidate was missed
+   private static class CachedUrl {
+      final String query;
+      final String url;
+
+      CachedUrl(String query, String url) {
+         this.query = query;
+         this.url = url;
+      }
+   }
+
+   public SearchUrlCache(String baseUrl, final int capacity) {
+      this.baseUrl = baseUrl;
+      // access order makes the eldest entry the least recently used
+      this.entries = new LinkedHashMap<String, CachedUrl>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(
+            Map.Entry<String, CachedUrl> eldest) {
+            return size() > capacity;
+         }
+      };
+   }
+
+   // returns the URL showing search's results, building it on a miss
+   public synchronized String get(Query search) {
+      CachedUrl entry = entries.get(search.getTag());
+      if (entry == null || !entry.query.equals(search.getQuery())) {
+         entry = new CachedUrl(search.getQuery(),
+            SearchUrls.build(baseUrl, search.getQuery()));
+         entries.put(search.getTag(), entry);
+      }
+      return entry.url;
+   }
+
+   // drops the URL cached for tag after its query is edited or deleted
+   public synchronized void invalidate(String tag) {
+      entries.remove(tag);
+   }
+}
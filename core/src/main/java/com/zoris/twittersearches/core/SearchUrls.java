@@ -0,0 +1,63 @@
+// SearchUrls.java
+// Builds the web URL that shows the results of a saved search
+package com.zoris.twittersearches.core;
+
+import java.nio.charset.StandardCharsets;
+
+public final class SearchUrls {
+   // characters left as they are, as android.net.Uri.encode does
+   private static final String UNRESERVED = "_-!.~'()*";
+   private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+   private SearchUrls() {
+   }
+
+   // returns baseUrl followed by the percent-encoded query
+   public static String build(String baseUrl, String query) {
+      StringBuilder url =
+         new StringBuilder(baseUrl.length() + query.length() * 3);
+      url.append(baseUrl);
+      appendEncoded(url, query);
+      return url.toString();
+   }
+
+   // percent-encodes text as UTF-8, leaving letters, digits and the
+   // unreserved marks unchanged
+   public static String encode(String text) {
+      StringBuilder encoded = new StringBuilder(text.length() * 3);
+      appendEncoded(encoded, text);
+      return encoded.toString();
+   }
+
+   private static void appendEncoded(StringBuilder out, String text) {
+      int start = 0; // start of the run of characters that need encoding
+      int length = text.length();
+
+      while (start < length) {
+         // copy characters that are allowed through unchanged
+         char c = text.charAt(start);
+         if (isAllowed(c)) {
+            out.append(c);
+            ++start;
+            continue;
+         }
+
+         int end = start + 1;
+         while (end < length && !isAllowed(text.charAt(end)))
+            ++end;
+
+         for (byte b : text.substring(start, end)
+            .getBytes(StandardCharsets.UTF_8)) {
+            out.append('%');
+            out.append(HEX[(b >> 4) & 0xF]);
+            out.append(HEX[b & 0xF]);
+         }
+         start = end;
+      }
+   }
+
+   private static boolean isAllowed(char c) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+         (c >= '0' && c <= '9') || UNRESERVED.indexOf(c) >= 0;
+   }
+}
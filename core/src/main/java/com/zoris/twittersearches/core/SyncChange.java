@@ -0,0 +1,64 @@
+// SyncChange.java
+// One version of one saved search as it travels between a device and the
+// sync server: the tag, its record, or null once the tag was deleted,
+// and the version stamp. A stamp is a count from the logical clock of
+// the device that made the change, and that device's id. Every device
+// and the server order two versions of a tag the same way, the higher
+// count being newer and the higher device id breaking ties, so all of
+// them settle on the same version whatever order changes arrive in
+package com.zoris.twittersearches.core;
+
+public final class SyncChange {
+   private final String tag;
+   private final String record; // null for a deletion
+   private final long counter; // the device's clock when it was made
+   private final long device; // id of the device that made it
+
+   public SyncChange(String tag, String record, long counter,
+      long device) {
+      this.tag = tag;
+      this.record = record;
+      this.counter = counter;
+      this.device = device;
+   }
+
+   public String getTag() {
+      return tag;
+   }
+
+   // returns the record stored under the tag, or null if it was deleted
+   public String getRecord() {
+      return record;
+   }
+
+   public boolean isDeletion() {
+      return record == null;
+   }
+
+   public long getCounter() {
+      return counter;
+   }
+
+   public long getDevice() {
+      return device;
+   }
+
+   // true if this version of the tag wins over the version stamped
+   // counter by device
+   public boolean isNewerThan(long counter, long device) {
+      return compare(this.counter, this.device, counter, device) > 0;
+   }
+
+   public boolean isNewerThan(SyncChange other) {
+      return isNewerThan(other.counter, other.device);
+   }
+
+   // orders the stamps of two versions of a tag, oldest first; equal
+   // stamps are the same version
+   static int compare(long counterA, long deviceA, long counterB,
+      long deviceB) {
+      if (counterA != counterB)
+         return counterA < counterB ? -1 : 1;
+      return deviceA < deviceB ? -1 : deviceA == deviceB ? 0 : 1;
+   }
+}
@@ -0,0 +1,121 @@
+// SyncClient.java
+// Brings a SyncedSearchStore and the sync server up to date with each
+// other. Each request sends a batch of the changes waiting on the device
+// and receives a batch of the changes other devices made since the
+// device's sync token, so a sync moves only what changed, a batch per
+// round trip, until neither side has anything left. A change of a tag
+// that also changed elsewhere is kept only if its stamp is the newer, on
+// the server as on every device
+package com.zoris.twittersearches.core;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SyncClient {
+   // latency of a whole sync, and the changes it moves
+   private static final LatencyHistogram SYNC_LATENCY =
+      Metrics.histogram("sync");
+   private static final Counter CHANGES_SENT =
+      Metrics.counter("sync changes sent");
+   private static final Counter CHANGES_RECEIVED =
+      Metrics.counter("sync changes received");
+   private static final Counter SYNC_REQUESTS =
+      Metrics.counter("sync requests");
+
+   // the outcome of one sync
+   public static final class Result {
+      private final int sent;
+      private final int received;
+      private final Map<String, String> changes;
+
+      Result(int sent, int received, Map<String, String> changes) {
+         this.sent = sent;
+         this.received = received;
+         this.changes = Collections.unmodifiableMap(changes);
+      }
+
+      // returns the number of changes sent to the server
+      public int getSent() {
+         return sent;
+      }
+
+      // returns the number of changes received, including those older
+      // than the device's own, which were not applied
+      public int getReceived() {
+         return received;
+      }
+
+      // returns the records the sync changed in the store by tag, a null
+      // record being a deletion
+      public Map<String, String> getChanges() {
+         return changes;
+      }
+   }
+
+   private final SyncedSearchStore store;
+   private final HttpClient client;
+   private final String url;
+   private final int batchSize; // most changes sent or received at once
+   private final Map<String, String> headers;
+
+   // syncs store with the server at url, moving up to batchSize changes
+   // each way per request
+   public SyncClient(SyncedSearchStore store, HttpClient client, String url,
+      int batchSize) {
+      this.store = store;
+      this.client = client;
+      this.url = url;
+      this.batchSize = batchSize;
+
+      Map<String, String> fields = new HashMap<>();
+      fields.put("Content-Type", SyncProtocol.MIME_TYPE);
+      fields.put("Accept", SyncProtocol.MIME_TYPE);
+      headers = Collections.unmodifiableMap(fields);
+   }
+
+   // exchanges changes with the server until both are up to date; the
+   // store keeps what was exchanged before a failure, and the next sync
+   // carries on from there. Must not run alongside another sync of store
+   public Result sync() throws IOException {
+      long start = Metrics.start();
+      store.reconcile(); // stamps changes made behind the store's back
+
+      int sent = 0;
+      int received = 0;
+      Map<String, String> changes = new HashMap<>();
+      boolean more;
+      do {
+         List<SyncChange> outgoing = store.getPending(batchSize);
+         SyncProtocol.Request request = new SyncProtocol.Request(
+            store.getDevice(), store.getToken(), batchSize, outgoing);
+
+         SYNC_REQUESTS.increment();
+         HttpResponse response =
+            client.post(url, headers, SyncProtocol.encode(request));
+         if (response.getStatus() != HttpResponse.OK)
+            throw new IOException("Sync failed with status " +
+               response.getStatus());
+         SyncProtocol.Response answer =
+            SyncProtocol.decodeResponse(response.getBody());
+
+         // the server has seen outgoing even if it kept newer versions,
+         // which come back in this answer or a later one
+         store.acknowledge(outgoing);
+         changes.putAll(store.apply(answer.changes));
+         store.setToken(answer.token);
+
+         sent += outgoing.size();
+         received += answer.changes.size();
+         CHANGES_SENT.add(outgoing.size());
+         CHANGES_RECEIVED.add(answer.changes.size());
+         more = answer.more || store.getPendingCount() > 0;
+      } while (more);
+
+      store.flush(); // keeps the token with the records it covers
+      SYNC_LATENCY.stop(start);
+      return new Result(sent, received, changes);
+   }
+}
@@ -0,0 +1,229 @@
+// SyncProtocol.java
+// Messages exchanged by SyncClient and the sync server. A request carries
+// the device's id, its sync token, the most changes it will take back and
+// a batch of its own changes; the response carries the new token, a batch
+// of changes made since the old one and whether more are waiting. Both
+// start with a magic and a version byte; the rest is deflated and holds
+// varints, UTF-8 strings prefixed by their length, and each change as
+//    tag      string
+//    counter  varint
+//    device   8 bytes
+//    deleted  byte, 1 if the tag was deleted, followed otherwise by
+//    record   string
+package com.zoris.twittersearches.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+final class SyncProtocol {
+   // content type of requests and responses
+   static final String MIME_TYPE = "application/x-twitter-searches-sync";
+
+   // first bytes of each kind of message, followed by VERSION
+   private static final byte[] REQUEST_MAGIC = {'T', 'S', 'Q'};
+   private static final byte[] RESPONSE_MAGIC = {'T', 'S', 'R'};
+   private static final int VERSION = 1;
+
+   // lists are allocated no larger than this until they are read, so a
+   // corrupt count cannot exhaust memory
+   private static final int MAX_PRESIZE = 1024;
+
+   // longest tag or record read, in UTF-8 bytes, far beyond any search;
+   // a longer length only comes from a corrupt or hostile message
+   private static final int MAX_STRING_BYTES = 1024 * 1024;
+
+   private SyncProtocol() {
+   }
+
+   // what a device sends
+   static final class Request {
+      final long device;
+      final long token; // 0 before the first sync
+      final int limit; // most changes the response may carry
+      final List<SyncChange> changes;
+
+      Request(long device, long token, int limit, List<SyncChange> changes) {
+         this.device = device;
+         this.token = token;
+         this.limit = limit;
+         this.changes = changes;
+      }
+   }
+
+   // what the server answers
+   static final class Response {
+      final long token; // to send with the next request
+      final boolean more; // changes are left beyond token
+      final List<SyncChange> changes;
+
+      Response(long token, boolean more, List<SyncChange> changes) {
+         this.token = token;
+         this.more = more;
+         this.changes = changes;
+      }
+   }
+
+   static byte[] encode(Request request) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = open(bytes, REQUEST_MAGIC);
+      try {
+         out.writeLong(request.device);
+         writeVarint(out, request.token);
+         writeVarint(out, request.limit);
+         writeChanges(out, request.changes);
+      }
+      finally {
+         out.close(); // finishes the deflated stream
+      }
+      return bytes.toByteArray();
+   }
+
+   static Request decodeRequest(byte[] message) throws IOException {
+      DataInputStream in = open(message, REQUEST_MAGIC);
+      try {
+         long device = in.readLong();
+         long token = readVarint(in);
+         int limit = readCount(in);
+         return new Request(device, token, limit, readChanges(in));
+      }
+      finally {
+         in.close();
+      }
+   }
+
+   static byte[] encode(Response response) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = open(bytes, RESPONSE_MAGIC);
+      try {
+         writeVarint(out, response.token);
+         out.writeBoolean(response.more);
+         writeChanges(out, response.changes);
+      }
+      finally {
+         out.close();
+      }
+      return bytes.toByteArray();
+   }
+
+   static Response decodeResponse(byte[] message) throws IOException {
+      DataInputStream in = open(message, RESPONSE_MAGIC);
+      try {
+         long token = readVarint(in);
+         boolean more = in.readBoolean();
+         return new Response(token, more, readChanges(in));
+      }
+      finally {
+         in.close();
+      }
+   }
+
+   // writes the header to bytes and returns a stream deflating the rest
+   private static DataOutputStream open(ByteArrayOutputStream bytes,
+      byte[] magic) throws IOException {
+      bytes.write(magic);
+      bytes.write(VERSION);
+      // the stream's own deflater is released when it is closed
+      return new DataOutputStream(new DeflaterOutputStream(bytes));
+   }
+
+   // checks the header of message and returns a stream inflating the rest
+   private static DataInputStream open(byte[] message, byte[] magic)
+      throws IOException {
+      if (message.length < magic.length + 1)
+         throw new IOException("Not a sync message");
+      for (int i = 0; i < magic.length; ++i) {
+         if (message[i] != magic[i])
+            throw new IOException("Not a sync message");
+      }
+      if (message[magic.length] != VERSION)
+         throw new IOException("Unsupported sync message version " +
+            message[magic.length]);
+
+      return new DataInputStream(new InflaterInputStream(
+         new ByteArrayInputStream(message, magic.length + 1,
+            message.length - magic.length - 1)));
+   }
+
+   private static void writeChanges(DataOutputStream out,
+      List<SyncChange> changes) throws IOException {
+      writeVarint(out, changes.size());
+      for (SyncChange change : changes) {
+         writeString(out, change.getTag());
+         writeVarint(out, change.getCounter());
+         out.writeLong(change.getDevice());
+         out.writeBoolean(change.isDeletion());
+         if (!change.isDeletion())
+            writeString(out, change.getRecord());
+      }
+   }
+
+   private static List<SyncChange> readChanges(DataInputStream in)
+      throws IOException {
+      int count = readCount(in);
+      List<SyncChange> changes =
+         new ArrayList<>(Math.min(count, MAX_PRESIZE));
+      for (int i = 0; i < count; ++i) {
+         String tag = readString(in);
+         long counter = readVarint(in);
+         long device = in.readLong();
+         String record = in.readBoolean() ? null : readString(in);
+         changes.add(new SyncChange(tag, record, counter, device));
+      }
+      return changes;
+   }
+
+   private static void writeString(DataOutputStream out, String text)
+      throws IOException {
+      byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+      writeVarint(out, bytes.length);
+      out.write(bytes);
+   }
+
+   private static String readString(DataInputStream in) throws IOException {
+      int length = readCount(in);
+      if (length > MAX_STRING_BYTES)
+         throw new IOException("Corrupt sync message");
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   private static void writeVarint(DataOutputStream out, long value)
+      throws IOException {
+      while ((value & ~0x7FL) != 0) {
+         out.writeByte((int) (value & 0x7F) | 0x80);
+         value >>>= 7;
+      }
+      out.writeByte((int) value);
+   }
+
+   private static long readVarint(DataInputStream in) throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+         int b = in.read();
+         if (b < 0)
+            throw new EOFException("Truncated sync message");
+         value |= (long) (b & 0x7F) << shift;
+         if ((b & 0x80) == 0)
+            return value;
+      }
+      throw new IOException("Corrupt sync message");
+   }
+
+   // reads a varint that counts something, so must fit an int
+   private static int readCount(DataInputStream in) throws IOException {
+      long value = readVarint(in);
+      if (value < 0 || value > Integer.MAX_VALUE)
+         throw new IOException("Corrupt sync message");
+      return (int) value;
+   }
+}
@@ -0,0 +1,373 @@
+// SyncedSearchStore.java
+// SearchStore that keeps a version of every record for SyncClient. The
+// device has a logical clock that moves past every version it makes or
+// receives; each change passed through this store is stamped with the
+// next count of the clock and the device's id, and waits to be sent.
+// Changes that reach the underlying store another way, as the database
+// mode's do, or whose stamps were lost with the process, are found by
+// reconcile, which compares the records with hashes kept in the
+// versions. Only a search's query is versioned: launching a search moves
+// its last use, which would otherwise make every tap a change to send,
+// so a received search keeps the later use of the two devices'. The
+// versions, the clock and the server's sync token are saved to a file of
+// their own when the store is flushed
+package com.zoris.twittersearches.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SyncedSearchStore implements SearchStore {
+   // changed whenever the format of the state file changes
+   private static final int VERSION = 2;
+
+   // flags of each version in the state file
+   private static final int DELETED = 1;
+   private static final int PENDING = 2;
+
+   // the version of one tag this device has
+   private static final class Version {
+      final long counter;
+      final long device;
+      final long hash; // of the search's query, 0 for a deletion
+      final boolean deleted;
+
+      Version(long counter, long device, long hash, boolean deleted) {
+         this.counter = counter;
+         this.device = device;
+         this.hash = hash;
+         this.deleted = deleted;
+      }
+
+      // true if record of tag, null for none, holds this version's query
+      boolean holds(String tag, String record) {
+         return record == null ? deleted :
+            !deleted && hash == hash(tag, record);
+      }
+   }
+
+   private final SearchStore store; // holds the records themselves
+   private final File stateFile;
+
+   private long device; // this device's id, chosen on first use
+   private long clock; // highest count made or seen
+   private long token; // the server's token after the last sync
+   private final Map<String, Version> versions = new HashMap<>();
+   // tags whose version has not been sent yet, oldest change first
+   private final Set<String> pending = new LinkedHashSet<>();
+   private boolean changed; // versions differ from the state file
+
+   // keeps the versions of store's records in stateFile; store must only
+   // be changed through this one, or be reconciled before each sync
+   public SyncedSearchStore(SearchStore store, File stateFile) {
+      this.store = store;
+      this.stateFile = stateFile;
+   }
+
+   // loads store and the versions; a device without a state file, or
+   // with one written by another version of the app, starts afresh and
+   // sends every record on its next sync
+   @Override
+   public void load() throws IOException {
+      store.load();
+
+      synchronized (this) {
+         versions.clear();
+         pending.clear();
+         try {
+            readState();
+         } catch (FileNotFoundException e) {
+            startAfresh(); // never synced
+         }
+      }
+   }
+
+   @Override
+   public String get(String tag) {
+      return store.get(tag);
+   }
+
+   @Override
+   public Map<String, String> getAll() {
+      return store.getAll();
+   }
+
+   @Override
+   public synchronized void put(String tag, String record)
+      throws IOException {
+      store.put(tag, record);
+      stamp(tag, record);
+   }
+
+   @Override
+   public synchronized void putAll(Map<String, String> records)
+      throws IOException {
+      store.putAll(records);
+      for (Map.Entry<String, String> entry : records.entrySet())
+         stamp(entry.getKey(), entry.getValue());
+   }
+
+   @Override
+   public synchronized void remove(String tag) throws IOException {
+      store.remove(tag);
+      stamp(tag, null);
+   }
+
+   // flushes store, then saves the versions if they changed
+   @Override
+   public void flush() throws IOException {
+      store.flush();
+      synchronized (this) {
+         if (changed)
+            writeState();
+      }
+   }
+
+   @Override
+   public void close() throws IOException {
+      try {
+         flush();
+      }
+      finally {
+         store.close();
+      }
+   }
+
+   // returns this device's id
+   public synchronized long getDevice() {
+      return device;
+   }
+
+   // returns the number of changes waiting to be sent
+   public synchronized int getPendingCount() {
+      return pending.size();
+   }
+
+   // stamps a new version for every record that differs from its
+   // version, and a deletion for every version whose record is gone
+   public synchronized void reconcile() {
+      Map<String, String> records = store.getAll();
+      for (Map.Entry<String, String> entry : records.entrySet())
+         stamp(entry.getKey(), entry.getValue());
+
+      List<String> missing = new ArrayList<>();
+      for (String tag : versions.keySet()) {
+         if (!records.containsKey(tag))
+            missing.add(tag);
+      }
+      for (String tag : missing)
+         stamp(tag, null);
+   }
+
+   // forgets every version and the server's token, keeping the clock,
+   // after the underlying store lost records, as a damaged log does. The
+   // lost ones are then not sent as deletions: the next sync sends every
+   // record and receives every search the server holds
+   public synchronized void forgetVersions() {
+      versions.clear();
+      pending.clear();
+      token = 0;
+      changed = true;
+   }
+
+   // records that tag now holds record, null if it was deleted, as a new
+   // version unless its query is the one versioned already
+   private void stamp(String tag, String record) {
+      Version version = versions.get(tag);
+      if (version != null ? version.holds(tag, record) : record == null)
+         return; // unchanged, or deleting what was never synced
+
+      versions.put(tag, new Version(++clock, device,
+         record == null ? 0 : hash(tag, record), record == null));
+      pending.remove(tag); // the change moves to the back of the queue
+      pending.add(tag);
+      changed = true;
+   }
+
+   // returns up to max changes waiting to be sent, oldest first
+   synchronized List<SyncChange> getPending(int max) {
+      List<SyncChange> changes =
+         new ArrayList<>(Math.min(max, pending.size()));
+      for (String tag : pending) {
+         if (changes.size() == max)
+            break;
+         Version version = versions.get(tag);
+         String record = version.deleted ? null : store.get(tag);
+         changes.add(new SyncChange(tag, record, version.counter,
+            version.device));
+      }
+      return changes;
+   }
+
+   // marks sent, as returned by getPending, as seen by the server, unless
+   // a tag has changed again since. A sent deletion is then forgotten:
+   // the server keeps a version at least as new, so an older one of the
+   // tag can no longer come back
+   synchronized void acknowledge(List<SyncChange> sent) {
+      for (SyncChange change : sent) {
+         String tag = change.getTag();
+         Version version = versions.get(tag);
+         if (version == null || version.counter != change.getCounter() ||
+            version.device != change.getDevice())
+            continue; // changed again while the request was under way
+
+         pending.remove(tag);
+         if (version.deleted)
+            versions.remove(tag);
+         changed = true;
+      }
+   }
+
+   // stores the changes received that are newer than this device's
+   // versions, in one write, and returns them as tag and record, a null
+   // record being a deletion; a change received wins over a change of
+   // the same tag waiting to be sent only if it is newer, and keeps the
+   // later last use of its search and the one stored
+   synchronized Map<String, String> apply(List<SyncChange> received)
+      throws IOException {
+      Map<String, String> records = new HashMap<>();
+      for (SyncChange change : received) {
+         clock = Math.max(clock, change.getCounter());
+
+         String tag = change.getTag();
+         Version version = versions.get(tag);
+         if (version == null ? change.isDeletion() :
+            !change.isNewerThan(version.counter, version.device))
+            continue;
+
+         if (change.isDeletion()) {
+            records.put(tag, null);
+            versions.remove(tag);
+         }
+         else {
+            records.put(tag, withLatestUse(tag, change.getRecord()));
+            versions.put(tag, new Version(change.getCounter(),
+               change.getDevice(), hash(tag, change.getRecord()), false));
+         }
+         pending.remove(tag);
+      }
+
+      if (!records.isEmpty())
+         store.putAll(records);
+      changed = true; // the clock moved at least
+      return records;
+   }
+
+   // returns the token to send with the next sync, 0 before the first
+   synchronized long getToken() {
+      return token;
+   }
+
+   synchronized void setToken(long token) {
+      this.token = token;
+      changed = true;
+   }
+
+   private void startAfresh() {
+      device = new SecureRandom().nextLong();
+      clock = 0;
+      token = 0;
+      changed = true;
+   }
+
+   private void readState() throws IOException {
+      DataInputStream in = new DataInputStream(
+         new BufferedInputStream(new FileInputStream(stateFile)));
+      try {
+         if (in.readInt() != VERSION) {
+            startAfresh();
+            return;
+         }
+
+         device = in.readLong();
+         clock = in.readLong();
+         token = in.readLong();
+         for (int count = in.readInt(); count > 0; --count) {
+            String tag = in.readUTF();
+            long counter = in.readLong();
+            long stamper = in.readLong();
+            long hash = in.readLong();
+            int flags = in.readByte();
+            versions.put(tag, new Version(counter, stamper, hash,
+               (flags & DELETED) != 0));
+            if ((flags & PENDING) != 0)
+               pending.add(tag);
+         }
+      }
+      finally {
+         in.close();
+      }
+      changed = false;
+   }
+
+   // writes the state to a temporary file that then replaces the old one,
+   // so a crash leaves one or the other whole
+   private void writeState() throws IOException {
+      File temporary = new File(stateFile.getPath() + ".tmp");
+      DataOutputStream out = new DataOutputStream(
+         new BufferedOutputStream(new FileOutputStream(temporary)));
+      try {
+         out.writeInt(VERSION);
+         out.writeLong(device);
+         out.writeLong(clock);
+         out.writeLong(token);
+         out.writeInt(versions.size());
+
+         // pending tags first, in order, so they are queued again in it
+         for (String tag : pending)
+            writeVersion(out, tag, versions.get(tag), true);
+         for (Map.Entry<String, Version> entry : versions.entrySet()) {
+            if (!pending.contains(entry.getKey()))
+               writeVersion(out, entry.getKey(), entry.getValue(), false);
+         }
+      }
+      finally {
+         out.close();
+      }
+
+      if (!temporary.renameTo(stateFile))
+         throw new IOException("Cannot replace " + stateFile);
+      changed = false;
+   }
+
+   private static void writeVersion(DataOutputStream out, String tag,
+      Version version, boolean pending) throws IOException {
+      out.writeUTF(tag);
+      out.writeLong(version.counter);
+      out.writeLong(version.device);
+      out.writeLong(version.hash);
+      out.writeByte((version.deleted ? DELETED : 0) | (pending ? PENDING : 0));
+   }
+
+   // returns record, received for tag, with the last use of the search
+   // stored under tag if that is later; uses are not versioned
+   private String withLatestUse(String tag, String record) {
+      String stored = store.get(tag);
+      if (stored == null)
+         return record;
+
+      Query received = Query.fromJson(tag, record);
+      long used = Query.fromJson(tag, stored).getLastUsed();
+      return used > received.getLastUsed() ?
+         received.usedAt(used).toJson() : record;
+   }
+
+   // hashes the query of tag's record, the part of it that is versioned
+   private static long hash(String tag, String record) {
+      return Query.hash(Query.fromJson(tag, record).getQuery(),
+         Query.FNV_OFFSET);
+   }
+}
@@ -0,0 +1,208 @@
+// TagIndex.java
+// Saved searches kept sorted by tag as an array of SearchTable rows, with
+// binary-search positions so changes map to exact adapter positions
+package com.zoris.twittersearches.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Set;
+
+public class TagIndex implements SearchList {
+   // case-insensitive order, broken by case so that tags differing only
+   // in case still have a single well-defined position
+   public static final Comparator<String> ORDER = new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+         int result = String.CASE_INSENSITIVE_ORDER.compare(a, b);
+         return result != 0 ? result : a.compareTo(b);
+      }
+   };
+
+   private final SearchTable table;
+   private int[] rows = new int[16]; // sorted by the rows' tags
+   private int size;
+   private int modificationCount; // incremented by every change
+
+   // an index over searches kept in table, which starts out empty
+   public TagIndex(SearchTable table) {
+      this.table = table;
+   }
+
+   // returns the number of saved searches
+   @Override
+   public int size() {
+      return size;
+   }
+
+   // returns the search displayed at position
+   @Override
+   public Query get(int position) {
+      return table.get(rows[position]);
+   }
+
+   @Override
+   public String getTag(int position) {
+      return table.tag(rows[position]);
+   }
+
+   @Override
+   public String getQuery(int position) {
+      return table.query(rows[position]);
+   }
+
+   @Override
+   public long getTime(int position) {
+      return table.time(rows[position]);
+   }
+
+   // returns the search saved under tag, or null if there is none
+   public Query get(String tag) {
+      return table.get(tag);
+   }
+
+   // returns a frozen copy of the current sorted searches
+   @Override
+   public SearchSnapshot snapshot() {
+      return table.snapshot(rows, size);
+   }
+
+   // lets callers detect changes made after they took a snapshot
+   @Override
+   public int getModificationCount() {
+      return modificationCount;
+   }
+
+   public boolean contains(String tag) {
+      return indexOf(tag) >= 0;
+   }
+
+   // returns the position of tag, or -(insertion point) - 1 if absent
+   public int indexOf(String tag) {
+      int low = 0;
+      int high = size - 1;
+
+      while (low <= high) {
+         int middle = (low + high) >>> 1;
+         int result = ORDER.compare(table.tag(rows[middle]), tag);
+
+         if (result < 0)
+            low = middle + 1;
+         else if (result > 0)
+            high = middle - 1;
+         else
+            return middle;
+      }
+      return -(low + 1);
+   }
+
+   // adds or replaces search and returns its position
+   public int put(Query search) {
+      int position = indexOf(search.getTag());
+      int row = table.put(search);
+      ++modificationCount;
+
+      if (position >= 0)
+         return position;
+
+      position = -(position + 1);
+      if (size == rows.length)
+         rows = Arrays.copyOf(rows, size * 2);
+      System.arraycopy(rows, position, rows, position + 1, size - position);
+      rows[position] = row;
+      ++size;
+      return position;
+   }
+
+   // appends rows of the table that are already sorted and all sort
+   // after the current last entry, as the batches produced at startup are
+   public void appendSorted(int[] batch) {
+      if (size + batch.length > rows.length)
+         rows = Arrays.copyOf(rows, Math.max(size * 2, size + batch.length));
+      System.arraycopy(batch, 0, rows, size, batch.length);
+      size += batch.length;
+      ++modificationCount;
+   }
+
+   // adds or replaces many searches at once, merging the new tags into
+   // the sorted rows in one pass instead of shifting them per search
+   public void putAll(Collection<Query> searches) {
+      int[] added = new int[searches.size()];
+      int count = 0;
+      for (Query search : searches) {
+         boolean present = contains(search.getTag());
+         int row = table.put(search);
+         if (!present)
+            added[count++] = row;
+      }
+
+      // a tag given more than once keeps its last search and one row
+      RowOrder order = RowOrder.byTag(table);
+      order.sort(added, count);
+      int unique = 0;
+      for (int i = 0; i < count; ++i) {
+         if (unique == 0 || added[unique - 1] != added[i])
+            added[unique++] = added[i];
+      }
+
+      int[] merged = new int[Math.max(16, size + unique)];
+      int i = 0;
+      int j = 0;
+      int k = 0;
+      while (i < size || j < unique) {
+         if (j == unique ||
+            (i < size && order.compare(rows[i], added[j]) < 0))
+            merged[k++] = rows[i++];
+         else
+            merged[k++] = added[j++];
+      }
+
+      rows = merged;
+      size = k;
+      ++modificationCount;
+   }
+
+   // removes the search saved under tag and returns its former
+   // position, or -1 if there was none
+   public int remove(String tag) {
+      int position = indexOf(tag);
+      table.remove(tag);
+      if (position < 0)
+         return -1;
+
+      System.arraycopy(rows, position + 1, rows, position,
+         size - position - 1);
+      --size;
+      ++modificationCount;
+      return position;
+   }
+
+   // removes the searches saved under tags, closing the gaps in one pass
+   // over the rows, and returns the former positions of those that were
+   // present in ascending order
+   public int[] removeAll(Set<String> tags) {
+      int[] positions = new int[tags.size()];
+      int count = 0;
+      for (String tag : tags) {
+         int position = indexOf(tag);
+         if (position >= 0)
+            positions[count++] = position;
+      }
+      Arrays.sort(positions, 0, count);
+
+      int write = count > 0 ? positions[0] : size;
+      int next = 0;
+      for (int read = write; read < size; ++read) {
+         if (next < count && positions[next] == read)
+            ++next;
+         else
+            rows[write++] = rows[read];
+      }
+      size = write;
+
+      for (String tag : tags)
+         table.remove(tag);
+      ++modificationCount;
+      return Arrays.copyOf(positions, count);
+   }
+}
@@ -0,0 +1,106 @@
+// TimeFormatter.java
+// Formats and parses the save times of searches; one SimpleDateFormat is
+// cached per thread because SimpleDateFormat is not thread-safe. Rows are
+// bound with a second formatter that writes the same text into a char
+// array, so that scrolling allocates nothing
+package com.zoris.twittersearches.core;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+public final class TimeFormatter {
+   // pattern used to display times, and to store them before they were
+   // kept as epoch millis
+   private static final String PATTERN = "dd-MM-yyyy HH:mm:ss";
+
+   // characters format(long, TimeZone, char[]) writes
+   public static final int LENGTH = PATTERN.length();
+
+   private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
+   private static final ThreadLocal<SimpleDateFormat> FORMAT =
+      new ThreadLocal<SimpleDateFormat>() {
+         @Override
+         protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(PATTERN);
+         }
+      };
+
+   private TimeFormatter() {
+   }
+
+   // formats epoch millis for display
+   public static String format(long millis) {
+      return FORMAT.get().format(new Date(millis));
+   }
+
+   // writes millis as format(long) would in zone to out, which must hold
+   // LENGTH characters, and returns the number written. Times outside the
+   // years 1600 to 9999 fall back to format(long), which allocates; the
+   // calendar it uses switches to Julian dates in 1582
+   public static int format(long millis, TimeZone zone, char[] out) {
+      long local = millis + zone.getOffset(millis);
+      long days = floorDiv(local, MILLIS_PER_DAY);
+      int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+
+      // the proleptic Gregorian date of days since the epoch, counting
+      // years from March so that the leap day comes last
+      long shifted = days + 719468; // days since 0000-03-01
+      long era = floorDiv(shifted, 146097);
+      int dayOfEra = (int) (shifted - era * 146097);
+      int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 -
+         dayOfEra / 146096) / 365;
+      int dayOfYear =
+         dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+      int monthFromMarch = (5 * dayOfYear + 2) / 153;
+      int day = dayOfYear - (153 * monthFromMarch + 2) / 5 + 1;
+      int month = monthFromMarch < 10 ? monthFromMarch + 3 :
+         monthFromMarch - 9;
+      long year = era * 400 + yearOfEra + (month <= 2 ? 1 : 0);
+
+      if (year < 1600 || year > 9999) {
+         String text = format(millis);
+         int length = Math.min(text.length(), out.length); // year 10000
+         text.getChars(0, length, out, 0);
+         return length;
+      }
+
+      int seconds = millisOfDay / 1000;
+      twoDigits(day, out, 0);
+      out[2] = '-';
+      twoDigits(month, out, 3);
+      out[5] = '-';
+      twoDigits((int) year / 100, out, 6);
+      twoDigits((int) year % 100, out, 8);
+      out[10] = ' ';
+      twoDigits(seconds / 3600, out, 11);
+      out[13] = ':';
+      twoDigits(seconds / 60 % 60, out, 14);
+      out[16] = ':';
+      twoDigits(seconds % 60, out, 17);
+      return LENGTH;
+   }
+
+   // quotient rounded down, so that times before the epoch fall on the
+   // day they start in
+   private static long floorDiv(long dividend, long divisor) {
+      long quotient = dividend / divisor;
+      return dividend % divisor < 0 ? quotient - 1 : quotient;
+   }
+
+   private static void twoDigits(int value, char[] out, int offset) {
+      out[offset] = (char) ('0' + value / 10);
+      out[offset + 1] = (char) ('0' + value % 10);
+   }
+
+   // parses a formatted time back to epoch millis, or 0 if unparseable
+   public static long parse(String text) {
+      try {
+         return FORMAT.get().parse(text).getTime();
+      } catch (ParseException e) {
+         return 0;
+      }
+   }
+}
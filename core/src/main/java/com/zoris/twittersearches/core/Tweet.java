@@ -0,0 +1,42 @@
+// Tweet.java
+// Author and text of one tweet of a local feed, as TweetMatcher matches
+// it against the saved searches
+package com.zoris.twittersearches.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public final class Tweet {
+   private final String author; // screen name, lower case, without @
+   private final String text;
+
+   public Tweet(String author, String text) {
+      this.author = TweetQuery.author(author);
+      this.text = text;
+   }
+
+   // reads a tweet from one line of a JSON-lines feed: either the
+   // platform's format, with full_text or text and a user object holding
+   // screen_name, or a flat object with user and text strings. Returns
+   // null for a line that is not a tweet
+   public static Tweet fromJson(String line) {
+      try {
+         JSONObject json = new JSONObject(line);
+         String text = json.optString("full_text", json.optString("text"));
+         JSONObject user = json.optJSONObject("user");
+         String author = user != null ?
+            user.optString("screen_name") : json.optString("user");
+         return text.isEmpty() ? null : new Tweet(author, text);
+      } catch (JSONException e) {
+         return null;
+      }
+   }
+
+   public String getAuthor() {
+      return author;
+   }
+
+   public String getText() {
+      return text;
+   }
+}
@@ -0,0 +1,152 @@
+// TweetAutomaton.java
+// Aho-Corasick automaton over a fixed set of patterns, finding every
+// occurrence of all of them in one pass over a text. States are numbered
+// from 0, the root; transitions live in one open-addressing table keyed
+// by state and character, so a large pattern set costs a few arrays
+// rather than an object per state. Immutable once built, so any number
+// of threads may scan with it
+package com.zoris.twittersearches.core;
+
+import java.util.Arrays;
+
+final class TweetAutomaton {
+   // receives the id of each pattern found
+   interface Hits {
+      void hit(int id);
+   }
+
+   private static final long NO_KEY = -1;
+
+   private final long[] keys; // state << 16 | character, or NO_KEY
+   private final int[] targets; // state reached for each key
+   private final int[] fail; // longest proper suffix state of each state
+   private final int[] patterns; // id of the pattern ending at each state
+   private final int[] outputs; // nearest suffix state ending a pattern
+   private final int patternCount;
+
+   // builds the automaton for the first count patterns, which must be
+   // distinct and not empty, reporting patterns[i] as ids[i]
+   TweetAutomaton(String[] patternTexts, int[] ids, int count) {
+      patternCount = count;
+      int maxStates = 1;
+      for (int i = 0; i < count; ++i)
+         maxStates += patternTexts[i].length();
+
+      int capacity = Integer.highestOneBit(Math.max(2, maxStates) * 2) * 2;
+      keys = new long[capacity];
+      Arrays.fill(keys, NO_KEY);
+      targets = new int[capacity];
+      int[] patternAt = new int[maxStates];
+      Arrays.fill(patternAt, -1);
+
+      // the trie, remembering each edge so the states can be visited
+      // breadth first afterwards
+      int[] edgeFrom = new int[maxStates];
+      char[] edgeChar = new char[maxStates];
+      int states = 1;
+      for (int i = 0; i < count; ++i) {
+         String pattern = patternTexts[i];
+         int state = 0;
+         for (int j = 0; j < pattern.length(); ++j) {
+            char c = pattern.charAt(j);
+            int next = next(state, c);
+            if (next < 0) {
+               next = states++;
+               insert(state, c, next);
+               edgeFrom[next] = state;
+               edgeChar[next] = c;
+            }
+            state = next;
+         }
+         patternAt[state] = ids[i];
+      }
+
+      // children of each state, grouped by a counting sort on the parent
+      int[] childStart = new int[states + 1];
+      for (int state = 1; state < states; ++state)
+         ++childStart[edgeFrom[state] + 1];
+      for (int state = 0; state < states; ++state)
+         childStart[state + 1] += childStart[state];
+      int[] children = new int[Math.max(1, states - 1)];
+      int[] filled = Arrays.copyOf(childStart, states);
+      for (int state = 1; state < states; ++state)
+         children[filled[edgeFrom[state]]++] = state;
+
+      // failure and output links, breadth first so that every shorter
+      // state is done before the states that depend on it
+      fail = new int[states];
+      outputs = new int[states];
+      patterns = Arrays.copyOf(patternAt, states);
+      int[] queue = new int[states];
+      int head = 0;
+      int tail = 0;
+      queue[tail++] = 0;
+      while (head < tail) {
+         int state = queue[head++];
+         for (int k = childStart[state]; k < childStart[state + 1]; ++k) {
+            int child = children[k];
+            queue[tail++] = child;
+            if (state == 0)
+               continue; // fails to the root, which ends no pattern
+
+            char c = edgeChar[child];
+            int suffix = fail[state];
+            int next;
+            while ((next = next(suffix, c)) < 0 && suffix != 0)
+               suffix = fail[suffix];
+            fail[child] = next >= 0 ? next : 0;
+            outputs[child] = patterns[fail[child]] >= 0 ?
+               fail[child] : outputs[fail[child]];
+         }
+      }
+   }
+
+   // returns the number of patterns the automaton was built from
+   int patternCount() {
+      return patternCount;
+   }
+
+   // reports every occurrence in text of every pattern, overlapping ones
+   // included, to hits
+   void scan(String text, Hits hits) {
+      int state = 0;
+      for (int i = 0; i < text.length(); ++i) {
+         char c = text.charAt(i);
+         int next;
+         while ((next = next(state, c)) < 0 && state != 0)
+            state = fail[state];
+         state = next >= 0 ? next : 0;
+
+         for (int found = patterns[state] >= 0 ? state : outputs[state];
+            found != 0; found = outputs[found])
+            hits.hit(patterns[found]);
+      }
+   }
+
+   // the state reached from state on c, or -1 if there is no transition
+   private int next(int state, char c) {
+      long key = (long) state << 16 | c;
+      int mask = keys.length - 1;
+      for (int slot = hash(key) & mask; keys[slot] != NO_KEY;
+         slot = (slot + 1) & mask) {
+         if (keys[slot] == key)
+            return targets[slot];
+      }
+      return -1;
+   }
+
+   private void insert(int state, char c, int target) {
+      long key = (long) state << 16 | c;
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (keys[slot] != NO_KEY)
+         slot = (slot + 1) & mask;
+      keys[slot] = key;
+      targets[slot] = target;
+   }
+
+   private static int hash(long key) {
+      long hash = key * 0x9E3779B97F4A7C15L;
+      return (int) (hash ^ (hash >>> 32));
+   }
+}
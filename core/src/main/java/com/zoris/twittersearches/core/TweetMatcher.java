@@ -0,0 +1,489 @@
+// TweetMatcher.java
+// Matches tweets against every saved search at once. The words and
+// phrases of all searches share Aho-Corasick automata, so a tweet's text
+// is scanned once however many searches there are, and only searches
+// with a term that occurred are evaluated. Changing a search compiles
+// just that search: its new terms go into a small second automaton,
+// which is merged into the main one once it grows past a fraction of
+// it. Every method synchronizes on the matcher except the matching,
+// which works on an immutable snapshot and so runs on many threads
+package com.zoris.twittersearches.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+public class TweetMatcher {
+   // the tweets of a feed that each search matched
+   public static final class FeedCounts {
+      private final int tweetCount;
+      private final Map<String, Integer> matchCounts;
+
+      FeedCounts(int tweetCount, Map<String, Integer> matchCounts) {
+         this.tweetCount = tweetCount;
+         this.matchCounts = Collections.unmodifiableMap(matchCounts);
+      }
+
+      // the tweets read, not counting unreadable lines
+      public int getTweetCount() {
+         return tweetCount;
+      }
+
+      // matching tweets by tag, leaving out searches that matched none
+      public Map<String, Integer> getMatchCounts() {
+         return matchCounts;
+      }
+   }
+
+   // the recent automaton is merged into the main one once it has more
+   // than this many patterns and more than the main one's size over
+   // RECENT_FRACTION; so many unused patterns also force a rebuild
+   private static final int MIN_REBUILD = 64;
+   private static final int RECENT_FRACTION = 8;
+
+   // lines of a feed handed to a worker at a time
+   private static final int BATCH_SIZE = 256;
+
+   private static final TweetAutomaton NO_PATTERNS =
+      new TweetAutomaton(new String[0], new int[0], 0);
+
+   // a search compiled against the pattern ids; each literal is coded
+   // as its pattern's id shifted left, plus 1 if it is negated
+   private static final class Compiled {
+      final String query;
+      final TweetQuery parsed;
+      final int[][] clauses;
+
+      Compiled(String query, TweetQuery parsed, int[][] clauses) {
+         this.query = query;
+         this.parsed = parsed;
+         this.clauses = clauses;
+      }
+   }
+
+   private final Map<String, Compiled> searches = new HashMap<>();
+
+   // every pattern in use by its key, and by id the key and the number
+   // of literals using it; ids are not reused until a rebuild, since the
+   // automata may still report them
+   private final Map<String, Integer> patternIds = new HashMap<>();
+   private String[] patternKeys = new String[16]; // null once unused
+   private int[] references = new int[16];
+   private int patternCount; // ids handed out since the last rebuild
+   private int unusedCount; // ids no longer in use
+
+   private TweetAutomaton main = NO_PATTERNS;
+   private TweetAutomaton recent = NO_PATTERNS; // null until rebuilt
+   private int[] recentIds = new int[16]; // text patterns not in main
+   private int recentCount;
+
+   private Snapshot snapshot; // null after any change
+
+   // adds or replaces the search saved under tag
+   public synchronized void put(String tag, String query) {
+      Compiled old = searches.get(tag);
+      if (old != null && old.query.equals(query))
+         return;
+
+      if (old != null)
+         release(old);
+      searches.put(tag, compile(query, TweetQuery.parse(query)));
+      snapshot = null;
+   }
+
+   // removes the search saved under tag, if any
+   public synchronized void remove(String tag) {
+      Compiled old = searches.remove(tag);
+      if (old != null) {
+         release(old);
+         snapshot = null;
+      }
+   }
+
+   // returns the number of searches
+   public synchronized int size() {
+      return searches.size();
+   }
+
+   // returns the tags of the searches tweet matches
+   public List<String> match(Tweet tweet) {
+      Snapshot current = snapshot();
+      Scan scan = new Scan(current);
+      scan.match(tweet);
+
+      List<String> tags = new ArrayList<>(scan.matchedCount);
+      for (int i = 0; i < scan.matchedCount; ++i)
+         tags.add(current.tags[scan.matched[i]]);
+      return tags;
+   }
+
+   // reads a JSON-lines feed of tweets once, on the calling thread, and
+   // counts each search's matches on parallelism tasks run by workers.
+   // Changes made meanwhile apply to the next feed
+   public FeedCounts matchFeed(BufferedReader feed, ExecutorService workers,
+      int parallelism) throws IOException {
+      final Snapshot current = snapshot();
+      final List<String> end = new ArrayList<>(0); // tells workers to stop
+      final BlockingQueue<List<String>> batches =
+         new ArrayBlockingQueue<>(2 * parallelism);
+
+      List<Future<Scan>> scans = new ArrayList<>(parallelism);
+      for (int i = 0; i < parallelism; ++i) {
+         scans.add(workers.submit(new Callable<Scan>() {
+            @Override
+            public Scan call() throws InterruptedException {
+               // keeps taking batches after a failure, so that the reader
+               // is never left blocked on a full queue
+               Scan scan = new Scan(current);
+               RuntimeException failure = null;
+               for (List<String> batch = batches.take(); batch != end;
+                  batch = batches.take()) {
+                  try {
+                     if (failure == null)
+                        scan.matchLines(batch);
+                  } catch (RuntimeException e) {
+                     failure = e;
+                  }
+               }
+               if (failure != null)
+                  throw failure;
+               return scan;
+            }
+         }));
+      }
+
+      try {
+         try {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            for (String line; (line = feed.readLine()) != null; ) {
+               batch.add(line);
+               if (batch.size() == BATCH_SIZE) {
+                  batches.put(batch);
+                  batch = new ArrayList<>(BATCH_SIZE);
+               }
+            }
+            if (!batch.isEmpty())
+               batches.put(batch);
+         }
+         finally {
+            for (int i = 0; i < parallelism; ++i)
+               batches.put(end);
+         }
+
+         // adds up the counts of every worker
+         int tweets = 0;
+         int[] counts = new int[current.tags.length];
+         for (Future<Scan> future : scans) {
+            Scan scan = future.get();
+            tweets += scan.tweetCount;
+            for (int i = 0; i < counts.length; ++i)
+               counts[i] += scan.counts[i];
+         }
+
+         Map<String, Integer> matchCounts = new HashMap<>();
+         for (int i = 0; i < counts.length; ++i) {
+            if (counts[i] > 0)
+               matchCounts.put(current.tags[i], counts[i]);
+         }
+         return new FeedCounts(tweets, matchCounts);
+      } catch (InterruptedException e) {
+         for (Future<Scan> future : scans)
+            future.cancel(true);
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Feed matching interrupted");
+      } catch (ExecutionException e) {
+         throw new IllegalStateException(e.getCause());
+      }
+   }
+
+   // interns the literals of parsed and returns the compiled search
+   private Compiled compile(String query, TweetQuery parsed) {
+      List<TweetQuery.Literal[]> clauses = parsed.clauses();
+      int[][] compiled = new int[clauses.size()][];
+      for (int i = 0; i < compiled.length; ++i) {
+         TweetQuery.Literal[] clause = clauses.get(i);
+         compiled[i] = new int[clause.length];
+         for (int j = 0; j < clause.length; ++j)
+            compiled[i][j] = intern(clause[j]) << 1 |
+               (clause[j].negated ? 1 : 0);
+      }
+      return new Compiled(query, parsed, compiled);
+   }
+
+   // returns the id of literal's pattern, adding the pattern if new
+   private int intern(TweetQuery.Literal literal) {
+      Integer id = patternIds.get(literal.key);
+      if (id == null) {
+         id = patternCount++;
+         if (id == patternKeys.length) {
+            patternKeys = Arrays.copyOf(patternKeys, id * 2);
+            references = Arrays.copyOf(references, id * 2);
+         }
+         patternKeys[id] = literal.key;
+         patternIds.put(literal.key, id);
+
+         // authors are looked up, not scanned for
+         if (!literal.isAuthor()) {
+            if (recentCount == recentIds.length)
+               recentIds = Arrays.copyOf(recentIds, recentCount * 2);
+            recentIds[recentCount++] = id;
+            recent = null;
+         }
+      }
+      ++references[id];
+      return id;
+   }
+
+   // drops search's uses of its patterns
+   private void release(Compiled search) {
+      for (int[] clause : search.clauses) {
+         for (int code : clause) {
+            int id = code >>> 1;
+            if (--references[id] == 0) {
+               patternIds.remove(patternKeys[id]);
+               patternKeys[id] = null;
+               ++unusedCount;
+            }
+         }
+      }
+   }
+
+   // compiles every search again with ids numbered afresh and puts all
+   // of their text patterns in the main automaton
+   private void rebuild() {
+      patternIds.clear();
+      Arrays.fill(patternKeys, null);
+      Arrays.fill(references, 0);
+      patternCount = 0;
+      unusedCount = 0;
+      recentCount = 0;
+      for (Map.Entry<String, Compiled> entry : searches.entrySet()) {
+         Compiled search = entry.getValue();
+         entry.setValue(compile(search.query, search.parsed));
+      }
+
+      main = automaton(recentIds, recentCount);
+      recentCount = 0;
+      recent = NO_PATTERNS;
+   }
+
+   // an automaton for the patterns of the first count ids still in use
+   private TweetAutomaton automaton(int[] ids, int count) {
+      String[] keys = new String[count];
+      int[] used = new int[count];
+      int size = 0;
+      for (int i = 0; i < count; ++i) {
+         if (patternKeys[ids[i]] != null) {
+            keys[size] = patternKeys[ids[i]];
+            used[size++] = ids[i];
+         }
+      }
+      return new TweetAutomaton(keys, used, size);
+   }
+
+   // returns the searches as they are now, building the automata first
+   // if they are out of date; searches with no terms are left out
+   synchronized Snapshot snapshot() {
+      if (snapshot != null)
+         return snapshot;
+
+      if ((unusedCount > MIN_REBUILD && 2 * unusedCount > patternIds.size()) ||
+         (recentCount > MIN_REBUILD &&
+         recentCount > main.patternCount() / RECENT_FRACTION))
+         rebuild();
+      else if (recent == null)
+         recent = automaton(recentIds, recentCount);
+
+      Map<String, Integer> authors = new HashMap<>();
+      for (Map.Entry<String, Integer> pattern : patternIds.entrySet()) {
+         if (!pattern.getKey().startsWith(" "))
+            authors.put(pattern.getKey(), pattern.getValue());
+      }
+
+      List<String> tags = new ArrayList<>(searches.size());
+      List<int[][]> clauses = new ArrayList<>(searches.size());
+      for (Map.Entry<String, Compiled> search : searches.entrySet()) {
+         if (search.getValue().clauses.length > 0) {
+            tags.add(search.getKey());
+            clauses.add(search.getValue().clauses);
+         }
+      }
+
+      // a search can only match a tweet in which every clause holds, so
+      // it is posted under the patterns of just one clause: the one
+      // without a minus whose patterns the fewest searches use. Searches
+      // with no such clause must be checked against every tweet
+      int[] anchors = new int[clauses.size()];
+      int[] postingCounts = new int[patternCount];
+      List<Integer> unanchored = new ArrayList<>();
+      for (int q = 0; q < anchors.length; ++q) {
+         anchors[q] = anchor(clauses.get(q));
+         if (anchors[q] < 0)
+            unanchored.add(q);
+         else {
+            for (int code : clauses.get(q)[anchors[q]])
+               ++postingCounts[code >>> 1];
+         }
+      }
+      int[][] postings = new int[patternCount][];
+      for (int id = 0; id < patternCount; ++id)
+         postings[id] = new int[postingCounts[id]];
+      for (int q = 0; q < anchors.length; ++q) {
+         if (anchors[q] < 0)
+            continue;
+         for (int code : clauses.get(q)[anchors[q]]) {
+            int id = code >>> 1;
+            postings[id][postings[id].length - postingCounts[id]--] = q;
+         }
+      }
+      int[] always = new int[unanchored.size()];
+      for (int i = 0; i < always.length; ++i)
+         always[i] = unanchored.get(i);
+
+      snapshot = new Snapshot(main, recent, authors,
+         tags.toArray(new String[tags.size()]),
+         clauses.toArray(new int[clauses.size()][][]), postings, always);
+      return snapshot;
+   }
+
+   // returns the index of the clause to post a search under, or -1 if
+   // every clause has a negated literal
+   private int anchor(int[][] clauses) {
+      int best = -1;
+      long bestUses = Long.MAX_VALUE;
+      candidates:
+      for (int i = 0; i < clauses.length; ++i) {
+         long uses = 0;
+         for (int code : clauses[i]) {
+            if ((code & 1) != 0)
+               continue candidates;
+            uses += references[code >>> 1];
+         }
+         if (uses < bestUses) {
+            best = i;
+            bestUses = uses;
+         }
+      }
+      return best;
+   }
+
+   // the searches and automata frozen for matching on any thread
+   static final class Snapshot {
+      final TweetAutomaton main;
+      final TweetAutomaton recent;
+      final Map<String, Integer> authors; // pattern id by author key
+      final String[] tags;
+      final int[][][] clauses; // of the search at each index
+      final int[][] postings; // searches using each pattern, by id
+      final int[] unanchored; // searches to check against every tweet
+
+      Snapshot(TweetAutomaton main, TweetAutomaton recent,
+         Map<String, Integer> authors, String[] tags, int[][][] clauses,
+         int[][] postings, int[] unanchored) {
+         this.main = main;
+         this.recent = recent;
+         this.authors = authors;
+         this.tags = tags;
+         this.clauses = clauses;
+         this.postings = postings;
+         this.unanchored = unanchored;
+      }
+   }
+
+   // one thread's matching state for a snapshot, reused across tweets so
+   // that matching allocates nothing but the normalized text
+   private static final class Scan implements TweetAutomaton.Hits {
+      private final Snapshot snapshot;
+      private final boolean[] hit; // by pattern id
+      private final int[] hitIds; // the ids set in hit
+      private int hitCount;
+      private final int[] checked; // tweet number each search was checked
+      private int tweetCount;
+      final int[] counts; // tweets each search matched
+      final int[] matched; // searches the last tweet matched
+      int matchedCount;
+
+      Scan(Snapshot snapshot) {
+         this.snapshot = snapshot;
+         hit = new boolean[snapshot.postings.length];
+         hitIds = new int[hit.length];
+         checked = new int[snapshot.tags.length];
+         counts = new int[snapshot.tags.length];
+         matched = new int[snapshot.tags.length];
+      }
+
+      @Override
+      public void hit(int id) {
+         if (!hit[id]) {
+            hit[id] = true;
+            hitIds[hitCount++] = id;
+         }
+      }
+
+      void matchLines(List<String> lines) {
+         for (String line : lines) {
+            Tweet tweet = Tweet.fromJson(line);
+            if (tweet != null)
+               match(tweet);
+         }
+      }
+
+      // finds the searches tweet matches, counting each
+      void match(Tweet tweet) {
+         ++tweetCount;
+         matchedCount = 0;
+         String text = TweetQuery.pattern(tweet.getText());
+         snapshot.main.scan(text, this);
+         snapshot.recent.scan(text, this);
+         Integer author =
+            snapshot.authors.get(TweetQuery.authorKey(tweet.getAuthor()));
+         if (author != null)
+            hit(author);
+
+         for (int i = 0; i < hitCount; ++i) {
+            for (int search : snapshot.postings[hitIds[i]])
+               check(search);
+         }
+         for (int search : snapshot.unanchored)
+            check(search);
+
+         for (int i = 0; i < hitCount; ++i)
+            hit[hitIds[i]] = false;
+         hitCount = 0;
+      }
+
+      // counts search if every clause has a literal that holds, checking
+      // each search once per tweet
+      private void check(int search) {
+         if (checked[search] == tweetCount)
+            return;
+         checked[search] = tweetCount;
+
+         for (int[] clause : snapshot.clauses[search]) {
+            boolean holds = false;
+            for (int code : clause) {
+               if (hit[code >>> 1] != ((code & 1) != 0)) {
+                  holds = true;
+                  break;
+               }
+            }
+            if (!holds)
+               return;
+         }
+         ++counts[search];
+         matched[matchedCount++] = search;
+      }
+   }
+}
@@ -0,0 +1,170 @@
+// TweetQuery.java
+// A saved query parsed for matching tweets locally. Terms must all
+// appear, except that terms joined by OR need only one of them; a term
+// starting with - must not appear. A term is a word, a "quoted phrase"
+// or from:user. Words and phrases match whole words of a tweet's text,
+// ignoring case and punctuation. Parentheses and operators that cannot
+// be checked against a tweet's text and author, such as lang:, are
+// ignored
+package com.zoris.twittersearches.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public final class TweetQuery {
+   // operators that are kept as terms rather than ignored
+   private static final String FROM = "from:";
+
+   // one term of a query: the text a tweet is matched against, in the
+   // form pattern returns, or the author's name prefixed by FROM
+   static final class Literal {
+      final String key;
+      final boolean negated;
+
+      Literal(String key, boolean negated) {
+         this.key = key;
+         this.negated = negated;
+      }
+
+      boolean isAuthor() {
+         return key.startsWith(FROM);
+      }
+   }
+
+   private final List<Literal[]> clauses; // all must hold; any literal
+
+   private TweetQuery(List<Literal[]> clauses) {
+      this.clauses = clauses;
+   }
+
+   // the clauses, each satisfied by any one of its literals
+   List<Literal[]> clauses() {
+      return clauses;
+   }
+
+   // true if no tweet can match, as for a query with no usable terms
+   public boolean isEmpty() {
+      return clauses.isEmpty();
+   }
+
+   // parses query; never fails, ignoring what it cannot use
+   public static TweetQuery parse(String query) {
+      List<Literal[]> clauses = new ArrayList<>();
+      List<Literal> clause = new ArrayList<>();
+      boolean or = false; // the last token was OR
+
+      int i = 0;
+      while (i < query.length()) {
+         char c = query.charAt(i);
+         if (Character.isWhitespace(c) || c == '(' || c == ')') {
+            ++i;
+            continue;
+         }
+
+         boolean negated = c == '-' && i + 1 < query.length() &&
+            !Character.isWhitespace(query.charAt(i + 1));
+         if (negated)
+            c = query.charAt(++i);
+
+         String token;
+         boolean quoted = c == '"';
+         if (quoted) {
+            int end = query.indexOf('"', i + 1);
+            end = end < 0 ? query.length() : end;
+            token = query.substring(i + 1, end);
+            i = end + 1;
+         }
+         else {
+            int end = i;
+            while (end < query.length() &&
+               !Character.isWhitespace(query.charAt(end)) &&
+               query.charAt(end) != '(' && query.charAt(end) != ')')
+               ++end;
+            token = query.substring(i, end);
+            i = end;
+         }
+
+         if (!quoted && !negated && token.equals("OR")) {
+            or = !clause.isEmpty();
+            continue;
+         }
+
+         Literal literal = literal(token, quoted, negated);
+         if (literal == null)
+            continue;
+
+         // a negated term is a clause of its own, since OR with it would
+         // make the clause hold for almost every tweet
+         if (!or || negated || hasNegation(clause)) {
+            if (!clause.isEmpty())
+               clauses.add(clause.toArray(new Literal[clause.size()]));
+            clause.clear();
+         }
+         clause.add(literal);
+         or = false;
+      }
+      if (!clause.isEmpty())
+         clauses.add(clause.toArray(new Literal[clause.size()]));
+      return new TweetQuery(clauses);
+   }
+
+   private static boolean hasNegation(List<Literal> clause) {
+      for (Literal literal : clause) {
+         if (literal.negated)
+            return true;
+      }
+      return false;
+   }
+
+   // the literal for token, or null if it has nothing to match
+   private static Literal literal(String token, boolean quoted,
+      boolean negated) {
+      if (!quoted) {
+         String lowered = token.toLowerCase(Locale.ROOT);
+         if (lowered.startsWith(FROM)) {
+            String user = author(token.substring(FROM.length()));
+            return user.isEmpty() ? null : new Literal(FROM + user, negated);
+         }
+
+         // other operators, such as lang:en or since:2018-01-01
+         int colon = token.indexOf(':');
+         if (colon > 0 && colon < token.length() - 1 &&
+            Character.isLetter(token.charAt(0)) && !token.startsWith("http"))
+            return null;
+      }
+
+      String pattern = pattern(token);
+      return pattern.length() > 2 ? new Literal(pattern, negated) : null;
+   }
+
+   // the key of the literal from:name
+   static String authorKey(String name) {
+      return FROM + author(name);
+   }
+
+   // the form an author's name is compared in: without @, lower case
+   static String author(String name) {
+      String user = name.startsWith("@") ? name.substring(1) : name;
+      return user.toLowerCase(Locale.ROOT);
+   }
+
+   // text lowered with every run of characters other than letters,
+   // digits, #, @ and _ turned into a single space, with a space at each
+   // end, so that a word or phrase is found in it as " word "
+   static String pattern(String text) {
+      StringBuilder normalized = new StringBuilder(text.length() + 2);
+      normalized.append(' ');
+      for (int i = 0; i < text.length(); ++i) {
+         char c = text.charAt(i);
+         if (Character.isLetterOrDigit(c) || c == '#' || c == '@' ||
+            c == '_')
+            normalized.append(Character.toLowerCase(c));
+         else if (normalized.charAt(normalized.length() - 1) != ' ')
+            normalized.append(' ');
+      }
+      if (normalized.charAt(normalized.length() - 1) != ' ')
+         normalized.append(' ');
+      return normalized.toString();
+   }
+}
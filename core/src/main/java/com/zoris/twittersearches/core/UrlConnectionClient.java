@@ -0,0 +1,119 @@
+// UrlConnectionClient.java
+// HttpClient over the platform's HttpURLConnection, with its own caching
+// turned off since PreviewFetcher keeps the cache. Redirects of GET
+// requests are followed here, including from http to https, which
+// HttpURLConnection refuses
+package com.zoris.twittersearches.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class UrlConnectionClient implements HttpClient {
+   private static final int MAX_REDIRECTS = 5;
+
+   private final int timeoutMillis; // for connecting and for each read
+
+   public UrlConnectionClient(int timeoutMillis) {
+      this.timeoutMillis = timeoutMillis;
+   }
+
+   @Override
+   public HttpResponse get(String url, Map<String, String> headers)
+      throws IOException {
+      URL location = new URL(url);
+      for (int redirects = 0; ; ++redirects) {
+         HttpResponse response = request(location, headers, null);
+         int status = response.getStatus();
+         String next = response.getHeader("Location");
+         if (status < 300 || status >= 400 ||
+            status == HttpResponse.NOT_MODIFIED || next == null ||
+            redirects == MAX_REDIRECTS)
+            return response;
+
+         location = new URL(location, next); // may be relative
+      }
+   }
+
+   @Override
+   public HttpResponse post(String url, Map<String, String> headers,
+      byte[] body) throws IOException {
+      return request(new URL(url), headers, body);
+   }
+
+   // performs one request without following redirects; a GET, or a POST
+   // of body unless it is null
+   private HttpResponse request(URL url, Map<String, String> headers,
+      byte[] body) throws IOException {
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+      try {
+         connection.setConnectTimeout(timeoutMillis);
+         connection.setReadTimeout(timeoutMillis);
+         connection.setUseCaches(false);
+         connection.setInstanceFollowRedirects(false);
+         for (Map.Entry<String, String> header : headers.entrySet())
+            connection.setRequestProperty(header.getKey(), header.getValue());
+         if (body != null) {
+            connection.setDoOutput(true); // makes it a POST
+            connection.setFixedLengthStreamingMode(body.length);
+            OutputStream out = connection.getOutputStream();
+            try {
+               out.write(body);
+            }
+            finally {
+               out.close();
+            }
+         }
+
+         int status = connection.getResponseCode();
+         Map<String, String> fields = new HashMap<>();
+         for (Map.Entry<String, List<String>> field :
+            connection.getHeaderFields().entrySet()) {
+            if (field.getKey() != null) // the status line has no name
+               fields.put(field.getKey(), join(field.getValue()));
+         }
+
+         // error pages have their body on the error stream
+         InputStream in = status >= 400 ?
+            connection.getErrorStream() : connection.getInputStream();
+         return new HttpResponse(status, fields, readAll(in));
+      }
+      finally {
+         connection.disconnect();
+      }
+   }
+
+   private static String join(List<String> values) {
+      StringBuilder joined = new StringBuilder();
+      for (String value : values) {
+         if (joined.length() > 0)
+            joined.append(", ");
+         joined.append(value);
+      }
+      return joined.toString();
+   }
+
+   // reads in to the end and closes it; a missing stream is an empty body
+   private static byte[] readAll(InputStream in) throws IOException {
+      if (in == null)
+         return new byte[0];
+
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      try {
+         byte[] chunk = new byte[8192];
+         int count;
+         while ((count = in.read(chunk)) > 0)
+            body.write(chunk, 0, count);
+      }
+      finally {
+         in.close();
+      }
+      return body.toByteArray();
+   }
+}
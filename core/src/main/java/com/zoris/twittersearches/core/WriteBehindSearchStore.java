@@ -0,0 +1,293 @@
+// WriteBehindSearchStore.java
+// SearchStore that answers reads from memory and passes changes to
+// another store in the background. Changes within a short window are
+// coalesced per tag and written as one batch. Until then each change is
+// appended to a small journal file, which is replayed by load, so edits
+// survive the process being killed
+package com.zoris.twittersearches.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class WriteBehindSearchStore implements SearchStore {
+   // operation codes that start every journal record
+   private static final byte OP_PUT = 1;
+   private static final byte OP_REMOVE = 2;
+
+   // batches at least this large are already coalesced by the caller,
+   // so they are written through instead of journaled
+   private static final int WRITE_THROUGH_SIZE = 64;
+
+   private final SearchStore store; // where changes end up
+   private final File journalFile;
+   private final ScheduledExecutorService executor;
+   private final long delayMillis; // how long changes wait to coalesce
+
+   // latest unwritten change for each tag; a null record is a removal
+   private final Map<String, String> pending = new HashMap<>();
+   private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+   private final DataOutputStream out = new DataOutputStream(buffer);
+   private FileOutputStream journal; // opened lazily in append mode
+   private boolean flushScheduled;
+
+   // held for a whole flush, so that two flushes, such as the scheduled
+   // one and one before exit, never write their batches out of order;
+   // taken before the lock on this, never while holding it
+   private final Object flushLock = new Object();
+
+   // writes the pending changes; runs on executor
+   private final Runnable flushTask = new Runnable() {
+      @Override
+      public void run() {
+         try {
+            flush();
+         } catch (IOException e) {
+            e.printStackTrace(); // changes stay pending and journaled
+         }
+      }
+   };
+
+   // changes are written to store on executor, delayMillis after the
+   // first change of a batch; store must only be used through this one
+   public WriteBehindSearchStore(SearchStore store, File journalFile,
+      ScheduledExecutorService executor, long delayMillis) {
+      this.store = store;
+      this.journalFile = journalFile;
+      this.executor = executor;
+      this.delayMillis = delayMillis;
+   }
+
+   // loads store, then writes it any changes left in the journal by a
+   // process that was killed before flushing them
+   @Override
+   public void load() throws IOException {
+      store.load();
+
+      Map<String, String> replayed = readJournal();
+      if (!replayed.isEmpty())
+         store.putAll(replayed);
+
+      synchronized (this) {
+         pending.clear();
+         truncateJournal();
+      }
+   }
+
+   @Override
+   public synchronized String get(String tag) {
+      if (pending.containsKey(tag))
+         return pending.get(tag);
+      return store.get(tag);
+   }
+
+   @Override
+   public synchronized Map<String, String> getAll() {
+      Map<String, String> all = new HashMap<>(store.getAll());
+      for (Map.Entry<String, String> change : pending.entrySet()) {
+         if (change.getValue() == null)
+            all.remove(change.getKey());
+         else
+            all.put(change.getKey(), change.getValue());
+      }
+      return Collections.unmodifiableMap(all);
+   }
+
+   @Override
+   public synchronized void put(String tag, String record)
+      throws IOException {
+      writeRecord(OP_PUT, tag, record);
+      appendJournal();
+      pending.put(tag, record);
+      scheduleFlush();
+   }
+
+   @Override
+   public void putAll(Map<String, String> records) throws IOException {
+      if (records.size() >= WRITE_THROUGH_SIZE) {
+         // write earlier changes first so they can't overwrite these
+         synchronized (flushLock) {
+            flush();
+            store.putAll(records);
+         }
+         return;
+      }
+
+      synchronized (this) {
+         for (Map.Entry<String, String> entry : records.entrySet()) {
+            writeRecord(entry.getValue() != null ? OP_PUT : OP_REMOVE,
+               entry.getKey(), entry.getValue());
+         }
+         appendJournal();
+         pending.putAll(records);
+         scheduleFlush();
+      }
+   }
+
+   @Override
+   public synchronized void remove(String tag) throws IOException {
+      writeRecord(OP_REMOVE, tag, null);
+      appendJournal();
+      pending.put(tag, null);
+      scheduleFlush();
+   }
+
+   // writes every pending change to store as one batch; safe to call
+   // from any thread, e.g. right before the process is killed
+   @Override
+   public void flush() throws IOException {
+      synchronized (flushLock) {
+         flushPending();
+      }
+   }
+
+   private void flushPending() throws IOException {
+      Map<String, String> batch;
+      synchronized (this) {
+         flushScheduled = false;
+         if (pending.isEmpty())
+            return;
+         batch = new HashMap<>(pending);
+      }
+
+      store.putAll(batch);
+      store.flush();
+
+      // keep changes made while the batch was written; the journal is
+      // cleared only once nothing is pending, as it may hold them too
+      synchronized (this) {
+         Iterator<Map.Entry<String, String>> changes =
+            pending.entrySet().iterator();
+         while (changes.hasNext()) {
+            Map.Entry<String, String> change = changes.next();
+            if (batch.containsKey(change.getKey()) &&
+               batch.get(change.getKey()) == change.getValue())
+               changes.remove();
+         }
+
+         if (pending.isEmpty())
+            truncateJournal();
+      }
+   }
+
+   @Override
+   public void close() throws IOException {
+      try {
+         flush();
+      }
+      finally {
+         synchronized (this) {
+            if (journal != null) {
+               journal.close();
+               journal = null;
+            }
+         }
+         store.close();
+      }
+   }
+
+   // runs flushTask after the window unless it is already scheduled
+   private void scheduleFlush() {
+      if (!flushScheduled) {
+         flushScheduled = true;
+         executor.schedule(flushTask, delayMillis, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   // encodes one record into the pending journal buffer
+   private void writeRecord(byte op, String tag, String record)
+      throws IOException {
+      out.writeByte(op);
+      writeString(tag);
+      if (record != null)
+         writeString(record);
+   }
+
+   // appends the buffered records with one unsynced write; that reaches
+   // the kernel, so it survives the process but not a power loss
+   private void appendJournal() throws IOException {
+      if (journal == null)
+         journal = new FileOutputStream(journalFile, true);
+
+      try {
+         journal.write(buffer.toByteArray());
+      }
+      finally {
+         buffer.reset();
+      }
+   }
+
+   private void truncateJournal() throws IOException {
+      if (journal == null)
+         journal = new FileOutputStream(journalFile, true);
+      journal.getChannel().truncate(0);
+   }
+
+   // returns the final change for each tag in the journal, ignoring a
+   // record torn by a crash
+   private Map<String, String> readJournal() throws IOException {
+      Map<String, String> changes = new LinkedHashMap<>();
+      if (!journalFile.exists())
+         return changes;
+
+      byte[] data = new byte[(int) journalFile.length()];
+      try (FileInputStream in = new FileInputStream(journalFile)) {
+         int read = 0;
+         while (read < data.length) {
+            int count = in.read(data, read, data.length - read);
+            if (count < 0)
+               break;
+            read += count;
+         }
+      }
+
+      ByteBuffer bytes = ByteBuffer.wrap(data);
+      try {
+         while (bytes.hasRemaining()) {
+            byte op = bytes.get();
+            String tag = readString(bytes);
+
+            if (op == OP_PUT)
+               changes.put(tag, readString(bytes));
+            else if (op == OP_REMOVE)
+               changes.put(tag, null);
+            else
+               throw new IOException("Corrupt search journal: " +
+                  journalFile);
+         }
+      }
+      catch (BufferUnderflowException e) {
+         // the last append was torn; the change was never acknowledged
+      }
+      return changes;
+   }
+
+   private void writeString(String value) throws IOException {
+      byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(utf8.length);
+      out.write(utf8);
+   }
+
+   private static String readString(ByteBuffer bytes) {
+      int length = bytes.getInt();
+      if (length < 0 || length > bytes.remaining())
+         throw new BufferUnderflowException();
+      String value = new String(bytes.array(), bytes.position(), length,
+         StandardCharsets.UTF_8);
+      bytes.position(bytes.position() + length);
+      return value;
+   }
+}
@@ -0,0 +1,165 @@
+// LogSearchStoreTest.java
+// Checks that a search log reads back what was written to it across
+// reopening and compaction, drops only the torn record of an append cut
+// short by a crash, and keeps a log damaged elsewhere aside instead of
+// compacting over it
+package com.zoris.twittersearches.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+public class LogSearchStoreTest {
+   private File directory;
+   private File file;
+
+   @Before
+   public void createDirectory() throws IOException {
+      directory = File.createTempFile("log", "");
+      directory.delete();
+      directory.mkdir();
+      file = new File(directory, "searches.log");
+   }
+
+   @After
+   public void deleteDirectory() {
+      for (File child : directory.listFiles())
+         child.delete();
+      directory.delete();
+   }
+
+   @Test
+   public void roundTripAcrossReopening() throws IOException {
+      Map<String, String> expected = new HashMap<>();
+      LogSearchStore store = open();
+      store.put("a", "{\"query\":\"first\"}");
+      store.put("b", "{\"query\":\"\u03b1\u03b2\"}");
+      store.put("a", "{\"query\":\"second\"}");
+      store.remove("b");
+      Map<String, String> batch = new HashMap<>();
+      batch.put("c", "{\"query\":\"third\"}");
+      batch.put("d", null); // removing what is not there writes nothing
+      store.putAll(batch);
+      store.close();
+      expected.put("a", "{\"query\":\"second\"}");
+      expected.put("c", "{\"query\":\"third\"}");
+
+      store = open();
+      assertEquals(expected, store.getAll());
+      assertEquals("{\"query\":\"second\"}", store.get("a"));
+      assertNull(store.get("b"));
+      assertNull(store.takeCorruptCopy());
+      store.close();
+   }
+
+   // enough overwrites to compact the log several times
+   @Test
+   public void compactionKeepsLiveRecords() throws IOException {
+      LogSearchStore store = open();
+      for (int i = 0; i < 1000; ++i)
+         store.put("tag " + i % 10, "record " + i);
+      store.close();
+
+      store = open();
+      Map<String, String> all = store.getAll();
+      assertEquals(10, all.size());
+      for (int i = 0; i < 10; ++i)
+         assertEquals("record " + (990 + i), all.get("tag " + i));
+      store.close();
+   }
+
+   // an append cut short by a crash loses only its own record
+   @Test
+   public void tornTailIsDropped() throws IOException {
+      LogSearchStore store = open();
+      store.put("a", "kept");
+      store.put("b", "torn");
+      store.close();
+      long length = file.length();
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+         raf.setLength(length - 2);
+      }
+
+      store = open();
+      assertEquals("kept", store.get("a"));
+      assertNull(store.get("b"));
+      assertNull(store.takeCorruptCopy());
+      store.put("c", "after");
+      store.close();
+
+      store = open();
+      assertEquals(2, store.getAll().size());
+      assertEquals("after", store.get("c"));
+      store.close();
+   }
+
+   // bytes that are no record keep the searches read before them, and
+   // the damaged log is copied aside whole
+   @Test
+   public void damagedLogIsKeptAside() throws IOException {
+      LogSearchStore store = open();
+      store.put("a", "before");
+      store.close();
+      try (FileOutputStream out = new FileOutputStream(file, true)) {
+         out.write(new byte[] {9, 0, 0, 0, 1, 'x'});
+      }
+      long damagedLength = file.length();
+
+      store = open();
+      assertEquals("before", store.get("a"));
+      File copy = store.takeCorruptCopy();
+      assertNotNull(copy);
+      assertEquals(damagedLength, copy.length());
+      assertNull(store.takeCorruptCopy());
+
+      // later changes and compactions keep the salvaged search
+      for (int i = 0; i < 200; ++i)
+         store.put("b", "after " + i);
+      store.close();
+      store = open();
+      assertEquals("before", store.get("a"));
+      assertEquals("after 199", store.get("b"));
+      store.close();
+   }
+
+   @Test
+   public void unrecognizedLogIsKeptAside() throws IOException {
+      try (FileOutputStream out = new FileOutputStream(file)) {
+         out.write("not a log".getBytes(StandardCharsets.UTF_8));
+      }
+
+      LogSearchStore store = open();
+      assertTrue(store.getAll().isEmpty());
+      assertNotNull(store.takeCorruptCopy());
+      store.put("a", "new");
+      store.close();
+
+      store = open();
+      assertEquals("new", store.get("a"));
+      store.close();
+   }
+
+   @Test(expected = IOException.class)
+   public void refusesWritesBeforeLoading() throws IOException {
+      new LogSearchStore(file).put("a", "unloaded");
+   }
+
+   private LogSearchStore open() throws IOException {
+      LogSearchStore store = new LogSearchStore(file);
+      store.load();
+      return store;
+   }
+}
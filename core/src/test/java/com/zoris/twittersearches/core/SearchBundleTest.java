@@ -0,0 +1,111 @@
+// SearchBundleTest.java
+// Checks that bundles read back the searches written to them, and that
+// truncated, foreign or corrupt files fail with an IOException instead
+// of returning wrong searches or exhausting memory
+package com.zoris.twittersearches.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+
+public class SearchBundleTest {
+   @Test
+   public void roundTripKeepsEverySearch() throws IOException {
+      TagIndex searches = new TagIndex(new SearchTable());
+      searches.put(new Query("java", "lang:en java", 1000, 5000));
+      searches.put(new Query("javascript", "js OR javascript", 900, 900));
+      searches.put(new Query("javadoc", "\u03b1\u03b2 docs", -50, 7));
+      // tags sharing only the high surrogate of their first character
+      searches.put(new Query("\uD83D\uDE00 a", "smile", 1, 1));
+      searches.put(new Query("\uD83D\uDE01 b", "grin", Long.MAX_VALUE, 0));
+      searches.put(new Query("x", repeat('q', 5000), 0, 0));
+
+      SearchBundle.Reader reader = read(write(searches));
+      assertEquals(searches.size(), reader.getCount());
+      for (int i = 0; i < searches.size(); ++i)
+         assertSearch(searches.get(i), reader.next());
+      assertNull(reader.next());
+      reader.close();
+   }
+
+   @Test
+   public void emptyBundleHasNoSearches() throws IOException {
+      SearchBundle.Reader reader = read(write(new TagIndex(new SearchTable())));
+      assertEquals(0, reader.getCount());
+      assertNull(reader.next());
+   }
+
+   @Test(expected = IOException.class)
+   public void rejectsOtherFiles() throws IOException {
+      read("{\"tag\":\"a\",\"query\":\"b\"}\n".getBytes(
+         StandardCharsets.UTF_8));
+   }
+
+   @Test(expected = IOException.class)
+   public void truncatedBundleFails() throws IOException {
+      TagIndex searches = new TagIndex(new SearchTable());
+      for (int i = 0; i < 1000; ++i)
+         searches.put(new Query("tag " + i, "query " + i * 7919, i, i));
+      byte[] bytes = write(searches);
+
+      SearchBundle.Reader reader = read(Arrays.copyOf(bytes, bytes.length / 2));
+      while (reader.next() != null) {
+      }
+   }
+
+   // a string length far beyond any search fails before it is allocated
+   @Test(expected = IOException.class)
+   public void rejectsHugeStringLength() throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      out.write(new byte[] {'T', 'S', 'B', 1});
+      DeflaterOutputStream data = new DeflaterOutputStream(out);
+      writeVarint(data, 1); // one search
+      writeVarint(data, 0); // sharing nothing with the previous tag
+      writeVarint(data, Integer.MAX_VALUE); // the tag's length
+      data.close();
+
+      read(out.toByteArray()).next();
+   }
+
+   private static byte[] write(SearchList searches) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      SearchBundle.write(searches, out);
+      return out.toByteArray();
+   }
+
+   private static SearchBundle.Reader read(byte[] bytes)
+      throws IOException {
+      return new SearchBundle.Reader(new ByteArrayInputStream(bytes));
+   }
+
+   private static void assertSearch(Query expected, Query actual) {
+      assertEquals(expected.getTag(), actual.getTag());
+      assertEquals(expected.getQuery(), actual.getQuery());
+      assertEquals(expected.getTime(), actual.getTime());
+      assertEquals(expected.getLastUsed(), actual.getLastUsed());
+   }
+
+   private static void writeVarint(DeflaterOutputStream out, long value)
+      throws IOException {
+      while ((value & ~0x7FL) != 0) {
+         out.write((int) (value & 0x7F) | 0x80);
+         value >>>= 7;
+      }
+      out.write((int) value);
+   }
+
+   private static String repeat(char c, int count) {
+      StringBuilder text = new StringBuilder(count);
+      for (int i = 0; i < count; ++i)
+         text.append(c);
+      return text.toString();
+   }
+}
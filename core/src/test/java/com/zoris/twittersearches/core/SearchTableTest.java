@@ -0,0 +1,87 @@
+// SearchTableTest.java
+// Checks SearchTable against a plain map of Query records through a long
+// run of random puts, replacements and removals, with queries of mixed
+// lengths and character widths so that the packed text is compacted and
+// grown many times
+package com.zoris.twittersearches.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class SearchTableTest {
+   private static final int TAGS = 200;
+   private static final int STEPS = 200_000;
+   private static final long SEED = 1;
+
+   // a query replaced by a shorter one once made compaction copy the old
+   // text and overflow the compacted array
+   @Test
+   public void replaceWithShorterQuery() {
+      SearchTable table = new SearchTable();
+      table.put(new Query("A", repeat('a', 300), 1, 1));
+      table.put(new Query("A", repeat('b', 250), 2, 2));
+      assertEquals(repeat('b', 250), table.get("A").getQuery());
+   }
+
+   @Test
+   public void matchesReferenceThroughRandomChanges() {
+      Random random = new Random(SEED);
+      SearchTable table = new SearchTable();
+      Map<String, Query> expected = new HashMap<>();
+
+      for (int step = 0; step < STEPS; ++step) {
+         String tag = "tag " + random.nextInt(TAGS);
+         if (random.nextInt(4) == 0) {
+            table.remove(tag);
+            expected.remove(tag);
+         }
+         else {
+            Query search = new Query(tag, query(random), step, step + 1);
+            table.put(search);
+            expected.put(tag, search);
+         }
+      }
+
+      assertEquals(expected.size(), table.size());
+      for (int i = 0; i < TAGS; ++i) {
+         String tag = "tag " + i;
+         Query search = table.get(tag);
+         Query reference = expected.get(tag);
+         if (reference == null) {
+            assertNull("removed " + tag, search);
+            continue;
+         }
+         assertNotNull("row of " + tag, search);
+         assertEquals(reference.getQuery(), search.getQuery());
+         assertEquals(reference.getTime(), search.getTime());
+         assertEquals(reference.getLastUsed(), search.getLastUsed());
+      }
+   }
+
+   // a query of 0 to 400 characters, sometimes with some beyond Latin-1
+   private static String query(Random random) {
+      StringBuilder query = new StringBuilder();
+      int length = random.nextInt(401);
+      boolean wide = random.nextInt(5) == 0;
+      for (int i = 0; i < length; ++i) {
+         query.append(wide && random.nextInt(10) == 0 ?
+            (char) (0x3b1 + random.nextInt(20)) :
+            (char) ('a' + random.nextInt(26)));
+      }
+      return query.toString();
+   }
+
+   private static String repeat(char c, int count) {
+      StringBuilder text = new StringBuilder(count);
+      for (int i = 0; i < count; ++i)
+         text.append(c);
+      return text.toString();
+   }
+}
@@ -0,0 +1,227 @@
+// SyncConvergenceTest.java
+// Checks that devices syncing through SyncServer converge. Four devices
+// save, delete and launch searches at random, some changes bypassing
+// their SyncedSearchStore as the database mode's do, and sync in random
+// order with small batches, sometimes being reopened in between. After a
+// final round every device must hold the same query under each tag, the
+// one of the newest change any device sent for it
+package com.zoris.twittersearches.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class SyncConvergenceTest {
+   private static final int DEVICES = 4;
+   private static final int TAGS = 40;
+   private static final int ROUNDS = 300;
+   private static final int TIMEOUT_MS = 15000;
+   private static final long SEED = 1;
+
+   // one device's store, which can be closed and opened again
+   private static final class Device {
+      final File directory;
+      final int id;
+      LogSearchStore log; // written directly to bypass the versions
+      SyncedSearchStore store;
+
+      Device(File directory, int id) throws IOException {
+         this.directory = directory;
+         this.id = id;
+         open();
+      }
+
+      void open() throws IOException {
+         log = new LogSearchStore(new File(directory, id + ".log"));
+         store = new SyncedSearchStore(log,
+            new File(directory, id + ".sync"));
+         store.load();
+      }
+
+      void reopen() throws IOException {
+         store.close();
+         open();
+      }
+   }
+
+   private SyncServer server;
+   private File directory;
+   private final List<SyncChange> sent = new ArrayList<>();
+   private int devices; // opened, to name their files
+
+   @Before
+   public void startServer() throws IOException {
+      server = new SyncServer();
+      directory = File.createTempFile("sync", "");
+      directory.delete();
+      directory.mkdir();
+   }
+
+   @After
+   public void stopServer() {
+      server.stop();
+      for (File file : directory.listFiles())
+         file.delete();
+      directory.delete();
+   }
+
+   // launching a search moves only its last use, which is not sent; a
+   // device receiving the search keeps its own later use
+   @Test
+   public void launchIsNotAChange() throws IOException {
+      Device first = openDevice();
+      Device second = openDevice();
+      Query search = new Query("tag", "query", 1, 1);
+      first.store.put("tag", search.toJson());
+      sync(first, 10);
+      sync(second, 10);
+
+      second.store.put("tag", search.usedAt(5).toJson());
+      assertEquals("launch stamped", 0, second.store.getPendingCount());
+      first.store.put("tag", new Query("tag", "edited", 2, 2).toJson());
+      sync(first, 10);
+      sync(second, 10);
+      Query received = Query.fromJson("tag", second.store.get("tag"));
+      assertEquals("edit received", "edited", received.getQuery());
+      assertEquals("later use kept", 5, received.getLastUsed());
+      first.store.close();
+      second.store.close();
+   }
+
+   @Test
+   public void devicesConvergeOnNewestChanges() throws IOException {
+      Random random = new Random(SEED);
+      Device[] all = new Device[DEVICES];
+      for (int i = 0; i < all.length; ++i)
+         all[i] = openDevice();
+
+      for (int round = 0; round < ROUNDS; ++round) {
+         Device device = all[random.nextInt(all.length)];
+         edit(device, random, round);
+
+         int action = random.nextInt(10);
+         if (action < 5)
+            sync(device, 1 + random.nextInt(9));
+         else if (action == 5)
+            device.reopen();
+         else if (action == 6)
+            device.store.flush();
+      }
+
+      // a second round delivers what the first sent after a device synced
+      for (int pass = 0; pass < 2; ++pass) {
+         for (Device device : all)
+            sync(device, 3);
+      }
+
+      Map<String, String> expected = newestQueries();
+      for (Device device : all) {
+         assertEquals("pending on device " + device.id, 0,
+            device.store.getPendingCount());
+         assertEquals("queries of device " + device.id, expected,
+            queries(device.store.getAll()));
+         device.store.close();
+      }
+   }
+
+   // makes up to eight random changes on device
+   private void edit(Device device, Random random, int round)
+      throws IOException {
+      Map<String, String> batch = new HashMap<>();
+      for (int i = random.nextInt(8); i > 0; --i) {
+         String tag = "tag " + random.nextInt(TAGS);
+         Query search = new Query(tag, "query " + round + "-" + i + "-" +
+            device.id, round, round);
+         int kind = random.nextInt(10);
+         if (kind < 2)
+            device.store.remove(tag);
+         else if (kind < 3)
+            device.log.put(tag, search.toJson()); // found by reconcile
+         else if (kind < 4)
+            batch.put(tag, random.nextBoolean() ? null : search.toJson());
+         else if (kind < 5)
+            launch(device, tag, round);
+         else
+            device.store.put(tag, search.toJson());
+      }
+      if (!batch.isEmpty())
+         device.store.putAll(batch);
+   }
+
+   private static void launch(Device device, String tag, long time)
+      throws IOException {
+      String record = device.store.get(tag);
+      if (record != null) {
+         device.store.put(tag,
+            Query.fromJson(tag, record).usedAt(time).toJson());
+      }
+   }
+
+   // the query of the newest change sent for each tag, leaving out tags
+   // whose newest change is a deletion; the server must keep that change
+   private Map<String, String> newestQueries() {
+      Map<String, SyncChange> newest = new HashMap<>();
+      for (SyncChange change : sent) {
+         SyncChange kept = newest.get(change.getTag());
+         if (kept == null || change.isNewerThan(kept))
+            newest.put(change.getTag(), change);
+      }
+
+      Map<String, String> queries = new HashMap<>();
+      for (SyncChange change : newest.values()) {
+         SyncChange kept = server.get(change.getTag());
+         assertEquals("server counter of " + change.getTag(),
+            change.getCounter(), kept.getCounter());
+         assertEquals("server device of " + change.getTag(),
+            change.getDevice(), kept.getDevice());
+         if (!change.isDeletion()) {
+            queries.put(change.getTag(), Query.fromJson(change.getTag(),
+               change.getRecord()).getQuery());
+         }
+      }
+      return queries;
+   }
+
+   private static Map<String, String> queries(Map<String, String> records) {
+      Map<String, String> queries = new HashMap<>();
+      for (Map.Entry<String, String> record : records.entrySet()) {
+         queries.put(record.getKey(),
+            Query.fromJson(record.getKey(), record.getValue()).getQuery());
+      }
+      return queries;
+   }
+
+   private Device openDevice() throws IOException {
+      return new Device(directory, ++devices);
+   }
+
+   // syncs device, noting every change it sends
+   private void sync(Device device, int batchSize) throws IOException {
+      final HttpClient client = new UrlConnectionClient(TIMEOUT_MS);
+      HttpClient recording = new HttpClient() {
+         @Override
+         public HttpResponse get(String url, Map<String, String> headers)
+            throws IOException {
+            return client.get(url, headers);
+         }
+
+         @Override
+         public HttpResponse post(String url, Map<String, String> headers,
+            byte[] body) throws IOException {
+            sent.addAll(SyncProtocol.decodeRequest(body).changes);
+            return client.post(url, headers, body);
+         }
+      };
+      new SyncClient(device.store, recording, server.url(), batchSize).sync();
+   }
+}
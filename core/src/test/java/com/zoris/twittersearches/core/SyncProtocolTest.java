@@ -0,0 +1,118 @@
+// SyncProtocolTest.java
+// Checks that sync requests and responses decode to what was encoded,
+// and that truncated, mislabeled or corrupt messages fail with an
+// IOException instead of returning wrong changes or exhausting memory
+package com.zoris.twittersearches.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+public class SyncProtocolTest {
+   @Test
+   public void requestRoundTrip() throws IOException {
+      List<SyncChange> changes = changes();
+      SyncProtocol.Request decoded = SyncProtocol.decodeRequest(
+         SyncProtocol.encode(new SyncProtocol.Request(-42, 1L << 40, 500,
+            changes)));
+
+      assertEquals(-42, decoded.device);
+      assertEquals(1L << 40, decoded.token);
+      assertEquals(500, decoded.limit);
+      assertChanges(changes, decoded.changes);
+   }
+
+   @Test
+   public void responseRoundTrip() throws IOException {
+      List<SyncChange> changes = changes();
+      SyncProtocol.Response decoded = SyncProtocol.decodeResponse(
+         SyncProtocol.encode(new SyncProtocol.Response(7, true, changes)));
+
+      assertEquals(7, decoded.token);
+      assertTrue(decoded.more);
+      assertChanges(changes, decoded.changes);
+
+      decoded = SyncProtocol.decodeResponse(SyncProtocol.encode(
+         new SyncProtocol.Response(0, false,
+         Collections.<SyncChange>emptyList())));
+      assertFalse(decoded.more);
+      assertTrue(decoded.changes.isEmpty());
+   }
+
+   // a response is not taken for a request
+   @Test(expected = IOException.class)
+   public void rejectsOtherKindOfMessage() throws IOException {
+      SyncProtocol.decodeRequest(SyncProtocol.encode(
+         new SyncProtocol.Response(1, false, changes())));
+   }
+
+   @Test(expected = IOException.class)
+   public void truncatedMessageFails() throws IOException {
+      byte[] message = SyncProtocol.encode(
+         new SyncProtocol.Response(1, false, changes()));
+      SyncProtocol.decodeResponse(
+         Arrays.copyOf(message, message.length / 2));
+   }
+
+   // a string length far beyond any search fails before it is allocated
+   @Test(expected = IOException.class)
+   public void rejectsHugeStringLength() throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      bytes.write(new byte[] {'T', 'S', 'R', 1});
+      DataOutputStream out =
+         new DataOutputStream(new DeflaterOutputStream(bytes));
+      out.writeByte(0); // token
+      out.writeBoolean(false);
+      out.writeByte(1); // one change
+      writeVarint(out, Integer.MAX_VALUE); // the tag's length
+      out.close();
+
+      SyncProtocol.decodeResponse(bytes.toByteArray());
+   }
+
+   private static List<SyncChange> changes() {
+      List<SyncChange> changes = new ArrayList<>();
+      changes.add(new SyncChange("java", "{\"query\":\"java\"}", 1, 99));
+      changes.add(new SyncChange("gone", null, Long.MAX_VALUE, -1));
+      changes.add(new SyncChange("\u03b1\u03b2",
+         "{\"query\":\"\\u03b3\"}", 300, 0));
+      return changes;
+   }
+
+   private static void assertChanges(List<SyncChange> expected,
+      List<SyncChange> actual) {
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); ++i) {
+         SyncChange change = expected.get(i);
+         SyncChange decoded = actual.get(i);
+         assertEquals(change.getTag(), decoded.getTag());
+         assertEquals(change.getCounter(), decoded.getCounter());
+         assertEquals(change.getDevice(), decoded.getDevice());
+         if (change.isDeletion())
+            assertNull(decoded.getRecord());
+         else
+            assertEquals(change.getRecord(), decoded.getRecord());
+      }
+   }
+
+   private static void writeVarint(DataOutputStream out, long value)
+      throws IOException {
+      while ((value & ~0x7FL) != 0) {
+         out.writeByte((int) (value & 0x7F) | 0x80);
+         value >>>= 7;
+      }
+      out.writeByte((int) value);
+   }
+}
@@ -0,0 +1,161 @@
+// SyncServer.java
+// Stand-in for the sync server on the loopback interface. It keeps the
+// newest version of every tag, deletions included, each numbered by the
+// order in which it was stored; a sync token is the last such number a
+// device has received. Versions are compared as on the devices, and the
+// server counts requests and the bytes they moved
+package com.zoris.twittersearches.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class SyncServer {
+   private final HttpServer server;
+   private final ExecutorService threads = Executors.newCachedThreadPool();
+   private final AtomicInteger requests = new AtomicInteger();
+   private final AtomicLong bytesIn = new AtomicLong();
+   private final AtomicLong bytesOut = new AtomicLong();
+
+   // the newest version of each tag, and the tags by the number each
+   // was last stored under
+   private final Map<String, SyncChange> versions = new HashMap<>();
+   private final Map<String, Long> numbers = new HashMap<>();
+   private final TreeMap<Long, String> byNumber = new TreeMap<>();
+   private long lastNumber;
+
+   SyncServer() throws IOException {
+      // without this every exchange waits out a delayed ACK, about 40 ms,
+      // as the server writes the headers and body separately; read when
+      // the first server of the process is created
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+      server = HttpServer.create(
+         new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      server.setExecutor(threads);
+      server.createContext("/", new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            try {
+               serve(exchange);
+            }
+            finally {
+               exchange.close();
+            }
+         }
+      });
+      server.start();
+   }
+
+   private void serve(HttpExchange exchange) throws IOException {
+      requests.incrementAndGet();
+      byte[] body = readAll(exchange.getRequestBody());
+      bytesIn.addAndGet(body.length);
+
+      byte[] answer;
+      try {
+         answer = SyncProtocol.encode(
+            handle(SyncProtocol.decodeRequest(body)));
+      } catch (IOException e) {
+         exchange.sendResponseHeaders(400, -1); // not a sync request
+         return;
+      }
+
+      bytesOut.addAndGet(answer.length);
+      exchange.getResponseHeaders().set("Content-Type",
+         SyncProtocol.MIME_TYPE);
+      exchange.sendResponseHeaders(HttpResponse.OK, answer.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(answer);
+      out.close();
+   }
+
+   // stores the request's changes that are newer than the versions kept,
+   // then answers with up to the request's limit of versions stored after
+   // its token, leaving out the ones it just sent
+   synchronized SyncProtocol.Response handle(SyncProtocol.Request request) {
+      Set<String> stored = new HashSet<>();
+      for (SyncChange change : request.changes) {
+         String tag = change.getTag();
+         SyncChange kept = versions.get(tag);
+         if (kept != null && !change.isNewerThan(kept))
+            continue;
+
+         versions.put(tag, change);
+         Long old = numbers.put(tag, ++lastNumber);
+         if (old != null)
+            byNumber.remove(old);
+         byNumber.put(lastNumber, tag);
+         stored.add(tag);
+      }
+
+      List<SyncChange> changes = new ArrayList<>();
+      long token = request.token;
+      boolean more = false;
+      for (Map.Entry<Long, String> entry :
+         byNumber.tailMap(request.token, false).entrySet()) {
+         if (changes.size() == request.limit) {
+            more = true;
+            break;
+         }
+         token = entry.getKey();
+         if (!stored.contains(entry.getValue()))
+            changes.add(versions.get(entry.getValue()));
+      }
+      return new SyncProtocol.Response(token, more, changes);
+   }
+
+   // the URL of the server
+   String url() {
+      return "http://127.0.0.1:" + server.getAddress().getPort() + "/sync";
+   }
+
+   // returns the version of tag kept, or null if there is none
+   synchronized SyncChange get(String tag) {
+      return versions.get(tag);
+   }
+
+   int requests() {
+      return requests.get();
+   }
+
+   long bytesIn() {
+      return bytesIn.get();
+   }
+
+   long bytesOut() {
+      return bytesOut.get();
+   }
+
+   void stop() {
+      server.stop(0);
+      threads.shutdown();
+   }
+
+   private static byte[] readAll(InputStream in) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] chunk = new byte[8192];
+      int count;
+      while ((count = in.read(chunk)) > 0)
+         bytes.write(chunk, 0, count);
+      in.close();
+      return bytes.toByteArray();
+   }
+}